@@ -19,23 +19,12 @@
 package org.apache.hadoop.fs.gcs.wrapper;
 
 import com.google.cloud.hadoop.fs.gcs.GoogleHadoopFileSystem;
-import com.google.common.base.Throwables;
-import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
-import org.apache.hadoop.fs.FSDataOutputStream;
-import org.apache.hadoop.fs.FileStatus;
-import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FSInputStream;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.fs.permission.FsPermission;
-import org.apache.hadoop.util.Progressable;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.apache.hadoop.fs.wrapper.TracingFileSystem;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.net.InetAddress;
-import java.net.URI;
-import java.net.UnknownHostException;
 
 /**
  * GCS Wrapper which logs all FS calls for future reference.
@@ -64,132 +53,15 @@ import java.net.UnknownHostException;
  *
  * </pre>
  */
-public class GCSWrapperFileSystem extends FileSystem {
-
-  private static final Logger LOG = LoggerFactory.getLogger(GCSWrapperFileSystem.class);
-  private final GoogleHadoopFileSystem realFS;
-  private final String address;
-  private static final String PRINT_STACK_TRACE = "fs.wrapper.stacktrace";
-  private boolean printStackTrace;
-
-  @Override
-  public URI getUri() {
-    return realFS.getUri();
-  }
+public class GCSWrapperFileSystem extends TracingFileSystem {
 
   public GCSWrapperFileSystem() {
-    super();
-    this.realFS = new GoogleHadoopFileSystem();
-    String localAddress = null;
-    try {
-      localAddress = InetAddress.getLocalHost().getHostAddress();
-    } catch (UnknownHostException e) {
-      //ignore
-    }
-    this.address = localAddress;
-  }
-
-  @Override
-  public void initialize(URI name, Configuration conf) throws IOException {
-    printStackTrace = conf.getBoolean(PRINT_STACK_TRACE, false);
-    if (printStackTrace) {
-      LOG.info("initialize.." + Throwables.getStackTraceAsString(new Exception()));
-    }
-    realFS.initialize(name, conf);
-  }
-
-  @Override
-  public FSDataInputStream open(Path f, int bufferSize) throws IOException {
-    final FileStatus fileStatus = realFS.getFileStatus(f);
-    long startTime = System.nanoTime();
-    FSDataInputStream rs = realFS.open(f, bufferSize);
-    long endTime = System.nanoTime();
-    log(f, "open", fileStatus.getLen(), (endTime - startTime));
-    return new FSDataInputStream(new GCSWrapperInputStream(rs, f, fileStatus.getLen(), address,
-        printStackTrace));
-  }
-
-  @Override
-  public FSDataOutputStream create(Path f, FsPermission permission, boolean overwrite,
-      int bufferSize, short replication, long blockSize, Progressable progress) throws IOException {
-    long startTime = System.nanoTime();
-    FSDataOutputStream out = realFS.create(f, permission, overwrite, bufferSize, replication,
-        blockSize, progress);
-    long endTime = System.nanoTime();
-    log(f, "create", 0, (endTime - startTime));
-    return out;
-  }
-
-  @Override
-  public void close() throws IOException {
-    //prints statistics if available
-    LOG.info(realFS.toString());
-    super.close();
-  }
-
-  @Override
-  public FSDataOutputStream append(Path f, int bufferSize, Progressable progress)
-      throws IOException {
-    return realFS.append(f, bufferSize, progress);
-  }
-
-  @Override
-  public boolean rename(Path src, Path dst) throws IOException {
-    LOG.info("rename src=" + src + " to dest=" + dst);
-    return realFS.rename(src, dst);
-  }
-
-  @Override
-  public boolean delete(Path f, boolean recursive) throws IOException {
-    LOG.info("delete src=" + f + " recursive=" + recursive);
-    return realFS.delete(f, recursive);
-  }
-
-  @Override
-  public FileStatus[] listStatus(Path f) throws FileNotFoundException, IOException {
-    if (printStackTrace) {
-      LOG.info("listStatus path=" + f + ", " + Throwables.getStackTraceAsString(new Exception()));
-    }
-    return realFS.listStatus(f);
-  }
-
-  @Override
-  public void setWorkingDirectory(Path new_dir) {
-    realFS.setWorkingDirectory(new_dir);
-  }
-
-  @Override
-  public Path getWorkingDirectory() {
-    return realFS.getWorkingDirectory();
-  }
-
-  @Override
-  public boolean mkdirs(Path f, FsPermission permission) throws IOException {
-    if (printStackTrace) {
-      LOG.info("mkdirs path=" + f + ", " + Throwables.getStackTraceAsString(new Exception()));
-    }
-    return realFS.mkdirs(f, permission);
+    super(new GoogleHadoopFileSystem());
   }
 
   @Override
-  public FileStatus getFileStatus(Path f) throws IOException {
-    if (printStackTrace) {
-      LOG.info(
-          "getFileStatus path=" + f + ", " + Throwables.getStackTraceAsString(new Exception()));
-    }
-    return realFS.getFileStatus(f);
-  }
-
-  //Format: hashCode_hashcode, machine, filePath, operation, fileLen, timeInNanos
-  private void log(Path f, String op, long contentLen, long timeInNanos) throws
-      IOException {
-    LOG.info("hashCode_" + hashCode()
-        + "," + address
-        + "," + f
-        + "," + op
-        + "," + contentLen
-        + "," + timeInNanos
-    );
+  protected FSInputStream createInputStream(FSDataInputStream in, Path f, long contentLen,
+      boolean traced) throws IOException {
+    return new GCSWrapperInputStream(in, f, contentLen, address, printStackTrace, traced);
   }
 }
-
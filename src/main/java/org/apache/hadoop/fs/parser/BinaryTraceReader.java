@@ -0,0 +1,224 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.parser;
+
+import org.apache.hadoop.fs.wrapper.BinaryTraceFormat;
+import org.apache.hadoop.fs.wrapper.CallSiteTable;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the binary traces written by {@link org.apache.hadoop.fs.wrapper.BinaryTraceSink}
+ * and returns them as {@link Data}, one event at a time.
+ */
+public class BinaryTraceReader implements Closeable {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final DataInputStream in;
+  private final Inflater inflater = new Inflater();
+  private final List<String> dictionary = new ArrayList<String>();
+  private final Map<Integer, String> callSites = new HashMap<Integer, String>();
+  private final Map<Integer, String> tags = new HashMap<Integer, String>();
+
+  private byte[] compressed = new byte[0];
+  private byte[] raw = new byte[0];
+  private int pos;
+  private int limit;
+  private long lastTimestamp;
+
+  public BinaryTraceReader(InputStream in) throws IOException {
+    this.in = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+    byte[] magic = new byte[BinaryTraceFormat.MAGIC.length];
+    this.in.readFully(magic);
+    if (!Arrays.equals(magic, BinaryTraceFormat.MAGIC)) {
+      throw new IOException("Not a binary wrapper trace");
+    }
+    byte version = this.in.readByte();
+    if (version != BinaryTraceFormat.VERSION) {
+      throw new IOException("Unsupported trace version " + version);
+    }
+    dictionary.add(null); // NULL_ID
+  }
+
+  /**
+   * @return true if the file starts with the binary trace magic
+   */
+  public static boolean isBinaryTrace(File file) throws IOException {
+    byte[] magic = new byte[BinaryTraceFormat.MAGIC.length];
+    try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+      in.readFully(magic);
+    } catch (EOFException e) {
+      return false;
+    }
+    return Arrays.equals(magic, BinaryTraceFormat.MAGIC);
+  }
+
+  /**
+   * @return next event or null once the trace is exhausted
+   */
+  public Data next() throws IOException {
+    while (true) {
+      if (pos == limit && !readSegment()) {
+        return null;
+      }
+      byte type = raw[pos++];
+      if (type == BinaryTraceFormat.DICTIONARY) {
+        int id = (int) readVarLong();
+        int len = (int) readVarLong();
+        String value = new String(raw, pos, len, UTF8);
+        pos += len;
+        while (dictionary.size() <= id) {
+          dictionary.add(null);
+        }
+        dictionary.set(id, value);
+      } else if (type == BinaryTraceFormat.CALL_SITE) {
+        int id = (int) readVarLong();
+        callSites.put(id, lookup(readVarLong()));
+      } else if (type == BinaryTraceFormat.TAGS) {
+        int id = (int) readVarLong();
+        tags.put(id, lookup(readVarLong()));
+      } else if (type == BinaryTraceFormat.EVENT) {
+        return readEvent();
+      } else {
+        throw new IOException("Corrupt trace; unknown record type " + type);
+      }
+    }
+  }
+
+  private Data readEvent() throws IOException {
+    int header = raw[pos++];
+    boolean stream = (header & BinaryTraceFormat.FLAG_STREAM) != 0;
+    Data data = new Data();
+    data.setOperation(lookup(readVarLong()));
+    data.setAddress(lookup(readVarLong()));
+    data.setFileName(lookup(readVarLong()));
+    data.setHashCode("hashCode_" + readZigZag());
+    lastTimestamp += readZigZag();
+    data.setTimestamp(lastTimestamp);
+    data.setContentLen(readZigZag());
+    if (stream) {
+      long oldPos = readZigZag();
+      data.setOldPos(oldPos);
+      data.setRealPos(oldPos + readZigZag());
+      data.setPositionalRead(readZigZag());
+      data.setRead(readZigZag());
+    }
+    data.setTimeInNanos(readZigZag());
+    if ((header & BinaryTraceFormat.FLAG_MSG) != 0) {
+      data.setMsg(lookup(readVarLong()));
+    }
+    if ((header & BinaryTraceFormat.FLAG_CALL_SITE) != 0) {
+      // same as the msg column of the logged trace
+      data.setMsg(CallSiteTable.PREFIX + readVarLong());
+    }
+    data.setThreadId(readVarLong());
+    if ((header & BinaryTraceFormat.FLAG_TAGS) != 0) {
+      data.setTags(tags.get((int) readVarLong()));
+    }
+    return data;
+  }
+
+  /**
+   * @return frames of the call sites read so far, keyed by call site id
+   */
+  public Map<Integer, String> getCallSites() {
+    return callSites;
+  }
+
+  private String lookup(long id) throws IOException {
+    if (id < 0 || id >= dictionary.size()) {
+      throw new IOException("Corrupt trace; unknown dictionary id " + id);
+    }
+    return dictionary.get((int) id);
+  }
+
+  private boolean readSegment() throws IOException {
+    int rawLength;
+    try {
+      rawLength = in.readInt();
+    } catch (EOFException e) {
+      return false;
+    }
+    int compressedLength = in.readInt();
+    if (compressed.length < compressedLength) {
+      compressed = new byte[compressedLength];
+    }
+    if (raw.length < rawLength) {
+      raw = new byte[rawLength];
+    }
+    in.readFully(compressed, 0, compressedLength);
+    inflater.reset();
+    inflater.setInput(compressed, 0, compressedLength);
+    try {
+      int n = 0;
+      while (n < rawLength && !inflater.finished()) {
+        n += inflater.inflate(raw, n, rawLength - n);
+      }
+      if (n != rawLength) {
+        throw new IOException("Corrupt trace; segment has " + n + " bytes instead of " + rawLength);
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt trace segment", e);
+    }
+    pos = 0;
+    limit = rawLength;
+    return true;
+  }
+
+  private long readVarLong() throws IOException {
+    long result = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      if (pos >= limit) {
+        throw new IOException("Corrupt trace; record crosses segment boundary");
+      }
+      byte b = raw[pos++];
+      result |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return result;
+      }
+    }
+    throw new IOException("Corrupt trace; malformed varint");
+  }
+
+  private long readZigZag() throws IOException {
+    return BinaryTraceFormat.unZigZag(readVarLong());
+  }
+
+  @Override
+  public void close() throws IOException {
+    inflater.end();
+    in.close();
+  }
+}
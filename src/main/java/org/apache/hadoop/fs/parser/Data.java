@@ -29,7 +29,10 @@ public class Data {
   private long positionalRead;
   private long read;
   private long timeInNanos;
+  private long timestamp;
   private String msg;
+  private long threadId;
+  private String tags;
 
   public String getHashCode() {
     return hashCode;
@@ -111,6 +114,14 @@ public class Data {
     this.timeInNanos = timeInNanos;
   }
 
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  public void setTimestamp(long timestamp) {
+    this.timestamp = timestamp;
+  }
+
   public String getMsg() {
     return msg;
   }
@@ -118,4 +129,24 @@ public class Data {
   public void setMsg(String msg) {
     this.msg = msg;
   }
+
+  public long getThreadId() {
+    return threadId;
+  }
+
+  public void setThreadId(long threadId) {
+    this.threadId = threadId;
+  }
+
+  /**
+   * @return tags (query id, task attempt etc) of the filesystem which traced
+   * the event, or null
+   */
+  public String getTags() {
+    return tags;
+  }
+
+  public void setTags(String tags) {
+    this.tags = tags;
+  }
 }
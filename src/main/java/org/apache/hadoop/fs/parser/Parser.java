@@ -18,9 +18,14 @@
 
 package org.apache.hadoop.fs.parser;
 
+import org.apache.hadoop.fs.wrapper.CallSiteTable;
+import org.apache.hadoop.fs.wrapper.TraceTags;
+
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -33,13 +38,22 @@ import java.util.TreeMap;
  * <p>
  * Rough code just for parsing logs. Inefficient way, but fine for getting quick info.
  * </p>
+ * <p>
+ * Binary traces (fs.wrapper.trace.sink=binary) are detected by their header and read
+ * with {@link BinaryTraceReader}.
+ * </p>
  */
 public class Parser {
 
   static final String hashCode = "hashCode_";
   static final String inputStream = "InputStream";
+  // TracingOutputStream lines have the columns of input stream lines
+  static final String outputStream = "OutputStream";
   static final String fileSystem = "FileSystem";
   static List<Data> dataList = new LinkedList<Data>();
+  // tags_id -> tags, as last defined in the log. Ids are per JVM, but yarn logs keep the
+  // lines of a container together and definitions come before their first use
+  static Map<String, String> tagDefinitions = new HashMap<String, String>();
 
   public static long strToLong(String str) {
     try {
@@ -50,7 +64,56 @@ public class Parser {
   }
 
   public static void main(String[] args) throws Exception {
-    try (BufferedReader reader = new BufferedReader(new FileReader(new File(args[0])))) {
+    File file = new File(args[0]);
+    if (BinaryTraceReader.isBinaryTrace(file)) {
+      readBinaryTrace(file);
+    } else {
+      readLog(file);
+    }
+    computeDataReadPerMachine();
+    computeDataWrittenPerMachine();
+    computeTimeTakenPerNode();
+    computeTimeTakenPerNode("read");
+    computeTimeTakenPerNode("readFully");
+    computeTimeTakenPerNode("readVectored");
+    computeTimeTakenPerNode("close");
+    //FileSystem
+    computeTimeTakenPerNode("open");
+    computeTimeTakenPerNode("lazyOpen");
+    computeTimeTakenPerNode("create");
+    computeTimeTakenPerNode("append");
+    computeTimeTakenPerNode("rename");
+    computeTimeTakenPerNode("delete");
+    //output streams
+    computeTimeTakenPerNode("write");
+    computeTimeTakenPerNode("hflush");
+    computeTimeTakenPerNode("hsync");
+    computeTimeTakenPerNode("closeOutput");
+    filesPerNode();
+    computeTimeTakenPerTags();
+  }
+
+  /**
+   * Read trace written with fs.wrapper.trace.sink=binary
+   *
+   * @param file
+   */
+  static void readBinaryTrace(File file) throws IOException {
+    try (BinaryTraceReader reader = new BinaryTraceReader(new FileInputStream(file))) {
+      Data data;
+      while ((data = reader.next()) != null) {
+        dataList.add(data);
+      }
+    }
+  }
+
+  /**
+   * Read trace lines grepped out of the yarn logs
+   *
+   * @param file
+   */
+  static void readLog(File file) throws IOException {
+    try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
       while (reader.ready()) {
         String line = reader.readLine();
         if (line.contains(hashCode)) {
@@ -58,7 +121,7 @@ public class Parser {
           //TODO: Carry out some basic sanity checks here
           String[] contents = useFulLine.split(",");
 
-          if (line.contains(inputStream)) {
+          if (line.contains(inputStream) || line.contains(outputStream)) {
             Data data = new Data();
             data.setHashCode(contents[0]);
             data.setAddress(contents[1]);
@@ -70,9 +133,10 @@ public class Parser {
             data.setPositionalRead(strToLong(contents[7]));
             data.setRead(strToLong(contents[8]));
             data.setTimeInNanos(strToLong(contents[9]));
-            if (contents.length == 11) {
+            if (contents.length > 10 && !contents[10].isEmpty()) {
               data.setMsg(contents[10]);
             }
+            parseOptionalColumns(data, contents, 11);
             dataList.add(data);
           }
 
@@ -84,18 +148,36 @@ public class Parser {
             data.setOperation(contents[3]);
             data.setContentLen(strToLong(contents[4]));
             data.setTimeInNanos(strToLong(contents[5]));
+            parseOptionalColumns(data, contents, 6);
             dataList.add(data);
           }
+        } else if (line.contains(TraceTags.PREFIX)) {
+          // tags_id,key=value key=value
+          String definition = line.substring(line.indexOf(TraceTags.PREFIX)).trim();
+          int comma = definition.indexOf(',');
+          if (comma > 0) {
+            tagDefinitions.put(definition.substring(0, comma), definition.substring(comma + 1));
+          }
         }
       }
-      computeDataReadPerMachine();
-      computeTimeTakenPerNode();
-      computeTimeTakenPerNode("read");
-      computeTimeTakenPerNode("readFully");
-      computeTimeTakenPerNode("close");
-      //FileSystem
-      computeTimeTakenPerNode("open");
-      filesPerNode();
+    }
+  }
+
+  /**
+   * Parse the trailing callSite_, thread_ and tags_ columns, which are not present in
+   * older logs
+   */
+  static void parseOptionalColumns(Data data, String[] contents, int from) {
+    for (int i = from; i < contents.length; i++) {
+      String column = contents[i];
+      if (column.startsWith(CallSiteTable.PREFIX)) {
+        data.setMsg(column);
+      } else if (column.startsWith(TraceTags.THREAD_PREFIX)) {
+        data.setThreadId(strToLong(column.substring(TraceTags.THREAD_PREFIX.length())));
+      } else if (column.startsWith(TraceTags.PREFIX)) {
+        String tags = tagDefinitions.get(column);
+        data.setTags(tags == null ? column : tags);
+      }
     }
   }
 
@@ -106,6 +188,9 @@ public class Parser {
     Map<String, Long> dataReadPerNode = new HashMap<String, Long>();
     long count = 0;
     for (Data data : dataList) {
+      if (isOutputStreamOp(data.getOperation())) {
+        continue;
+      }
       String node = data.getAddress();
       if (!dataReadPerNode.containsKey(node)) {
         dataReadPerNode.put(node, 0L);
@@ -117,6 +202,33 @@ public class Parser {
     prettyPrint(dataReadPerNode);
   }
 
+  /**
+   * compute amount of data written per node, from the write batches of output streams
+   */
+  static void computeDataWrittenPerMachine() {
+    Map<String, Long> dataWrittenPerNode = new HashMap<String, Long>();
+    long count = 0;
+    for (Data data : dataList) {
+      if (!"write".equals(data.getOperation())) {
+        continue;
+      }
+      String node = data.getAddress();
+      Long written = dataWrittenPerNode.get(node);
+      dataWrittenPerNode.put(node, (written == null ? 0 : written) + data.getRead());
+      count++;
+    }
+    System.out.println("Data written per node : count=" + count);
+    prettyPrint(dataWrittenPerNode);
+  }
+
+  /**
+   * bytes column of output stream lines holds bytes written
+   */
+  static boolean isOutputStreamOp(String operation) {
+    return "write".equals(operation) || "hflush".equals(operation)
+        || "hsync".equals(operation) || "closeOutput".equals(operation);
+  }
+
   /**
    * compute amount of time taken (overall including readFully, close etc)
    */
@@ -165,6 +277,28 @@ public class Parser {
     prettyPrint(filesPerNode);
   }
 
+  /**
+   * compute time taken and data read per tags (query, task attempt etc)
+   */
+  static void computeTimeTakenPerTags() {
+    Map<String, Long> timeTakenPerTags = new TreeMap<String, Long>();
+    Map<String, Long> dataReadPerTags = new TreeMap<String, Long>();
+    for (Data data : dataList) {
+      String tags = (data.getTags() == null) ? "untagged" : data.getTags();
+      Long time = timeTakenPerTags.get(tags);
+      timeTakenPerTags.put(tags, (time == null ? 0 : time) + data.getTimeInNanos());
+      if (isOutputStreamOp(data.getOperation())) {
+        continue;
+      }
+      Long read = dataReadPerTags.get(tags);
+      dataReadPerTags.put(tags, (read == null ? 0 : read) + Math.max(0, data.getRead()));
+    }
+    System.out.println("Time taken per tags:");
+    prettyPrint(timeTakenPerTags);
+    System.out.println("Data read per tags:");
+    prettyPrint(dataReadPerTags);
+  }
+
   /**
    * Pretty print. Could use guava Joiner as well.
    *
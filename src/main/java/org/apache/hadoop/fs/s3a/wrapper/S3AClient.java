@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.s3a.wrapper;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.CannedAccessControlList;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.s3a.S3AFileSystem;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+
+/**
+ * The S3 client of an S3AFileSystem, so that its credentials, endpoint and
+ * retry settings apply, with the bucket and the object settings configured
+ * for S3A (server side encryption and canned ACL).
+ */
+final class S3AClient {
+
+  // keys of S3AFileSystem
+  private static final String SERVER_SIDE_ENCRYPTION_ALGORITHM =
+      "fs.s3a.server-side-encryption-algorithm";
+  private static final String CANNED_ACL = "fs.s3a.acl.default";
+
+  final AmazonS3 s3;
+  final String bucket;
+  // null if not configured
+  final CannedAccessControlList cannedACL;
+  private final String serverSideEncryption;
+
+  private S3AClient(AmazonS3 s3, String bucket, String serverSideEncryption,
+      CannedAccessControlList cannedACL) {
+    this.s3 = s3;
+    this.bucket = bucket;
+    this.serverSideEncryption = serverSideEncryption;
+    this.cannedACL = cannedACL;
+  }
+
+  static S3AClient get(FileSystem fs, Configuration conf) throws IOException {
+    if (!(fs instanceof S3AFileSystem)) {
+      throw new IOException("S3AFileSystem expected, not " + fs);
+    }
+    String acl = conf.getTrimmed(CANNED_ACL, "");
+    return new S3AClient(getClient((S3AFileSystem) fs), fs.getUri().getHost(),
+        conf.getTrimmed(SERVER_SIDE_ENCRYPTION_ALGORITHM, ""),
+        acl.isEmpty() ? null : CannedAccessControlList.valueOf(acl));
+  }
+
+  // S3AFileSystem of Hadoop 2.7 does not expose its client
+  private static AmazonS3 getClient(S3AFileSystem fs) throws IOException {
+    try {
+      Field field = S3AFileSystem.class.getDeclaredField("s3");
+      field.setAccessible(true);
+      return (AmazonS3) field.get(fs);
+    } catch (NoSuchFieldException | IllegalAccessException e) {
+      throw new IOException("Could not get the S3 client of " + fs.getUri(), e);
+    }
+  }
+
+  /**
+   * @return metadata of new objects
+   */
+  ObjectMetadata newMetadata() {
+    ObjectMetadata metadata = new ObjectMetadata();
+    if (!serverSideEncryption.isEmpty()) {
+      metadata.setServerSideEncryption(serverSideEncryption);
+    }
+    return metadata;
+  }
+
+  /**
+   * @return metadata of the copy of the object, or null to keep the metadata
+   * of the source; like S3AFileSystem, only set when copies are encrypted
+   */
+  ObjectMetadata newCopyMetadata(String srcKey) {
+    if (serverSideEncryption.isEmpty()) {
+      return null;
+    }
+    ObjectMetadata metadata = s3.getObjectMetadata(bucket, srcKey).clone();
+    metadata.setServerSideEncryption(serverSideEncryption);
+    return metadata;
+  }
+
+  static String pathToKey(Path path) {
+    return path.toUri().getPath().substring(1);
+  }
+}
@@ -0,0 +1,146 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.s3a.wrapper;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.s3a.S3AFileSystem;
+import org.apache.hadoop.fs.wrapper.MultipartUploader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Multipart uploads with the S3 client of the S3AFileSystem (see
+ * {@link S3AClient}). Like S3AOutputStream, removes the fake directory
+ * objects of the parents of a file once it is written.
+ */
+public class S3AMultipartUploader implements MultipartUploader {
+
+  // smaller parts fail the completion of the upload with EntityTooSmall
+  private static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+  private S3AFileSystem fs;
+  private S3AClient client;
+
+  @Override
+  public void initialize(FileSystem fs, Configuration conf) throws IOException {
+    client = S3AClient.get(fs, conf);
+    this.fs = (S3AFileSystem) fs;
+  }
+
+  @Override
+  public int getMinPartSize() {
+    return MIN_PART_SIZE;
+  }
+
+  @Override
+  public void put(Path path, byte[] data, int len) throws IOException {
+    ObjectMetadata metadata = client.newMetadata();
+    metadata.setContentLength(len);
+    PutObjectRequest request = new PutObjectRequest(client.bucket, S3AClient.pathToKey(path),
+        new ByteArrayInputStream(data, 0, len), metadata);
+    if (client.cannedACL != null) {
+      request.setCannedAcl(client.cannedACL);
+    }
+    try {
+      client.s3.putObject(request);
+    } catch (AmazonClientException e) {
+      throw new IOException("Put of " + path + " failed", e);
+    }
+    fs.finishedWrite(S3AClient.pathToKey(path));
+  }
+
+  @Override
+  public Upload start(Path path) throws IOException {
+    String key = S3AClient.pathToKey(path);
+    InitiateMultipartUploadRequest request = new InitiateMultipartUploadRequest(client.bucket,
+        key, client.newMetadata());
+    if (client.cannedACL != null) {
+      request.setCannedACL(client.cannedACL);
+    }
+    try {
+      return new S3AUpload(path, key,
+          client.s3.initiateMultipartUpload(request).getUploadId());
+    } catch (AmazonClientException e) {
+      throw new IOException("Start of the upload of " + path + " failed", e);
+    }
+  }
+
+  private class S3AUpload implements Upload {
+
+    private final Path path;
+    private final String key;
+    private final String uploadId;
+
+    S3AUpload(Path path, String key, String uploadId) {
+      this.path = path;
+      this.key = key;
+      this.uploadId = uploadId;
+    }
+
+    @Override
+    public String uploadPart(int partNumber, byte[] data, int len) throws IOException {
+      UploadPartRequest request = new UploadPartRequest().withBucketName(client.bucket)
+          .withKey(key).withUploadId(uploadId).withPartNumber(partNumber)
+          .withInputStream(new ByteArrayInputStream(data, 0, len)).withPartSize(len);
+      try {
+        return client.s3.uploadPart(request).getETag();
+      } catch (AmazonClientException e) {
+        throw new IOException("Upload of part " + partNumber + " of " + path + " failed", e);
+      }
+    }
+
+    @Override
+    public void complete(List<String> partTags) throws IOException {
+      List<PartETag> etags = new ArrayList<PartETag>(partTags.size());
+      for (int i = 0; i < partTags.size(); i++) {
+        etags.add(new PartETag(i + 1, partTags.get(i)));
+      }
+      try {
+        client.s3.completeMultipartUpload(new CompleteMultipartUploadRequest(client.bucket, key,
+            uploadId, etags));
+      } catch (AmazonClientException e) {
+        throw new IOException("Completion of the upload of " + path + " failed", e);
+      }
+      fs.finishedWrite(key);
+    }
+
+    @Override
+    public void abort() throws IOException {
+      try {
+        client.s3.abortMultipartUpload(new AbortMultipartUploadRequest(client.bucket, key,
+            uploadId));
+      } catch (AmazonClientException e) {
+        throw new IOException("Abort of the upload of " + path + " failed", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,232 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.s3a.wrapper;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.fs.s3a.S3AFileSystem;
+import org.apache.hadoop.fs.wrapper.TreeOperations;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Directory rename and delete of S3: the tree is listed with one flat
+ * listing of its prefix, files are copied on the server with one request
+ * each, without the status checks of S3AFileSystem.rename(), and deleted
+ * with multi-object deletes of up to 1000 keys. Directory markers are only
+ * written for empty directories, and the markers of the parents of the
+ * destination are deleted like S3AFileSystem does after a write.
+ */
+public class S3ATreeOperations extends TreeOperations {
+
+  // limits of S3
+  private static final long MAX_COPY_SIZE = 5L * 1024 * 1024 * 1024;
+  private static final int MAX_DELETE_KEYS = 1000;
+
+  private S3AClient client;
+
+  @Override
+  public void initialize(FileSystem fs, Configuration conf) throws IOException {
+    super.initialize(fs, conf);
+    client = S3AClient.get(fs, conf);
+  }
+
+  @Override
+  protected RemoteIterator<FileStatus> listTree(FileStatus dir) throws IOException {
+    return new TreeListing(dir);
+  }
+
+  @Override
+  protected boolean moveFile(FileStatus src, Path dst) throws IOException {
+    if (src.getLen() > MAX_COPY_SIZE) {
+      // needs a multipart copy, which S3AFileSystem does
+      return super.moveFile(src, dst);
+    }
+    String srcKey = S3AClient.pathToKey(src.getPath());
+    try {
+      CopyObjectRequest request = new CopyObjectRequest(client.bucket, srcKey, client.bucket,
+          S3AClient.pathToKey(dst));
+      ObjectMetadata metadata = client.newCopyMetadata(srcKey);
+      if (metadata != null) {
+        request.setNewObjectMetadata(metadata);
+      }
+      if (client.cannedACL != null) {
+        request.setCannedAccessControlList(client.cannedACL);
+      }
+      client.s3.copyObject(request);
+    } catch (AmazonClientException e) {
+      throw new IOException("Copy of " + src.getPath() + " to " + dst + " failed", e);
+    }
+    return true;
+  }
+
+  @Override
+  protected void makeDirectory(Path dir) throws IOException {
+    // an empty object, like S3AFileSystem.mkdirs()
+    ObjectMetadata metadata = client.newMetadata();
+    metadata.setContentLength(0);
+    PutObjectRequest request = new PutObjectRequest(client.bucket,
+        S3AClient.pathToKey(dir) + Path.SEPARATOR, new ByteArrayInputStream(new byte[0]),
+        metadata);
+    if (client.cannedACL != null) {
+      request.setCannedAcl(client.cannedACL);
+    }
+    try {
+      client.s3.putObject(request);
+    } catch (AmazonClientException e) {
+      throw new IOException("Put of directory " + dir + " failed", e);
+    }
+  }
+
+  @Override
+  protected void finishedRename(Path dst) throws IOException {
+    // the copies do not delete the markers of the parents
+    ((S3AFileSystem) fs).finishedWrite(S3AClient.pathToKey(dst));
+  }
+
+  @Override
+  protected int getDeleteBatchSize() {
+    return MAX_DELETE_KEYS;
+  }
+
+  @Override
+  protected void deleteFiles(List<Path> files) throws IOException {
+    List<DeleteObjectsRequest.KeyVersion> keys =
+        new ArrayList<DeleteObjectsRequest.KeyVersion>(files.size());
+    for (Path file : files) {
+      keys.add(new DeleteObjectsRequest.KeyVersion(S3AClient.pathToKey(file)));
+    }
+    try {
+      client.s3.deleteObjects(new DeleteObjectsRequest(client.bucket).withKeys(keys));
+    } catch (MultiObjectDeleteException e) {
+      List<String> failed = new ArrayList<String>();
+      for (MultiObjectDeleteException.DeleteError error : e.getErrors()) {
+        failed.add(error.getKey() + ": " + error.getMessage());
+      }
+      throw new IOException("Delete of " + failed.size() + " of " + files.size()
+          + " objects (first " + files.get(0) + ") failed: " + failed, e);
+    } catch (AmazonClientException e) {
+      throw new IOException("Delete of " + files.size() + " objects (first " + files.get(0)
+          + ") failed", e);
+    }
+  }
+
+  /**
+   * Flat listing of all keys under the prefix of a directory, page by page.
+   * Keys come in order, so a directory marker is empty unless the next key
+   * starts with it.
+   */
+  private final class TreeListing implements RemoteIterator<FileStatus> {
+
+    private final FileStatus dir;
+    private final String prefix;
+    private final Deque<FileStatus> ready = new ArrayDeque<FileStatus>();
+    // null once the last page is consumed
+    private ObjectListing listing;
+    // marker whose directory has no entry so far
+    private String marker;
+    private boolean found;
+
+    TreeListing(FileStatus dir) throws IOException {
+      this.dir = dir;
+      this.prefix = S3AClient.pathToKey(dir.getPath()) + Path.SEPARATOR;
+      ListObjectsRequest request = new ListObjectsRequest().withBucketName(client.bucket)
+          .withPrefix(prefix);
+      try {
+        listing = client.s3.listObjects(request);
+      } catch (AmazonClientException e) {
+        throw new IOException("List of " + dir.getPath() + " failed", e);
+      }
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+      while (ready.isEmpty() && listing != null) {
+        for (S3ObjectSummary summary : listing.getObjectSummaries()) {
+          add(summary);
+        }
+        try {
+          listing = listing.isTruncated() ? client.s3.listNextBatchOfObjects(listing) : null;
+        } catch (AmazonClientException e) {
+          throw new IOException("List of " + dir.getPath() + " failed after "
+              + listing.getNextMarker(), e);
+        }
+        if (listing == null && marker != null) {
+          ready.add(directory(marker));
+        } else if (listing == null && !found) {
+          ready.add(dir);
+        }
+      }
+      return !ready.isEmpty();
+    }
+
+    @Override
+    public FileStatus next() throws IOException {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return ready.poll();
+    }
+
+    private void add(S3ObjectSummary summary) {
+      String key = summary.getKey();
+      if (key.equals(prefix)) {
+        // marker of the directory itself
+        return;
+      }
+      found = true;
+      if (marker != null && !key.startsWith(marker)) {
+        ready.add(directory(marker));
+      }
+      marker = null;
+      if (key.endsWith(Path.SEPARATOR)) {
+        marker = key;
+      } else {
+        ready.add(new FileStatus(summary.getSize(), false, 1, 0,
+            summary.getLastModified().getTime(), keyToPath(key)));
+      }
+    }
+
+    private FileStatus directory(String key) {
+      return new FileStatus(0, true, 1, 0, 0, keyToPath(key.substring(0, key.length() - 1)));
+    }
+
+    private Path keyToPath(String key) {
+      return fs.makeQualified(new Path(Path.SEPARATOR + key));
+    }
+  }
+}
@@ -18,15 +18,12 @@
 
 package org.apache.hadoop.fs.wasb.wrapper;
 
-import com.google.common.base.Throwables;
+import com.google.common.base.Preconditions;
 import org.apache.hadoop.fs.BufferedFSInputStream;
-import org.apache.hadoop.fs.CanSetReadahead;
-import org.apache.hadoop.fs.FSInputStream;
 import org.apache.hadoop.fs.Path;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.apache.hadoop.fs.wrapper.LazyOpenStream;
+import org.apache.hadoop.fs.wrapper.TracingInputStream;
 
-import java.io.IOException;
 import java.io.InputStream;
 
 /**
@@ -50,16 +47,7 @@ import java.io.InputStream;
  * later point, hashCode can be used to find out any means of connection leaks.
  * StackTrace is too much to add now.
  */
-public class WASBWrapperInputStream extends FSInputStream implements CanSetReadahead {
-  private static final Logger LOG = LoggerFactory.getLogger(WASBWrapperInputStream.class);
-
-  private final BufferedFSInputStream realStream;
-  private boolean closed;
-
-  private final Path f;
-  private final long contentLen;
-  private final String address;
-  private final boolean printStackTrace;
+public class WASBWrapperInputStream extends TracingInputStream {
 
   public WASBWrapperInputStream(InputStream in, Path f, long contentLen) {
     this(in, f, contentLen, null, false);
@@ -67,138 +55,23 @@ public class WASBWrapperInputStream extends FSInputStream implements CanSetReada
 
   public WASBWrapperInputStream(InputStream in, Path f, long contentLen,
       String address, boolean printStackTrace) {
-    this.realStream = (BufferedFSInputStream) in;
-    this.f = f;
-    this.contentLen = contentLen;
-    this.address = address;
-    this.printStackTrace = printStackTrace;
-    LOG.info("Patch..WASBWrapperInputStream..printStackTrace:" + printStackTrace);
-  }
-
-  @Override
-  public void setReadahead(Long readahead)
-      throws IOException, UnsupportedOperationException {
-    //TODO: ignore for now. Add it later.
-    // realStream.setReadahead(readahead);
-  }
-
-  @Override
-  public void seek(long pos) throws IOException {
-    LOG.info("Patch..seeking to :" + pos  + " from " + getPos());
-    realStream.seek(pos);
-  }
-
-  @Override
-  public long getPos() throws IOException {
-    return realStream.getPos();
-  }
-
-  @Override
-  public boolean seekToNewSource(long targetPos) throws IOException {
-    LOG.info("Patch..seeking to newSource :" + targetPos  + " from " + getPos());
-    boolean seek = seekToNewSource(targetPos);
-    return seek;
-  }
-
-  @Override
-  public int read() throws IOException {
-    long start = System.nanoTime();
-    long oldPos = realStream.getPos();
-    int read = realStream.read();
-    long end = System.nanoTime();
-    log("read", oldPos, -1, read, (end - start));
-    return read;
+    this(in, f, contentLen, address, printStackTrace, true);
   }
 
-  @Override
-  public int read(byte[] b, int off, int len) throws IOException {
-    long start = System.nanoTime();
-    long oldPos = realStream.getPos();
-    int read = realStream.read(b, off, len);
-    long end = System.nanoTime();
-    log("read", oldPos, -1, read, (end - start));
-    if (len == 1) {
-      LOG.info("Patch..read[] len:{}, oldPos:{}, file:{}, stack:{}",
-          len, oldPos, f.toString(),
-          com.google.common.base.Throwables.getStackTraceAsString(new Exception()));
-    }
-    return read;
-  }
-
-  @Override
-  public void close() throws IOException {
-    LOG.info(realStream.toString());
-    long oldPos = realStream.getPos();
-    long start = System.nanoTime();
-    realStream.close();
-    closed = true;
-    long end = System.nanoTime();
-    log("close", oldPos, -1, -1, (end-start));
-  }
-
-  @Override
-  public void readFully(long position, byte[] buffer, int offset, int length)
-      throws IOException {
-    long start = System.nanoTime();
-    long oldPos = realStream.getPos();
-    realStream.readFully(position, buffer, offset, length);
-    long end = System.nanoTime();
-    log("readFully", oldPos, position, length, (end - start));
-  }
-
-  @Override
-  public void readFully(long position, byte[] buffer) throws IOException {
-    long start = System.nanoTime();
-    long oldPos = realStream.getPos();
-    realStream.readFully(position, buffer);
-    long end = System.nanoTime();
-    log("readFully", oldPos, position, buffer.length, (end - start));
-  }
-
-  @Override
-  public int read(long position, byte[] buffer, int offset, int length)
-      throws IOException {
-    long start = System.nanoTime();
-    long oldPos = realStream.getPos();
-    int read = realStream.read(position, buffer, offset, length);
-    long end = System.nanoTime();
-    log("read", oldPos, position, read, (end - start));
-    return read;
-  }
-
-  @Override
-  public int read(byte[] b) throws IOException {
-    long start = System.nanoTime();
-    long oldPos = realStream.getPos();
-    int read = realStream.read(b);
-    long end = System.nanoTime();
-    log("read", oldPos, -1, read, (end - start));
-    return read;
+  /**
+   * @param traced false if this stream was not sampled; reads are then passed
+   *               through without timing or logging them
+   */
+  public WASBWrapperInputStream(InputStream in, Path f, long contentLen,
+      String address, boolean printStackTrace, boolean traced) {
+    super(checkStream(in), f, contentLen, address, printStackTrace, traced);
   }
 
-  //Format: hashCode_hashCode, address, fileName, operation, fileLen, oldPos, currentPosAfterRead,
-  // bytesRead, timeInNanos
-  private void log(String op, long oldPos, long positionalRead, int read, long timeInNanos) throws
-      IOException {
-    String msg = "";
-    if (read == 0 || read == 1) {
-      if (printStackTrace) {
-        msg = Throwables.getStackTraceAsString(new Exception());
-      }
-    }
-    long realStreamPos = (!closed) ? realStream.getPos() : -1;
-    LOG.info("hashCode_" + hashCode()
-        + "," + address
-        + "," + f
-        + "," + op
-        + "," + contentLen
-        + "," + oldPos
-        + "," + realStreamPos
-        + "," + positionalRead // only applicable if someone is requesting for specific pos read
-        + "," + read
-        + "," + timeInNanos
-        + "," + msg
-    );
+  private static InputStream checkStream(InputStream in) {
+    // lazily opened streams (fs.wrapper.lazy.open) only get the real stream on the first read
+    Preconditions.checkArgument(in instanceof BufferedFSInputStream || in instanceof LazyOpenStream,
+        "Not an instance of BufferedFSInputStream; "
+            + in.getClass().toString());
+    return in;
   }
 }
-
@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+/**
+ * Classifies the reads of a stream online from the positions they start at.
+ * <ul>
+ *   <li>SEQUENTIAL: the read starts where the previous one ended, or skips
+ *   less than the allowed gap (e.g columns skipped within a stripe)</li>
+ *   <li>STRIDED: the read skips forward by the same distance as the
+ *   previous one</li>
+ *   <li>RANDOM: anything else, including the first read, backward seeks and
+ *   long forward seeks</li>
+ * </ul>
+ * Not thread safe.
+ */
+public class AccessPatternClassifier {
+
+  public enum Pattern {
+    SEQUENTIAL,
+    STRIDED,
+    RANDOM
+  }
+
+  private final long sequentialGap;
+  private long lastEnd = -1;
+  private long lastGap;
+  private Pattern pattern = Pattern.RANDOM;
+
+  /**
+   * @param sequentialGap bytes a read may skip forward and still be sequential
+   */
+  public AccessPatternClassifier(long sequentialGap) {
+    this.sequentialGap = sequentialGap;
+  }
+
+  /**
+   * Records a read and classifies the stream with it.
+   *
+   * @return pattern of the stream including this read
+   */
+  public Pattern record(long position, int len) {
+    long gap = position - lastEnd;
+    if (lastEnd < 0) {
+      pattern = Pattern.RANDOM;
+    } else if (gap >= 0 && gap <= sequentialGap) {
+      pattern = Pattern.SEQUENTIAL;
+    } else if (gap > 0 && gap == lastGap) {
+      pattern = Pattern.STRIDED;
+    } else {
+      pattern = Pattern.RANDOM;
+    }
+    lastGap = gap;
+    lastEnd = position + Math.max(0, len);
+    return pattern;
+  }
+
+  public Pattern getPattern() {
+    return pattern;
+  }
+}
@@ -0,0 +1,372 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.apache.hadoop.fs.ByteBufferReadable;
+import org.apache.hadoop.fs.Seekable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Readahead of a wrapper stream, sized by the access pattern of the stream
+ * (see {@link AccessPatternClassifier}).
+ * <p>
+ * Reads are served from a buffer holding the bytes last read ahead. When a
+ * read misses the buffer, a sequential stream fills the buffer with a window
+ * starting at the read position; the window starts at the minimum and doubles
+ * with every fill up to the maximum. Strided and random reads (e.g after a
+ * backward or a long forward seek) drop the window and read exactly the
+ * requested range from the delegate.
+ * <p>
+ * Positional reads go through the same buffer, so sequential readFully
+ * calls (as ORC issues them while scanning a stripe) are read ahead too. All
+ * reads are served by seeking the delegate, which keeps its connection at the
+ * position where the scan continues.
+ * <p>
+ * The bytes last read from the delegate are kept in a {@link SeekWindow}, so
+ * short backward seeks are served without moving the delegate; object store
+ * streams abort their connection on a backward seek. Short forward seeks are
+ * absorbed by reading (draining) the delegate up to the new position rather
+ * than seeking it.
+ * <p>
+ * Direct buffers are filled from the readahead buffer and the seek window by
+ * bulk copies, and straight from the delegate when it is
+ * {@link ByteBufferReadable}; otherwise exact range reads into a direct
+ * buffer go through the readahead buffer. Not thread safe; callers
+ * synchronize.
+ */
+public class AdaptiveReadahead {
+
+  private final InputStream in;
+  private final Seekable seekable;
+  private final boolean byteBufferReadable;
+  private final long contentLen;
+  private final int minWindow;
+  private final int configuredMaxWindow;
+  private final AccessPatternClassifier classifier;
+
+  private boolean enabled = true;
+  private int initialWindow;
+  private int maxWindow;
+  // 0 means exact range reads
+  private int window;
+
+  private byte[] buffer;
+  private long bufferStart;
+  private int bufferLen;
+  private long fills;
+  private long bytesReadAhead;
+
+  // null if disabled
+  private final SeekWindow seekWindow;
+  private final int skipThreshold;
+  private byte[] drainBuffer;
+  private long seeks;
+  private long backwardSeeksAvoided;
+  private long forwardSeeksAvoided;
+  private long bytesDrained;
+
+  /**
+   * @param in         delegate, has to be {@link Seekable}
+   * @param contentLen length of the file
+   * @param minWindow  first readahead window of a sequential stream
+   * @param maxWindow  largest readahead window
+   */
+  public AdaptiveReadahead(InputStream in, long contentLen, int minWindow, int maxWindow) {
+    this(in, contentLen, minWindow, maxWindow, 0, 0);
+  }
+
+  /**
+   * @param seekWindowSize bytes last read from the delegate which are kept
+   *                       for backward seeks; 0 disables it
+   * @param skipThreshold  forward seeks up to this far are done by reading
+   *                       the delegate up to the new position
+   */
+  public AdaptiveReadahead(InputStream in, long contentLen, int minWindow, int maxWindow,
+      int seekWindowSize, int skipThreshold) {
+    this.in = in;
+    this.seekable = (Seekable) in;
+    this.byteBufferReadable = TracingInputStream.isByteBufferReadable(in);
+    this.contentLen = contentLen;
+    this.minWindow = Math.max(1, minWindow);
+    this.configuredMaxWindow = Math.max(this.minWindow, maxWindow);
+    this.initialWindow = this.minWindow;
+    this.maxWindow = configuredMaxWindow;
+    this.classifier = new AccessPatternClassifier(this.minWindow);
+    this.seekWindow = (seekWindowSize > 0) ? new SeekWindow(seekWindowSize) : null;
+    this.skipThreshold = Math.max(0, skipThreshold);
+  }
+
+  /**
+   * Reads up to len bytes at the given position, like
+   * {@link org.apache.hadoop.fs.PositionedReadable#read(long, byte[], int, int)}.
+   *
+   * @return bytes read, or -1 at the end of the file
+   */
+  public int read(long position, byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    classify(position, len);
+    return readRange(position, ByteBuffer.wrap(b, off, len));
+  }
+
+  /**
+   * Reads up to dst.remaining() bytes at the given position into dst, like
+   * {@link #read(long, byte[], int, int)}.
+   *
+   * @return bytes read, or -1 at the end of the file
+   */
+  public int read(long position, ByteBuffer dst) throws IOException {
+    if (!dst.hasRemaining()) {
+      return 0;
+    }
+    classify(position, dst.remaining());
+    return readRange(position, dst);
+  }
+
+  /**
+   * Reads exactly len bytes at the given position, like
+   * {@link org.apache.hadoop.fs.PositionedReadable#readFully(long, byte[], int, int)}.
+   * The whole range counts as one read for the access pattern.
+   */
+  public void readFully(long position, byte[] b, int off, int len) throws IOException {
+    classify(position, len);
+    ByteBuffer dst = ByteBuffer.wrap(b, off, len);
+    while (dst.hasRemaining()) {
+      if (readRange(position + len - dst.remaining(), dst) < 0) {
+        throw new EOFException("End of file reached before reading fully.");
+      }
+    }
+  }
+
+  private void classify(long position, int len) {
+    if (classifier.record(position, len) != AccessPatternClassifier.Pattern.SEQUENTIAL) {
+      window = 0;
+    }
+  }
+
+  /**
+   * Reads into dst from its position on, up to its limit, and advances its
+   * position past the bytes read.
+   */
+  private int readRange(long position, ByteBuffer dst) throws IOException {
+    if (position >= contentLen) {
+      return -1;
+    }
+    int copied = copyFromBuffer(position, dst);
+    if (copied > 0) {
+      return copied;
+    }
+    if (seekWindow != null) {
+      copied = seekWindow.read(position, dst);
+      if (copied > 0) {
+        backwardSeeksAvoided++;
+        return copied;
+      }
+    }
+    int len = dst.remaining();
+    if (enabled && classifier.getPattern() == AccessPatternClassifier.Pattern.SEQUENTIAL) {
+      window = (window == 0) ? initialWindow : Math.min(maxWindow, window * 2);
+      if (window > len) {
+        if (fill(position, (int) Math.min(window, contentLen - position)) > 0) {
+          return copyFromBuffer(position, dst);
+        }
+        return -1;
+      }
+    }
+    if (!dst.hasArray() && !byteBufferReadable) {
+      // the delegate reads into arrays only
+      if (fill(position, (int) Math.min(len, contentLen - position)) > 0) {
+        return copyFromBuffer(position, dst);
+      }
+      return -1;
+    }
+    seekDelegate(position);
+    int start = dst.position();
+    int n;
+    if (dst.hasArray()) {
+      n = in.read(dst.array(), dst.arrayOffset() + start, len);
+      if (n > 0) {
+        dst.position(start + n);
+      }
+    } else {
+      n = ((ByteBufferReadable) in).read(dst);
+    }
+    if (seekWindow != null && n > 0) {
+      ByteBuffer read = dst.duplicate();
+      read.position(start);
+      read.limit(start + n);
+      seekWindow.append(position, read);
+    }
+    return n;
+  }
+
+  /**
+   * @return bytes which can be read at the given position without going to
+   * the delegate
+   */
+  public int buffered(long position) {
+    if (position < bufferStart || position >= bufferStart + bufferLen) {
+      return 0;
+    }
+    return (int) (bufferStart + bufferLen - position);
+  }
+
+  /**
+   * Takes the readahead set on the stream as a hint: null restores the
+   * configured behaviour, 0 disables the readahead and any other value is
+   * the first window of a sequential stream.
+   */
+  public void setHint(Long readahead) {
+    if (readahead == null) {
+      enabled = true;
+      initialWindow = minWindow;
+      maxWindow = configuredMaxWindow;
+    } else if (readahead <= 0) {
+      enabled = false;
+      window = 0;
+    } else {
+      enabled = true;
+      initialWindow = (int) Math.min(readahead, Integer.MAX_VALUE / 2);
+      maxWindow = Math.max(configuredMaxWindow, initialWindow);
+    }
+  }
+
+  public AccessPatternClassifier.Pattern getPattern() {
+    return classifier.getPattern();
+  }
+
+  /**
+   * @return current readahead window; 0 while reading exact ranges
+   */
+  public int getWindow() {
+    return window;
+  }
+
+  /**
+   * @return backward seeks served from the seek window plus forward seeks
+   * done by draining the delegate; each would have moved the delegate
+   */
+  public long getSeeksAvoided() {
+    return backwardSeeksAvoided + forwardSeeksAvoided;
+  }
+
+  /**
+   * @return seeks of the delegate
+   */
+  public long getSeeks() {
+    return seeks;
+  }
+
+  /**
+   * Drops the buffers.
+   */
+  public void release() {
+    buffer = null;
+    bufferLen = 0;
+    drainBuffer = null;
+    if (seekWindow != null) {
+      seekWindow.release();
+    }
+  }
+
+  private int copyFromBuffer(long position, ByteBuffer dst) {
+    int available = buffered(position);
+    if (available == 0) {
+      return 0;
+    }
+    int n = Math.min(available, dst.remaining());
+    dst.put(buffer, (int) (position - bufferStart), n);
+    return n;
+  }
+
+  private int fill(long position, int size) throws IOException {
+    // the buffer is overwritten, invalidate it until the fill succeeded
+    bufferLen = 0;
+    if (buffer == null || buffer.length < size) {
+      buffer = new byte[size];
+    }
+    seekDelegate(position);
+    int filled = 0;
+    while (filled < size) {
+      int n = in.read(buffer, filled, size - filled);
+      if (n < 0) {
+        break;
+      }
+      filled += n;
+    }
+    if (seekWindow != null) {
+      seekWindow.append(position, buffer, 0, filled);
+    }
+    bufferStart = position;
+    bufferLen = filled;
+    fills++;
+    bytesReadAhead += filled;
+    return filled;
+  }
+
+  private void seekDelegate(long position) throws IOException {
+    long current = seekable.getPos();
+    if (current == position) {
+      return;
+    }
+    if (position > current && position - current <= skipThreshold && drain(current, position)) {
+      forwardSeeksAvoided++;
+      return;
+    }
+    seekable.seek(position);
+    seeks++;
+  }
+
+  /**
+   * Reads the delegate from current up to position; the bytes go to the
+   * seek window.
+   *
+   * @return false if the end of the file came first
+   */
+  private boolean drain(long current, long position) throws IOException {
+    if (drainBuffer == null) {
+      drainBuffer = new byte[Math.min(skipThreshold, 64 * 1024)];
+    }
+    while (current < position) {
+      int n = in.read(drainBuffer, 0, (int) Math.min(drainBuffer.length, position - current));
+      if (n < 0) {
+        return false;
+      }
+      if (seekWindow != null) {
+        seekWindow.append(current, drainBuffer, 0, n);
+      }
+      current += n;
+      bytesDrained += n;
+    }
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "AdaptiveReadahead{pattern=" + classifier.getPattern() + ", window=" + window
+        + ", fills=" + fills + ", bytesReadAhead=" + bytesReadAhead + ", seeks=" + seeks
+        + ", backwardSeeksAvoided=" + backwardSeeksAvoided + ", forwardSeeksAvoided="
+        + forwardSeeksAvoided + ", bytesDrained=" + bytesDrained + "}";
+  }
+}
@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+/**
+ * Layout of the binary trace files written by {@link BinaryTraceSink} and read
+ * by {@link org.apache.hadoop.fs.parser.BinaryTraceReader}.
+ * <pre>
+ * file    := MAGIC VERSION segment*
+ * segment := int rawLength, int compressedLength, deflated(record*)
+ * record  := DICTIONARY varint id, varint utf8Length, utf8Bytes
+ *          | CALL_SITE varint callSiteId, varint framesId
+ *          | TAGS varint tagsId, varint tagsStringId
+ *          | EVENT header, varint opId, varint addressId, varint pathId, zigzag id,
+ *            zigzag timestampDelta, zigzag contentLen,
+ *            [zigzag oldPos, zigzag (newPos - oldPos), zigzag positionalRead, zigzag bytes]
+ *            zigzag timeInNanos, [varint msgId], [varint callSiteId], varint threadId,
+ *            [varint tagsId]
+ * </pre>
+ * Strings (operations, addresses, paths, messages, call site frames and tags) are
+ * written once as a dictionary record and referred to by id afterwards; id 0
+ * stands for null. The timestamp is the delta to the previous event of the
+ * file. Fields in brackets are only present for stream events, events with a
+ * message, events with a call site and events with tags, as flagged in the
+ * header byte.
+ */
+public final class BinaryTraceFormat {
+
+  private BinaryTraceFormat() {
+  }
+
+  public static final byte[] MAGIC = { 'W', 'T', 'R', 'C' };
+  public static final byte VERSION = 1;
+
+  public static final byte DICTIONARY = 1;
+  public static final byte EVENT = 2;
+  public static final byte CALL_SITE = 3;
+  public static final byte TAGS = 4;
+
+  public static final int FLAG_STREAM = 1;
+  public static final int FLAG_MSG = 1 << 1;
+  public static final int FLAG_CALL_SITE = 1 << 2;
+  public static final int FLAG_TAGS = 1 << 3;
+
+  public static final int NULL_ID = 0;
+
+  public static long zigZag(long v) {
+    return (v << 1) ^ (v >> 63);
+  }
+
+  public static long unZigZag(long v) {
+    return (v >>> 1) ^ -(v & 1);
+  }
+}
@@ -0,0 +1,266 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Writes trace events to a local file in the compact format described in
+ * {@link BinaryTraceFormat}. Paths and addresses are written only once, and
+ * numbers are varint encoded before the segment gets deflated. Traces are
+ * typically more than an order of magnitude smaller than the log lines.
+ * <p>
+ * Every file of the {@link RollingTraceFile} is self contained: the
+ * dictionary starts over and the known call sites are written again.
+ */
+public class BinaryTraceSink implements TraceSink {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final long FLUSH_INTERVAL_MS = 1000;
+
+  private final RollingTraceFile files;
+  private DataOutputStream out;
+  private final int segmentSize;
+  private final SegmentBuffer segment;
+  private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+  private byte[] compressed;
+
+  private final Map<Object, Integer> dictionary = new HashMap<Object, Integer>();
+  private final Set<Integer> definedTags = new HashSet<Integer>();
+  // call site definitions seen so far, repeated in every new file
+  private final Map<Long, String> callSites = new LinkedHashMap<Long, String>();
+  private int nextId = BinaryTraceFormat.NULL_ID + 1;
+  private long lastTimestamp;
+  private long segmentStartTime;
+  // whether events were written to the current file
+  private boolean hasEvents;
+
+  public BinaryTraceSink(RollingTraceFile files, int segmentSize) throws IOException {
+    this.files = files;
+    this.segmentSize = segmentSize;
+    this.segment = new SegmentBuffer(segmentSize + 1024);
+    this.compressed = new byte[segmentSize + 1024];
+    openFile();
+  }
+
+  /**
+   * @return file currently written
+   */
+  public File getFile() {
+    return files.getFile();
+  }
+
+  private void openFile() throws IOException {
+    out = new DataOutputStream(files.roll());
+    out.write(BinaryTraceFormat.MAGIC);
+    out.writeByte(BinaryTraceFormat.VERSION);
+    dictionary.clear();
+    definedTags.clear();
+    nextId = BinaryTraceFormat.NULL_ID + 1;
+    lastTimestamp = 0;
+    hasEvents = false;
+    segmentStartTime = System.currentTimeMillis();
+    for (Map.Entry<Long, String> callSite : callSites.entrySet()) {
+      writeCallSite(callSite.getKey(), callSite.getValue());
+    }
+  }
+
+  private void roll() throws IOException {
+    writeSegment();
+    openFile();
+  }
+
+  private void writeCallSite(long id, String frames) throws IOException {
+    int framesId = intern(frames);
+    segment.write(BinaryTraceFormat.CALL_SITE);
+    segment.writeVarLong(id);
+    segment.writeVarLong(framesId);
+  }
+
+  @Override
+  public void write(TraceEvent event) throws IOException {
+    if (segment.size() == 0) {
+      segmentStartTime = System.currentTimeMillis();
+    }
+    if (event.getKind() == TraceEvent.Kind.CALL_SITE) {
+      callSites.put(event.getId(), event.getMsg());
+      writeCallSite(event.getId(), event.getMsg());
+    } else {
+      writeEvent(event);
+      hasEvents = true;
+    }
+    if (segment.size() >= segmentSize) {
+      writeSegment();
+      if (files.shouldRoll()) {
+        roll();
+      }
+    }
+  }
+
+  private void writeEvent(TraceEvent event) throws IOException {
+    int opId = intern(event.getOp().getName());
+    int addressId = intern(event.getAddress());
+    int pathId = intern(event.getPath());
+    int msgId = intern(event.getMsg());
+    boolean stream = event.getKind() == TraceEvent.Kind.INPUT_STREAM;
+    boolean hasCallSite = event.getCallSiteId() != CallSiteTable.NO_CALL_SITE;
+    boolean hasTags = event.getTagsId() != TraceTags.NO_TAGS;
+    if (hasTags && definedTags.add(event.getTagsId())) {
+      int tagsStringId = intern(event.getTags());
+      segment.write(BinaryTraceFormat.TAGS);
+      segment.writeVarLong(event.getTagsId());
+      segment.writeVarLong(tagsStringId);
+    }
+
+    int header = (stream ? BinaryTraceFormat.FLAG_STREAM : 0)
+        | (msgId != BinaryTraceFormat.NULL_ID ? BinaryTraceFormat.FLAG_MSG : 0)
+        | (hasCallSite ? BinaryTraceFormat.FLAG_CALL_SITE : 0)
+        | (hasTags ? BinaryTraceFormat.FLAG_TAGS : 0);
+    segment.write(BinaryTraceFormat.EVENT);
+    segment.write(header);
+    segment.writeVarLong(opId);
+    segment.writeVarLong(addressId);
+    segment.writeVarLong(pathId);
+    segment.writeZigZag(event.getId());
+    segment.writeZigZag(event.getTimestamp() - lastTimestamp);
+    lastTimestamp = event.getTimestamp();
+    segment.writeZigZag(event.getContentLen());
+    if (stream) {
+      segment.writeZigZag(event.getOldPos());
+      segment.writeZigZag(event.getNewPos() - event.getOldPos());
+      segment.writeZigZag(event.getPositionalRead());
+      segment.writeZigZag(event.getBytes());
+    }
+    segment.writeZigZag(event.getTimeInNanos());
+    if (msgId != BinaryTraceFormat.NULL_ID) {
+      segment.writeVarLong(msgId);
+    }
+    if (hasCallSite) {
+      segment.writeVarLong(event.getCallSiteId());
+    }
+    segment.writeVarLong(event.getThreadId());
+    if (hasTags) {
+      segment.writeVarLong(event.getTagsId());
+    }
+  }
+
+  private int intern(Object value) throws IOException {
+    if (value == null) {
+      return BinaryTraceFormat.NULL_ID;
+    }
+    Integer id = dictionary.get(value);
+    if (id == null) {
+      id = nextId++;
+      dictionary.put(value, id);
+      byte[] utf8 = value.toString().getBytes(UTF8);
+      segment.write(BinaryTraceFormat.DICTIONARY);
+      segment.writeVarLong(id);
+      segment.writeVarLong(utf8.length);
+      segment.write(utf8);
+    }
+    return id;
+  }
+
+  private void writeSegment() throws IOException {
+    int rawLength = segment.size();
+    if (rawLength == 0) {
+      return;
+    }
+    deflater.reset();
+    deflater.setInput(segment.buffer(), 0, rawLength);
+    deflater.finish();
+    int compressedLength = 0;
+    while (!deflater.finished()) {
+      if (compressedLength == compressed.length) {
+        byte[] larger = new byte[compressed.length * 2];
+        System.arraycopy(compressed, 0, larger, 0, compressedLength);
+        compressed = larger;
+      }
+      compressedLength += deflater.deflate(compressed, compressedLength,
+          compressed.length - compressedLength);
+    }
+    out.writeInt(rawLength);
+    out.writeInt(compressedLength);
+    out.write(compressed, 0, compressedLength);
+    segment.reset();
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if (segment.size() > 0
+        && System.currentTimeMillis() - segmentStartTime >= FLUSH_INTERVAL_MS) {
+      writeSegment();
+      out.flush();
+    }
+    if (hasEvents && files.shouldRoll()) {
+      roll();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      writeSegment();
+      files.close();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * Uncompressed segment with varint encoding helpers.
+   */
+  static class SegmentBuffer extends ByteArrayOutputStream {
+
+    SegmentBuffer(int size) {
+      super(size);
+    }
+
+    byte[] buffer() {
+      return buf;
+    }
+
+    void writeVarLong(long v) {
+      while ((v & ~0x7FL) != 0) {
+        write((int) ((v & 0x7F) | 0x80));
+        v >>>= 7;
+      }
+      write((int) v);
+    }
+
+    void writeZigZag(long v) {
+      writeVarLong(BinaryTraceFormat.zigZag(v));
+    }
+
+    @Override
+    public void write(byte[] b) {
+      write(b, 0, b.length);
+    }
+  }
+}
@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Cache of fixed size blocks of remote files. Block i of a file covers the
+ * bytes [i * blockSize, (i + 1) * blockSize), the last block of a file is
+ * shorter.
+ */
+public interface BlockCache {
+
+  int getBlockSize();
+
+  /**
+   * Copies bytes of a block into dst, after loading the block with the loader
+   * if it is not cached. Concurrent readers of a block which is not cached
+   * load it once. Heap arrays are passed wrapped; direct buffers are filled
+   * straight from the cached block.
+   *
+   * @param file          version of the file the block belongs to
+   * @param index         index of the block in the file
+   * @param blockLength   length of the block
+   * @param loader        reads the block on a miss
+   * @param offsetInBlock first byte of the block to copy
+   * @param dst           receives the bytes from its position on, which is
+   *                      advanced past them
+   * @return bytes copied; min(dst.remaining(), blockLength - offsetInBlock)
+   */
+  int read(FileVersion file, long index, int blockLength, Loader loader, int offsetInBlock,
+      ByteBuffer dst) throws IOException;
+
+  /**
+   * Reads bytes of the file from the next tier (another cache or the remote
+   * store).
+   */
+  interface Loader {
+
+    /**
+     * Reads exactly dst.remaining() bytes of the file from position into dst,
+     * and advances its position past them. dst may be direct.
+     */
+    void load(long position, ByteBuffer dst) throws IOException;
+  }
+}
@@ -0,0 +1,181 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Interns the call sites captured with fs.wrapper.stacktrace=true.
+ * <p>
+ * Instead of formatting and logging the whole stack on every call, the raw
+ * frames of the caller are hashed and looked up. Every distinct call site
+ * gets a small id and is written to the trace once (as "callSite_id,frames");
+ * the events themselves only carry the id.
+ * <pre>
+ * fs.wrapper.stacktrace.depth  : caller frames kept per call site (default 16)
+ * fs.wrapper.stacktrace.sample : capture the call site of 1 in N calls (default 1)
+ * </pre>
+ */
+public class CallSiteTable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CallSiteTable.class);
+
+  public static final int NO_CALL_SITE = 0;
+  public static final String PREFIX = "callSite_";
+
+  // frames of these packages belong to the wrappers, not to the caller
+  private static final String[] WRAPPER_PACKAGES = {
+      "org.apache.hadoop.fs.wrapper.",
+      "org.apache.hadoop.fs.s3a.wrapper.",
+      "org.apache.hadoop.fs.gcs.wrapper.",
+      "org.apache.hadoop.fs.wasb.wrapper."
+  };
+
+  private final TraceRecorder recorder;
+  private final int maxDepth;
+  private final int sampleRate;
+  private final ConcurrentMap<CallSite, CallSite> callSites =
+      new ConcurrentHashMap<CallSite, CallSite>();
+  private final AtomicInteger nextId = new AtomicInteger(NO_CALL_SITE + 1);
+  private final AtomicLong captures = new AtomicLong();
+  // set when a definition could not be recorded and has to be retried
+  private volatile boolean pendingDefinitions;
+
+  CallSiteTable(TraceRecorder recorder, int maxDepth, int sampleRate) {
+    this.recorder = recorder;
+    this.maxDepth = Math.max(1, maxDepth);
+    this.sampleRate = Math.max(1, sampleRate);
+  }
+
+  /**
+   * Captures the call site of the current thread.
+   *
+   * @return id of the call site, or {@link #NO_CALL_SITE} if this call was
+   * not sampled
+   */
+  public int capture() {
+    if (sampleRate > 1 && captures.getAndIncrement() % sampleRate != 0) {
+      return NO_CALL_SITE;
+    }
+    StackTraceElement[] stack = new Throwable().getStackTrace();
+    int start = 0;
+    while (start < stack.length && isWrapperFrame(stack[start])) {
+      start++;
+    }
+    int end = Math.min(stack.length, start + maxDepth);
+    CallSite key = new CallSite(Arrays.copyOfRange(stack, start, end));
+    CallSite callSite = callSites.get(key);
+    if (callSite == null) {
+      key.id = nextId.getAndIncrement();
+      callSite = callSites.putIfAbsent(key, key);
+      if (callSite == null) {
+        callSite = key;
+        publish(callSite);
+      }
+    }
+    if (pendingDefinitions) {
+      publishPending();
+    }
+    return callSite.id;
+  }
+
+  /**
+   * @return number of distinct call sites seen so far
+   */
+  public int size() {
+    return callSites.size();
+  }
+
+  private static boolean isWrapperFrame(StackTraceElement frame) {
+    String className = frame.getClassName();
+    for (String pkg : WRAPPER_PACKAGES) {
+      if (className.startsWith(pkg)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void publish(CallSite callSite) {
+    if (recorder.recordCallSite(LOG, callSite.id, callSite.format())) {
+      callSite.published = true;
+    } else {
+      pendingDefinitions = true;
+    }
+  }
+
+  private synchronized void publishPending() {
+    if (!pendingDefinitions) {
+      return;
+    }
+    pendingDefinitions = false;
+    for (CallSite callSite : callSites.values()) {
+      if (!callSite.published) {
+        publish(callSite);
+      }
+    }
+  }
+
+  private static final class CallSite {
+    private final StackTraceElement[] frames;
+    private final int hash;
+    private int id;
+    private volatile boolean published;
+
+    CallSite(StackTraceElement[] frames) {
+      this.frames = frames;
+      this.hash = Arrays.hashCode(frames);
+    }
+
+    String format() {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < frames.length; i++) {
+        if (i > 0) {
+          sb.append(" <- ");
+        }
+        sb.append(frames[i]);
+      }
+      return sb.toString();
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof CallSite)) {
+        return false;
+      }
+      CallSite other = (CallSite) o;
+      return hash == other.hash && Arrays.equals(frames, other.frames);
+    }
+  }
+}
@@ -0,0 +1,313 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+/**
+ * Configuration keys shared by all the wrapper filesystems.
+ */
+public final class Constants {
+
+  private Constants() {
+  }
+
+  // number of trace events which can be buffered before they are dropped.
+  // Rounded up to the next power of two.
+  public static final String TRACE_BUFFER_SIZE = "fs.wrapper.trace.buffer.size";
+  public static final int DEFAULT_TRACE_BUFFER_SIZE = 64 * 1024;
+
+  // where drained trace events go: "file" (default) for trace lines in files
+  // of their own in fs.wrapper.trace.dir, "binary" for compact trace files
+  // there or "log" for the job logs
+  public static final String TRACE_SINK = "fs.wrapper.trace.sink";
+  public static final String TRACE_SINK_FILE = "file";
+  public static final String TRACE_SINK_LOG = "log";
+  public static final String TRACE_SINK_BINARY = "binary";
+  public static final String DEFAULT_TRACE_SINK = TRACE_SINK_FILE;
+
+  // local directory for trace files. Defaults to the container log dir
+  // (so the traces are aggregated with the logs), or java.io.tmpdir outside
+  // of containers
+  public static final String TRACE_DIR = "fs.wrapper.trace.dir";
+
+  // start a new trace file once the current one has this many bytes. 0 for no limit
+  public static final String TRACE_FILE_MAX_SIZE = "fs.wrapper.trace.file.max.size";
+  public static final long DEFAULT_TRACE_FILE_MAX_SIZE = 128 * 1024 * 1024;
+
+  // start a new trace file once the current one is this old. 0 for no limit
+  public static final String TRACE_FILE_MAX_AGE_MS = "fs.wrapper.trace.file.max.age.ms";
+  public static final long DEFAULT_TRACE_FILE_MAX_AGE_MS = 60 * 60 * 1000;
+
+  // trace files kept per JVM; older ones are deleted. 0 keeps all of them
+  public static final String TRACE_FILE_MAX_FILES = "fs.wrapper.trace.file.max.files";
+  public static final int DEFAULT_TRACE_FILE_MAX_FILES = 0;
+
+  // uncompressed size of a binary trace segment before it gets deflated
+  public static final String TRACE_BINARY_SEGMENT_SIZE = "fs.wrapper.trace.binary.segment.size";
+  public static final int DEFAULT_TRACE_BINARY_SEGMENT_SIZE = 256 * 1024;
+
+  // trace 1 in N streams (chosen at open). 1 traces every stream
+  public static final String TRACE_SAMPLE_STREAMS = "fs.wrapper.trace.sample.streams";
+  public static final int DEFAULT_TRACE_SAMPLE_STREAMS = 1;
+
+  // only trace paths matching this regex. Empty traces all paths
+  public static final String TRACE_INCLUDE_PATHS = "fs.wrapper.trace.include.paths";
+
+  // JVM wide cap on recorded events per second; excess events are dropped.
+  // 0 means unlimited
+  public static final String TRACE_MAX_EVENTS_PER_SEC = "fs.wrapper.trace.max.events.per.sec";
+  public static final long DEFAULT_TRACE_MAX_EVENTS_PER_SEC = 0;
+
+  // with fs.wrapper.stacktrace=true, number of caller frames kept per call site
+  public static final String STACK_TRACE_DEPTH = "fs.wrapper.stacktrace.depth";
+  public static final int DEFAULT_STACK_TRACE_DEPTH = 16;
+
+  // with fs.wrapper.stacktrace=true, capture the call site of 1 in N calls
+  public static final String STACK_TRACE_SAMPLE = "fs.wrapper.stacktrace.sample";
+  public static final int DEFAULT_STACK_TRACE_SAMPLE = 1;
+
+  // keep per operation latency histograms and publish them through metrics2/JMX
+  // (source WrapperFileSystem-<scheme>)
+  public static final String METRICS_ENABLED = "fs.wrapper.metrics.enabled";
+  public static final boolean DEFAULT_METRICS_ENABLED = true;
+
+  // initialize the metrics system with prefix "wrapper" in JVMs which do not
+  // initialize it themselves; otherwise the source only shows up once it is started
+  public static final String METRICS_INIT = "fs.wrapper.metrics.init";
+  public static final boolean DEFAULT_METRICS_INIT = false;
+
+  // keep a registry of open wrapper streams, report streams which are garbage
+  // collected without being closed and list long open streams periodically
+  public static final String STREAM_REGISTRY_ENABLED = "fs.wrapper.stream.registry.enabled";
+  public static final boolean DEFAULT_STREAM_REGISTRY_ENABLED = true;
+
+  // interval of the open stream report. 0 disables it (leaks are still reported)
+  public static final String STREAM_REPORT_INTERVAL_MS = "fs.wrapper.stream.report.interval.ms";
+  public static final long DEFAULT_STREAM_REPORT_INTERVAL_MS = 60 * 1000;
+
+  // streams open for longer than this are listed in the open stream report
+  public static final String STREAM_REPORT_MIN_AGE_MS = "fs.wrapper.stream.report.min.age.ms";
+  public static final long DEFAULT_STREAM_REPORT_MIN_AGE_MS = 5 * 60 * 1000;
+
+  // configuration keys whose values (from the configuration the filesystem is
+  // initialized with) tag every trace event, e.g. to tell queries and tasks of
+  // a reused container apart
+  public static final String TRACE_TAGS = "fs.wrapper.trace.tags";
+  public static final String[] DEFAULT_TRACE_TAGS = {
+      "hive.query.id", "mapreduce.job.id", "mapreduce.task.attempt.id"
+  };
+
+  // read through an adaptive readahead which grows its window while a stream
+  // is read sequentially and reads exact ranges for random reads. Positional
+  // reads then go through it too, one at a time per stream, instead of the
+  // positional read of the real stream
+  public static final String READAHEAD_ADAPTIVE = "fs.wrapper.readahead.adaptive";
+  public static final boolean DEFAULT_READAHEAD_ADAPTIVE = false;
+
+  // first readahead window of a sequential stream; also the forward gap up
+  // to which reads still count as sequential
+  public static final String READAHEAD_MIN = "fs.wrapper.readahead.min";
+  public static final int DEFAULT_READAHEAD_MIN = 64 * 1024;
+
+  // largest readahead window (per stream)
+  public static final String READAHEAD_MAX = "fs.wrapper.readahead.max";
+  public static final int DEFAULT_READAHEAD_MAX = 4 * 1024 * 1024;
+
+  // bytes last read from the real stream kept per stream, so that backward
+  // seeks inside them do not move (and reopen) it. Needs the adaptive
+  // readahead. 0 disables it
+  public static final String SEEK_WINDOW_SIZE = "fs.wrapper.seek.window.size";
+  public static final int DEFAULT_SEEK_WINDOW_SIZE = 1024 * 1024;
+
+  // forward seeks up to this far read the real stream up to the new position
+  // instead of seeking it
+  public static final String SEEK_SKIP_THRESHOLD = "fs.wrapper.seek.skip.threshold";
+  public static final int DEFAULT_SEEK_SKIP_THRESHOLD = 256 * 1024;
+
+  // total bytes of file tails (e.g ORC footers) cached per JVM, e.g 32 MB.
+  // 0 disables the cache, so that footer re-reads reach the store
+  public static final String TAIL_CACHE_SIZE = "fs.wrapper.tail.cache.size";
+  public static final long DEFAULT_TAIL_CACHE_SIZE = 0;
+
+  // largest tail read which is cached
+  public static final String TAIL_CACHE_MAX_TAIL = "fs.wrapper.tail.cache.max.tail";
+  public static final int DEFAULT_TAIL_CACHE_MAX_TAIL = 256 * 1024;
+
+  // how long FileStatus of listed / looked up paths are cached for open() and
+  // getFileStatus(). 0 disables the cache. Changes made by other clients are
+  // only seen once the entry expired
+  public static final String STATUS_CACHE_TTL_MS = "fs.wrapper.status.cache.ttl.ms";
+  public static final long DEFAULT_STATUS_CACHE_TTL_MS = 0;
+
+  // max number of cached FileStatus per filesystem
+  public static final String STATUS_CACHE_MAX_ENTRIES = "fs.wrapper.status.cache.max.entries";
+  public static final int DEFAULT_STATUS_CACHE_MAX_ENTRIES = 100 * 1000;
+
+  // ranges of a vectored read which are at most this many bytes apart are
+  // fetched with a single read
+  public static final String VECTORED_MAX_GAP = "fs.wrapper.vectored.max.gap";
+  public static final int DEFAULT_VECTORED_MAX_GAP = 64 * 1024;
+
+  // merged ranges of a vectored read do not grow beyond this size
+  public static final String VECTORED_MAX_MERGED_SIZE = "fs.wrapper.vectored.max.merged.size";
+  public static final int DEFAULT_VECTORED_MAX_MERGED_SIZE = 8 * 1024 * 1024;
+
+  // additional streams of the same file a stream opens to read the ranges of
+  // a vectored read in parallel. 0 reads them one after the other. Every
+  // stream keeps its additional streams (connections) open until it is
+  // closed, so this is opt-in
+  public static final String VECTORED_MAX_STREAMS = "fs.wrapper.vectored.max.streams";
+  public static final int DEFAULT_VECTORED_MAX_STREAMS = 0;
+
+  // additional streams open for parallel and hedged reads per JVM, over all
+  // streams; reads which find none left are done on the stream itself
+  public static final String PARALLEL_STREAMS_MAX = "fs.wrapper.parallel.streams.max";
+  public static final int DEFAULT_PARALLEL_STREAMS_MAX = 64;
+
+  // positional readFully calls of at least this many bytes are split into
+  // parts read in parallel on the additional streams of vectored reads.
+  // 0 disables it
+  public static final String SPLIT_READ_THRESHOLD = "fs.wrapper.split.read.threshold";
+  public static final int DEFAULT_SPLIT_READ_THRESHOLD = 0;
+
+  // smallest part of a split readFully
+  public static final String SPLIT_READ_PART_SIZE = "fs.wrapper.split.read.part.size";
+  public static final int DEFAULT_SPLIT_READ_PART_SIZE = 512 * 1024;
+
+  // threads (per JVM) reading ranges and parts of split reads in parallel;
+  // bounds the fan out of all streams of the JVM
+  public static final String READ_THREADS = "fs.wrapper.read.threads";
+  public static final int DEFAULT_READ_THREADS = 16;
+
+  // size of the blocks files are cached in
+  public static final String CACHE_BLOCK_SIZE = "fs.wrapper.cache.block.size";
+  public static final int DEFAULT_CACHE_BLOCK_SIZE = 1024 * 1024;
+
+  // comma separated local directories (e.g on SSDs) blocks of remote files
+  // are cached in. Not set disables the disk block cache. A JVM uses numbered
+  // subdirectories of the directories other JVMs hold
+  public static final String DISK_CACHE_DIRS = "fs.wrapper.disk.cache.dirs";
+
+  // total bytes of blocks cached on disk per JVM, each in its own directories
+  public static final String DISK_CACHE_SIZE = "fs.wrapper.disk.cache.size";
+  public static final long DEFAULT_DISK_CACHE_SIZE = 10L * 1024 * 1024 * 1024;
+
+  // bytes of direct memory blocks of remote files are cached in per JVM
+  // (make sure -XX:MaxDirectMemorySize allows for it). 0 disables the memory
+  // block cache
+  public static final String MEMORY_CACHE_SIZE = "fs.wrapper.memory.cache.size";
+  public static final long DEFAULT_MEMORY_CACHE_SIZE = 0;
+
+  // open the stream of the real filesystem on the first read which needs it,
+  // rather than in open()
+  public static final String LAZY_OPEN = "fs.wrapper.lazy.open";
+  public static final boolean DEFAULT_LAZY_OPEN = false;
+
+  // streams of the real filesystem kept open per filesystem after they were
+  // closed, for reopens of the same file. 0 disables the pool
+  public static final String STREAM_POOL_SIZE = "fs.wrapper.stream.pool.size";
+  public static final int DEFAULT_STREAM_POOL_SIZE = 0;
+
+  // how long a closed stream is kept for reuse
+  public static final String STREAM_POOL_IDLE_MS = "fs.wrapper.stream.pool.idle.ms";
+  public static final long DEFAULT_STREAM_POOL_IDLE_MS = 1000;
+
+  // issue a second read of the same bytes, on another stream of the file,
+  // for positional reads which are slower than usual
+  public static final String HEDGE_ENABLED = "fs.wrapper.hedge.enabled";
+  public static final boolean DEFAULT_HEDGE_ENABLED = false;
+
+  // a read is hedged once it takes longer than this quantile of the latencies
+  // of the same operation
+  public static final String HEDGE_QUANTILE = "fs.wrapper.hedge.quantile";
+  public static final float DEFAULT_HEDGE_QUANTILE = 0.95f;
+
+  // reads are not hedged before this many millis
+  public static final String HEDGE_MIN_DELAY_MS = "fs.wrapper.hedge.min.delay.ms";
+  public static final long DEFAULT_HEDGE_MIN_DELAY_MS = 10;
+
+  // max hedges, in percent of the reads which could be hedged
+  public static final String HEDGE_MAX_PERCENT = "fs.wrapper.hedge.max.percent";
+  public static final int DEFAULT_HEDGE_MAX_PERCENT = 5;
+
+  // larger reads are not hedged
+  public static final String HEDGE_MAX_SIZE = "fs.wrapper.hedge.max.size";
+  public static final int DEFAULT_HEDGE_MAX_SIZE = 1024 * 1024;
+
+  // threads (per JVM) running hedged reads and their hedges; reads which find
+  // none idle are not hedged
+  public static final String HEDGE_THREADS = "fs.wrapper.hedge.threads";
+  public static final int DEFAULT_HEDGE_THREADS = 32;
+
+  // the hedge delay is taken from the latencies of the remote reads of the
+  // last one to two windows of this many millis
+  public static final String HEDGE_WINDOW_MS = "fs.wrapper.hedge.window.ms";
+  public static final long DEFAULT_HEDGE_WINDOW_MS = 30000;
+
+  // read() and sequential reads shorter than the threshold are served from a
+  // buffer of this size per stream (e.g 8192), filled by one (traced) read;
+  // 0 disables it, so that the trace shows the reads the application issued
+  public static final String SMALL_READ_BUFFER_SIZE = "fs.wrapper.small.read.buffer.size";
+  public static final int DEFAULT_SMALL_READ_BUFFER_SIZE = 0;
+
+  public static final String SMALL_READ_THRESHOLD = "fs.wrapper.small.read.threshold";
+  public static final int DEFAULT_SMALL_READ_THRESHOLD = 1024;
+
+  // output streams trace their writes as one line per this many bytes
+  public static final String WRITE_BATCH_SIZE = "fs.wrapper.write.batch.size";
+  public static final long DEFAULT_WRITE_BATCH_SIZE = 1024 * 1024;
+
+  // upload the files created in parts, while they are written, with the
+  // multipart API of the store (see MultipartOutputStream)
+  public static final String MULTIPART_ENABLED = "fs.wrapper.multipart.enabled";
+  public static final boolean DEFAULT_MULTIPART_ENABLED = false;
+
+  // MultipartUploader implementation; S3AWrapperFileSystem defaults to
+  // S3AMultipartUploader
+  public static final String MULTIPART_UPLOADER_CLASS = "fs.wrapper.multipart.uploader.class";
+
+  // bytes per part; raised to the minimum of the store (5 MB for S3)
+  public static final String MULTIPART_PART_SIZE = "fs.wrapper.multipart.part.size";
+  public static final int DEFAULT_MULTIPART_PART_SIZE = 8 * 1024 * 1024;
+
+  // part buffers per stream, the one being written included; writers wait
+  // once all of them are uploading
+  public static final String MULTIPART_BUFFERS = "fs.wrapper.multipart.buffers";
+  public static final int DEFAULT_MULTIPART_BUFFERS = 4;
+
+  // threads uploading parts, per JVM
+  public static final String MULTIPART_THREADS = "fs.wrapper.multipart.threads";
+  public static final int DEFAULT_MULTIPART_THREADS = 16;
+
+  // run directory renames and recursive deletes as parallel per file moves
+  // and batched deletes (see TreeOperations)
+  public static final String TREE_PARALLEL_ENABLED = "fs.wrapper.tree.parallel.enabled";
+  public static final boolean DEFAULT_TREE_PARALLEL_ENABLED = false;
+
+  // moves and deletes in flight per rename or delete
+  public static final String TREE_PARALLELISM = "fs.wrapper.tree.parallelism";
+  public static final int DEFAULT_TREE_PARALLELISM = 32;
+
+  // threads moving and deleting files, per JVM
+  public static final String TREE_THREADS = "fs.wrapper.tree.threads";
+  public static final int DEFAULT_TREE_THREADS = 32;
+
+  // files per delete request, where the store deletes in bulk (S3 allows up to 1000)
+  public static final String TREE_DELETE_BATCH_SIZE = "fs.wrapper.tree.delete.batch.size";
+  public static final int DEFAULT_TREE_DELETE_BATCH_SIZE = 1000;
+}
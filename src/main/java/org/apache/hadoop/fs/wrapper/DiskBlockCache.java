@@ -0,0 +1,587 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsInfo;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.Interns;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JVM wide cache of blocks of remote files on local disks, shared by all
+ * wrapper streams.
+ * <p>
+ * Every block is a file of its own in one of the cache directories, named
+ * after a digest of the file version (path, length, modification time) and
+ * the block size, plus the block index. Blocks are written to a temporary
+ * file and renamed once complete, so the directories only ever hold whole
+ * blocks and the index is rebuilt from a directory listing when the JVM
+ * starts again. Hits are copied from a memory mapping of the block file.
+ * <p>
+ * The cache is bounded by the total size of the blocks and evicts the least
+ * recently used ones (in the order the blocks were written for blocks found
+ * on startup). Readers of a block which is being loaded wait for that load
+ * instead of fetching the block again. Hits, misses and evictions are
+ * published through metrics2 as source "WrapperDiskBlockCache".
+ * <p>
+ * Every JVM locks the directories it uses, so that no other JVM indexes,
+ * evicts or writes its blocks: a configured directory which another JVM
+ * holds is replaced by the first of its numbered subdirectories which is
+ * free. A restarted JVM gets the directory of its predecessor back as long
+ * as the JVMs running at the same time do not change, and each JVM applies
+ * the whole size budget to its own directories.
+ */
+public final class DiskBlockCache implements BlockCache, MetricsSource {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DiskBlockCache.class);
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final String SUFFIX = ".blk";
+  private static final String TMP_SUFFIX = ".tmp";
+  private static final String LOCK_FILE = ".lock";
+  // numbered subdirectories tried when a directory is held by another JVM
+  private static final int MAX_SLOTS = 64;
+  // file versions whose block name prefix is kept
+  private static final int MAX_PREFIXES = 1024;
+
+  private static final MetricsInfo RECORD_INFO =
+      Interns.info("WrapperDiskBlockCache", "Local disk block cache of the wrapper filesystems");
+  private static final MetricsInfo HITS_INFO =
+      Interns.info("Hits", "Block reads served from disk");
+  private static final MetricsInfo MISSES_INFO =
+      Interns.info("Misses", "Blocks loaded from the next tier");
+  private static final MetricsInfo WAITS_INFO =
+      Interns.info("Waits", "Block reads which waited for a load of the same block");
+  private static final MetricsInfo EVICTIONS_INFO = Interns.info("Evictions", "Evicted blocks");
+  private static final MetricsInfo SIZE_INFO = Interns.info("Size", "Bytes cached");
+  private static final MetricsInfo ENTRIES_INFO = Interns.info("Entries", "Blocks cached");
+
+  private static volatile DiskBlockCache instance;
+
+  private final File[] dirs;
+  // held for the life of the cache
+  private final List<FileLock> locks = new ArrayList<FileLock>();
+  // pid and a random value, so that temporary files of JVMs never collide
+  private final String tmpToken;
+  private final long capacity;
+  private final int blockSize;
+  // guarded by itself
+  private final LinkedHashMap<String, Block> blocks =
+      new LinkedHashMap<String, Block>(1024, 0.75f, true);
+  private long size;
+  // blocks being loaded, by name
+  private final ConcurrentMap<String, FutureTask<Boolean>> loading =
+      new ConcurrentHashMap<String, FutureTask<Boolean>>();
+  // name prefixes of recently read file versions, so that a version is
+  // digested once rather than on every read; guarded by itself
+  private final LinkedHashMap<FileVersion, String> prefixes =
+      new LinkedHashMap<FileVersion, String>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<FileVersion, String> eldest) {
+          return size() > MAX_PREFIXES;
+        }
+      };
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong waits = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private volatile boolean writeFailed;
+
+  /**
+   * @param dirs configured directories, locked (or replaced by a free numbered
+   *             subdirectory) until {@link #close()}
+   */
+  DiskBlockCache(File[] dirs, long capacity, int blockSize) throws IOException {
+    this.capacity = capacity;
+    this.blockSize = blockSize;
+    String jvmName = ManagementFactory.getRuntimeMXBean().getName();
+    this.tmpToken = jvmName.substring(0, Math.max(0, jvmName.indexOf('@'))) + "-"
+        + Long.toHexString(new Random().nextLong() & Long.MAX_VALUE);
+    this.dirs = new File[dirs.length];
+    try {
+      for (int i = 0; i < dirs.length; i++) {
+        this.dirs[i] = lock(dirs[i]);
+      }
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+    load();
+  }
+
+  /**
+   * @return the directory, or the first of its numbered subdirectories,
+   * which this JVM locked
+   */
+  private File lock(File dir) throws IOException {
+    for (int slot = 0; slot < MAX_SLOTS; slot++) {
+      File candidate = (slot == 0) ? dir : new File(dir, Integer.toString(slot));
+      if (!candidate.isDirectory() && !candidate.mkdirs()) {
+        throw new IOException("Unable to create block cache directory " + candidate);
+      }
+      FileChannel channel = new RandomAccessFile(new File(candidate, LOCK_FILE), "rw")
+          .getChannel();
+      FileLock lock = null;
+      try {
+        lock = channel.tryLock();
+      } catch (OverlappingFileLockException e) {
+        // held by another cache of this JVM
+      } finally {
+        if (lock == null) {
+          channel.close();
+        }
+      }
+      if (lock != null) {
+        locks.add(lock);
+        return candidate;
+      }
+    }
+    throw new IOException("Block cache directory " + dir + " and its " + (MAX_SLOTS - 1)
+        + " subdirectories are in use by other JVMs");
+  }
+
+  /**
+   * Releases the directories; the blocks stay for the next cache.
+   */
+  void close() {
+    for (FileLock lock : locks) {
+      try {
+        lock.channel().close();
+      } catch (IOException e) {
+        LOG.debug("Unable to unlock block cache directory", e);
+      }
+    }
+    locks.clear();
+  }
+
+  /**
+   * Returns the cache of this JVM, creating it with the settings of the
+   * given configuration if it does not exist yet.
+   *
+   * @return null if disabled (no fs.wrapper.disk.cache.dirs) or the
+   * directories can not be used
+   */
+  public static DiskBlockCache get(Configuration conf) {
+    DiskBlockCache cache = instance;
+    if (cache == null) {
+      String[] paths = conf.getTrimmedStrings(Constants.DISK_CACHE_DIRS);
+      long capacity = conf.getLong(Constants.DISK_CACHE_SIZE, Constants.DEFAULT_DISK_CACHE_SIZE);
+      if (paths.length == 0 || capacity <= 0) {
+        return null;
+      }
+      synchronized (DiskBlockCache.class) {
+        cache = instance;
+        if (cache == null) {
+          File[] dirs = new File[paths.length];
+          for (int i = 0; i < paths.length; i++) {
+            dirs[i] = new File(paths[i]);
+          }
+          try {
+            cache = new DiskBlockCache(dirs, capacity, conf.getInt(Constants.CACHE_BLOCK_SIZE,
+                Constants.DEFAULT_CACHE_BLOCK_SIZE));
+          } catch (IOException e) {
+            LOG.warn("Disk block cache disabled", e);
+            return null;
+          }
+          try {
+            DefaultMetricsSystem.instance().register("WrapperDiskBlockCache",
+                "Local disk block cache of the wrapper filesystems", cache);
+          } catch (RuntimeException e) {
+            LOG.warn("Unable to register disk block cache metrics", e);
+          }
+          LOG.info("Disk block cache in " + Arrays.toString(dirs) + ", " + cache);
+          instance = cache;
+        }
+      }
+    }
+    return cache;
+  }
+
+  /**
+   * Rebuilds the index from the block files left by a previous JVM, oldest
+   * first, and removes incomplete ones, which no JVM writes any more since
+   * this one holds the directories.
+   */
+  private void load() {
+    List<File> files = new ArrayList<File>();
+    for (File dir : dirs) {
+      File[] listed = dir.listFiles();
+      if (listed == null) {
+        continue;
+      }
+      for (File file : listed) {
+        if (file.getName().endsWith(SUFFIX)) {
+          files.add(file);
+        } else if (file.getName().endsWith(TMP_SUFFIX)) {
+          file.delete();
+        }
+      }
+    }
+    final long[] modified = new long[files.size()];
+    List<Integer> order = new ArrayList<Integer>(files.size());
+    for (int i = 0; i < files.size(); i++) {
+      modified[i] = files.get(i).lastModified();
+      order.add(i);
+    }
+    Collections.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return modified[a] < modified[b] ? -1 : (modified[a] == modified[b] ? 0 : 1);
+      }
+    });
+    synchronized (blocks) {
+      for (int i : order) {
+        File file = files.get(i);
+        String name = file.getName();
+        add(name.substring(0, name.length() - SUFFIX.length()), new Block(file,
+            (int) file.length()));
+      }
+    }
+  }
+
+  @Override
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  @Override
+  public int read(FileVersion file, final long index, final int blockLength,
+      final Loader loader, int offsetInBlock, ByteBuffer dst) throws IOException {
+    int n = Math.min(dst.remaining(), blockLength - offsetInBlock);
+    final String name = name(file, index);
+    if (readCached(name, offsetInBlock, dst, n)) {
+      hits.incrementAndGet();
+      return n;
+    }
+    // a whole block (a slab of the memory cache) is loaded in place, else
+    // into a buffer of its own
+    final ByteBuffer block;
+    final boolean inPlace = offsetInBlock == 0 && n == blockLength;
+    if (inPlace) {
+      block = dst.duplicate();
+      block.limit(block.position() + blockLength);
+    } else {
+      block = ByteBuffer.allocate(blockLength);
+    }
+    FutureTask<Boolean> load = new FutureTask<Boolean>(new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws IOException {
+        ByteBuffer data = block.duplicate();
+        loader.load(index * blockSize, data);
+        data.flip().position(block.position());
+        return store(name, data);
+      }
+    });
+    FutureTask<Boolean> running = loading.putIfAbsent(name, load);
+    if (running == null) {
+      try {
+        // it may have been stored since the lookup above
+        if (readCached(name, offsetInBlock, dst, n)) {
+          hits.incrementAndGet();
+          return n;
+        }
+        misses.incrementAndGet();
+        load.run();
+      } finally {
+        loading.remove(name, load);
+      }
+      get(load);
+      if (inPlace) {
+        dst.position(dst.position() + n);
+      } else {
+        block.position(offsetInBlock).limit(offsetInBlock + n);
+        dst.put(block);
+      }
+      return n;
+    }
+    waits.incrementAndGet();
+    get(running);
+    // waiters read the stored file; the block is loaded again only if it
+    // could not be written or was evicted right away
+    if (!readCached(name, offsetInBlock, dst, n)) {
+      ByteBuffer target = dst.duplicate();
+      target.limit(target.position() + n);
+      loader.load(index * blockSize + offsetInBlock, target);
+      dst.position(dst.position() + n);
+    }
+    return n;
+  }
+
+  private static boolean get(FutureTask<Boolean> load) throws IOException {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return load.get();
+        } catch (InterruptedException e) {
+          // the load is done by another reader, which is not interrupted
+          interrupted = true;
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+          }
+          throw new IOException("Unable to load block", e.getCause());
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * @return false if the block is not cached
+   */
+  private boolean readCached(String name, int offsetInBlock, ByteBuffer dst, int len)
+      throws IOException {
+    Block block;
+    synchronized (blocks) {
+      block = blocks.get(name);
+    }
+    if (block == null) {
+      return false;
+    }
+    ByteBuffer mapped;
+    try {
+      mapped = block.map();
+    } catch (FileNotFoundException e) {
+      // removed from the directory behind the back of the cache
+      remove(name, block);
+      return false;
+    }
+    if (offsetInBlock + len > mapped.limit()) {
+      remove(name, block);
+      return false;
+    }
+    mapped.limit(offsetInBlock + len);
+    mapped.position(offsetInBlock);
+    dst.put(mapped);
+    return true;
+  }
+
+  /**
+   * Writes the remaining bytes of data as a block file.
+   *
+   * @return false if the block was not stored
+   */
+  private boolean store(String name, ByteBuffer data) {
+    int length = data.remaining();
+    if (length > capacity) {
+      return false;
+    }
+    File file = new File(dirs[(name.hashCode() & Integer.MAX_VALUE) % dirs.length], name + SUFFIX);
+    File tmp = new File(file.getParentFile(), name + "." + tmpToken + "."
+        + Thread.currentThread().getId() + TMP_SUFFIX);
+    try {
+      FileOutputStream out = new FileOutputStream(tmp);
+      try {
+        FileChannel channel = out.getChannel();
+        while (data.hasRemaining()) {
+          channel.write(data);
+        }
+      } finally {
+        out.close();
+      }
+      if (!tmp.renameTo(file)) {
+        throw new IOException("Unable to rename " + tmp + " to " + file);
+      }
+    } catch (IOException e) {
+      tmp.delete();
+      // typically a full disk; the block is still returned to the reader
+      if (!writeFailed) {
+        writeFailed = true;
+        LOG.warn("Unable to write block " + file + "; further failures are not logged", e);
+      }
+      return false;
+    }
+    synchronized (blocks) {
+      add(name, new Block(file, length));
+    }
+    return true;
+  }
+
+  // guarded by blocks
+  private void add(String name, Block added) {
+    Block replaced = blocks.put(name, added);
+    size += added.length - (replaced == null ? 0 : replaced.length);
+    Iterator<Block> it = blocks.values().iterator();
+    while (size > capacity && it.hasNext()) {
+      Block evicted = it.next();
+      if (evicted == added) {
+        continue;
+      }
+      it.remove();
+      size -= evicted.length;
+      evicted.file.delete();
+      evictions.incrementAndGet();
+    }
+  }
+
+  private void remove(String name, Block block) {
+    synchronized (blocks) {
+      if (blocks.get(name) == block) {
+        blocks.remove(name);
+        size -= block.length;
+      }
+    }
+  }
+
+  /**
+   * @return name of the block file, without suffix
+   */
+  String name(FileVersion file, long index) {
+    String prefix;
+    synchronized (prefixes) {
+      prefix = prefixes.get(file);
+    }
+    if (prefix == null) {
+      prefix = prefix(file);
+      synchronized (prefixes) {
+        prefixes.put(file, prefix);
+      }
+    }
+    return prefix + index;
+  }
+
+  /**
+   * @return digest of the file version and the block size, followed by '_'
+   */
+  private String prefix(FileVersion file) {
+    MessageDigest md5;
+    try {
+      md5 = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    byte[] digest = md5.digest((file + "#" + blockSize).getBytes(UTF8));
+    StringBuilder sb = new StringBuilder(digest.length * 2 + 1);
+    for (byte d : digest) {
+      sb.append(Character.forDigit((d >> 4) & 0xF, 16)).append(Character.forDigit(d & 0xF, 16));
+    }
+    return sb.append('_').toString();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getWaits() {
+    return waits.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  @Override
+  public void getMetrics(MetricsCollector collector, boolean all) {
+    long cachedSize;
+    int entries;
+    synchronized (blocks) {
+      cachedSize = size;
+      entries = blocks.size();
+    }
+    collector.addRecord(RECORD_INFO)
+        .setContext("wrapper")
+        .addCounter(HITS_INFO, hits.get())
+        .addCounter(MISSES_INFO, misses.get())
+        .addCounter(WAITS_INFO, waits.get())
+        .addCounter(EVICTIONS_INFO, evictions.get())
+        .addGauge(SIZE_INFO, cachedSize)
+        .addGauge(ENTRIES_INFO, entries);
+  }
+
+  @Override
+  public String toString() {
+    synchronized (blocks) {
+      return "blocks=" + blocks.size() + ", size=" + size + "/" + capacity + ", blockSize="
+          + blockSize;
+    }
+  }
+
+  /**
+   * Block file and its memory mapping, created on the first hit. The mapping
+   * is dropped along with the block and unmapped by the garbage collector;
+   * deleting the file does not invalidate it.
+   */
+  private static final class Block {
+    private final File file;
+    private final int length;
+    private MappedByteBuffer mapped;
+
+    Block(File file, int length) {
+      this.file = file;
+      this.length = length;
+    }
+
+    /**
+     * @return independent view of the mapping
+     */
+    synchronized ByteBuffer map() throws IOException {
+      if (mapped == null) {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+          mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+        } finally {
+          raf.close();
+        }
+      }
+      return mapped.duplicate();
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+/**
+ * A range of a file to read with
+ * {@link TracingInputStream#readVectored(java.util.List)}, and the buffer the
+ * bytes go to.
+ */
+public class FileRange {
+
+  private final long offset;
+  private final int length;
+  private final byte[] buffer;
+  private final int bufferOffset;
+
+  /**
+   * Range filling the whole buffer.
+   */
+  public FileRange(long offset, byte[] buffer) {
+    this(offset, buffer, 0, buffer.length);
+  }
+
+  public FileRange(long offset, byte[] buffer, int bufferOffset, int length) {
+    if (offset < 0 || length < 0 || bufferOffset < 0 || bufferOffset + length > buffer.length) {
+      throw new IllegalArgumentException("Invalid range offset=" + offset + ", length=" + length
+          + ", bufferOffset=" + bufferOffset + ", buffer length=" + buffer.length);
+    }
+    this.offset = offset;
+    this.length = length;
+    this.buffer = buffer;
+    this.bufferOffset = bufferOffset;
+  }
+
+  public long getOffset() {
+    return offset;
+  }
+
+  public int getLength() {
+    return length;
+  }
+
+  public long getEnd() {
+    return offset + length;
+  }
+
+  public byte[] getBuffer() {
+    return buffer;
+  }
+
+  public int getBufferOffset() {
+    return bufferOffset;
+  }
+
+  @Override
+  public String toString() {
+    return "range[" + offset + "," + getEnd() + ")";
+  }
+}
@@ -0,0 +1,165 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * FileStatus cache of a wrapper filesystem, so that open() does not need a
+ * metadata round trip (HEAD request) for files which were just listed or
+ * looked at.
+ * <p>
+ * Entries expire after a TTL. Once the cache is full, expired entries are
+ * purged and, if that is not enough, arbitrary entries are evicted. Changes
+ * made through the wrapper invalidate the affected paths once they are
+ * done; changes made by other clients are only seen once the entry expired.
+ * <p>
+ * Entries are keyed by the qualified path, as returned by
+ * {@link FileStatus#getPath()}, in sorted order so that everything below a
+ * directory is one range of keys.
+ */
+public class FileStatusCache {
+
+  private final long ttlMs;
+  private final int maxEntries;
+  private final ConcurrentNavigableMap<String, Entry> entries =
+      new ConcurrentSkipListMap<String, Entry>();
+  // size of entries, which the skip list can only count by walking it
+  private final AtomicInteger size = new AtomicInteger();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  public FileStatusCache(long ttlMs, int maxEntries) {
+    this.ttlMs = ttlMs;
+    this.maxEntries = Math.max(1, maxEntries);
+  }
+
+  /**
+   * @return cached status of the (qualified) path, or null
+   */
+  public FileStatus get(Path path) {
+    String key = path.toString();
+    Entry entry = entries.get(key);
+    if (entry != null) {
+      if (System.currentTimeMillis() < entry.expiry) {
+        hits.incrementAndGet();
+        return entry.status;
+      }
+      if (entries.remove(key, entry)) {
+        size.decrementAndGet();
+      }
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  public void put(FileStatus status) {
+    if (status == null || status.getPath() == null) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    if (size.get() >= maxEntries) {
+      evict(now);
+    }
+    if (entries.put(status.getPath().toString(), new Entry(status, now + ttlMs)) == null) {
+      size.incrementAndGet();
+    }
+  }
+
+  public void putAll(FileStatus[] statuses) {
+    if (statuses != null) {
+      for (FileStatus status : statuses) {
+        put(status);
+      }
+    }
+  }
+
+  /**
+   * Drops the path and, if recursive, everything below it.
+   */
+  public void invalidate(Path path, boolean recursive) {
+    String key = path.toString();
+    if (entries.remove(key) != null) {
+      size.decrementAndGet();
+    }
+    if (recursive) {
+      String prefix = key.endsWith("/") ? key : key + "/";
+      // '0' follows '/', so the range holds exactly the keys starting with prefix
+      for (String below : entries.subMap(prefix,
+          prefix.substring(0, prefix.length() - 1) + '0').keySet()) {
+        if (entries.remove(below) != null) {
+          size.decrementAndGet();
+        }
+      }
+    }
+  }
+
+  private void evict(long now) {
+    Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<String, Entry> entry = it.next();
+      if (entry.getValue().expiry <= now && entries.remove(entry.getKey(), entry.getValue())) {
+        size.decrementAndGet();
+      }
+    }
+    // still full; make room for a tenth of the cache
+    Iterator<String> keys = entries.keySet().iterator();
+    while (size.get() > maxEntries - maxEntries / 10 - 1 && keys.hasNext()) {
+      if (entries.remove(keys.next()) != null) {
+        size.decrementAndGet();
+      }
+    }
+  }
+
+  public int size() {
+    return size.get();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  @Override
+  public String toString() {
+    return "FileStatusCache{size=" + size.get() + ", hits=" + hits.get()
+        + ", misses=" + misses.get() + "}";
+  }
+
+  private static final class Entry {
+    private final FileStatus status;
+    private final long expiry;
+
+    Entry(FileStatus status, long expiry) {
+      this.status = status;
+      this.expiry = expiry;
+    }
+  }
+}
@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes the trace lines to local files of their own instead of the job
+ * logs, one line per event:
+ * <pre>
+ * timestamp loggerName: &lt;line as logged by LogTraceSink&gt;
+ * </pre>
+ * so that {@link org.apache.hadoop.fs.parser.Parser} reads them directly.
+ * Every file of the {@link RollingTraceFile} repeats the call site and tag
+ * definitions its events refer to.
+ */
+public class FileTraceSink implements TraceSink {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final long FLUSH_INTERVAL_MS = 1000;
+
+  private final RollingTraceFile files;
+  private final StringBuilder sb = new StringBuilder(512);
+  private final Set<Integer> definedTags = new HashSet<Integer>();
+  // call site definitions seen so far, repeated in every new file
+  private final Map<Long, String> callSites = new LinkedHashMap<Long, String>();
+  private final String callSiteLogger = CallSiteTable.class.getName();
+  private Writer writer;
+  private boolean hasEvents;
+  private boolean dirty;
+  private long lastFlushTime;
+
+  public FileTraceSink(RollingTraceFile files) throws IOException {
+    this.files = files;
+    openFile();
+  }
+
+  private void openFile() throws IOException {
+    writer = new OutputStreamWriter(files.roll(), UTF8);
+    definedTags.clear();
+    hasEvents = false;
+    long now = System.currentTimeMillis();
+    for (Map.Entry<Long, String> callSite : callSites.entrySet()) {
+      writeLine(now, callSiteLogger).append(CallSiteTable.PREFIX).append(callSite.getKey())
+          .append(',').append(callSite.getValue());
+      endLine();
+    }
+  }
+
+  @Override
+  public void write(TraceEvent event) throws IOException {
+    if (event.getKind() == TraceEvent.Kind.CALL_SITE) {
+      callSites.put(event.getId(), event.getMsg());
+    } else {
+      int tagsId = event.getTagsId();
+      if (tagsId != TraceTags.NO_TAGS && definedTags.add(tagsId)) {
+        writeLine(event.getTimestamp(), TraceTags.getLogger().getName())
+            .append(TraceTags.PREFIX).append(tagsId).append(',').append(event.getTags());
+        endLine();
+      }
+      hasEvents = true;
+    }
+    event.format(writeLine(event.getTimestamp(), event.getLogger().getName()));
+    endLine();
+    rollIfNeeded();
+  }
+
+  private void rollIfNeeded() throws IOException {
+    if (hasEvents && files.shouldRoll()) {
+      writer.flush();
+      openFile();
+    }
+  }
+
+  private StringBuilder writeLine(long timestamp, String loggerName) {
+    sb.setLength(0);
+    return sb.append(timestamp).append(' ').append(loggerName).append(": ");
+  }
+
+  private void endLine() throws IOException {
+    sb.append('\n');
+    writer.append(sb);
+    dirty = true;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    long now = System.currentTimeMillis();
+    if (dirty && now - lastFlushTime >= FLUSH_INTERVAL_MS) {
+      writer.flush();
+      dirty = false;
+      lastFlushTime = now;
+    }
+    rollIfNeeded();
+  }
+
+  @Override
+  public void close() throws IOException {
+    writer.flush();
+    files.close();
+  }
+}
@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.hadoop.fs.wrapper;
+
+/**
+ * Identifies a version of a file by path, length and modification time, as
+ * the key of the caches and the stream pool. Immutable.
+ */
+public final class FileVersion {
+
+  private final String path;
+  private final long length;
+  private final long modificationTime;
+
+  public FileVersion(String path, long length, long modificationTime) {
+    this.path = path;
+    this.length = length;
+    this.modificationTime = modificationTime;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  public long getLength() {
+    return length;
+  }
+
+  public long getModificationTime() {
+    return modificationTime;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * (31 * path.hashCode() + (int) (length ^ (length >>> 32)))
+        + (int) (modificationTime ^ (modificationTime >>> 32));
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof FileVersion)) {
+      return false;
+    }
+    FileVersion other = (FileVersion) o;
+    return length == other.length && modificationTime == other.modificationTime
+        && path.equals(other.path);
+  }
+
+  @Override
+  public String toString() {
+    return path + "@" + length + "/" + modificationTime;
+  }
+}
@@ -0,0 +1,218 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.apache.hadoop.conf.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Policy of hedged positional reads of the streams of a wrapper filesystem:
+ * a read which did not complete within the delay gets a second read of the
+ * same bytes on another stream of the file, and the first to complete wins.
+ * <p>
+ * The delay adapts to the filesystem's own latencies; it is the configured
+ * quantile (default p95) of the latencies of the remote reads of the same
+ * operation recorded here over a recent window, recomputed once a second,
+ * and at least the configured minimum. Reads served from caches are not
+ * recorded, and older latencies age out with the window. Hedges are capped
+ * at a percentage of the reads which could be hedged, so a slow store is
+ * not hit with twice the requests.
+ */
+public class HedgedReads {
+
+  private static final long UPDATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final ExecutorService executor;
+  private final double quantile;
+  private final long minDelayNanos;
+  private final int maxPercent;
+  private final int maxSize;
+  private final long windowNanos;
+
+  private final AtomicLong reads = new AtomicLong();
+  private final AtomicLong hedges = new AtomicLong();
+  private final AtomicLong hedgeWins = new AtomicLong();
+  // latencies of remote reads per operation, of the current window; the
+  // previous window is kept for the delay until the current one ends
+  private volatile LatencyHistogram[] current = newHistograms();
+  // guarded by snapshot
+  private LatencyHistogram[] previous = newHistograms();
+  private long windowStart;
+  // delay per operation, in nanos; recomputed by the first reader after
+  // nextUpdate
+  private final long[] delays = new long[WrapperMetrics.Op.values().length];
+  private final long[] snapshot = LatencyHistogram.newSnapshot();
+  private final long[] currentSnapshot = LatencyHistogram.newSnapshot();
+  private volatile long nextUpdate;
+
+  /**
+   * @param executor runs hedged reads and their hedges; rejects them when
+   *                 it has no idle thread
+   */
+  public HedgedReads(ExecutorService executor, double quantile, long minDelayMs, int maxPercent,
+      int maxSize, long windowMs) {
+    this.executor = executor;
+    this.quantile = quantile;
+    this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMs);
+    this.maxPercent = maxPercent;
+    this.maxSize = maxSize;
+    this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, windowMs));
+    this.nextUpdate = System.nanoTime();
+    this.windowStart = nextUpdate;
+  }
+
+  /**
+   * @return policy configured by fs.wrapper.hedge.*, or null if hedged reads
+   * are not enabled
+   */
+  public static HedgedReads get(Configuration conf) {
+    if (!conf.getBoolean(Constants.HEDGE_ENABLED, Constants.DEFAULT_HEDGE_ENABLED)) {
+      return null;
+    }
+    return new HedgedReads(ReadExecutor.getHedgeExecutor(conf.getInt(Constants.HEDGE_THREADS,
+        Constants.DEFAULT_HEDGE_THREADS)),
+        conf.getFloat(Constants.HEDGE_QUANTILE, Constants.DEFAULT_HEDGE_QUANTILE),
+        conf.getLong(Constants.HEDGE_MIN_DELAY_MS, Constants.DEFAULT_HEDGE_MIN_DELAY_MS),
+        conf.getInt(Constants.HEDGE_MAX_PERCENT, Constants.DEFAULT_HEDGE_MAX_PERCENT),
+        conf.getInt(Constants.HEDGE_MAX_SIZE, Constants.DEFAULT_HEDGE_MAX_SIZE),
+        conf.getLong(Constants.HEDGE_WINDOW_MS, Constants.DEFAULT_HEDGE_WINDOW_MS));
+  }
+
+  private static LatencyHistogram[] newHistograms() {
+    LatencyHistogram[] histograms = new LatencyHistogram[WrapperMetrics.Op.values().length];
+    for (int i = 0; i < histograms.length; i++) {
+      histograms[i] = new LatencyHistogram();
+    }
+    return histograms;
+  }
+
+  ExecutorService getExecutor() {
+    return executor;
+  }
+
+  /**
+   * @return true if a read of len bytes is hedged when slow; larger reads are
+   * bound by bandwidth rather than latency
+   */
+  public boolean accepts(int len) {
+    return len > 0 && len <= maxSize;
+  }
+
+  /**
+   * Records the latency of a read from the remote store.
+   */
+  public void record(WrapperMetrics.Op op, long timeInNanos) {
+    current[op.ordinal()].record(timeInNanos);
+  }
+
+  /**
+   * Counts a read which may be hedged.
+   *
+   * @return nanos to wait before hedging it
+   */
+  public long delayNanos(WrapperMetrics.Op op) {
+    reads.incrementAndGet();
+    long now = System.nanoTime();
+    if (now - nextUpdate >= 0) {
+      synchronized (snapshot) {
+        if (now - nextUpdate >= 0) {
+          if (now - windowStart >= windowNanos) {
+            previous = current;
+            current = newHistograms();
+            windowStart = now;
+          }
+          for (WrapperMetrics.Op o : WrapperMetrics.Op.values()) {
+            previous[o.ordinal()].snapshot(snapshot);
+            current[o.ordinal()].snapshot(currentSnapshot);
+            for (int i = 0; i < snapshot.length; i++) {
+              snapshot[i] += currentSnapshot[i];
+            }
+            delays[o.ordinal()] = LatencyHistogram.valueAtQuantile(snapshot,
+                LatencyHistogram.count(snapshot), quantile);
+          }
+          nextUpdate = now + UPDATE_INTERVAL_NANOS;
+        }
+      }
+    }
+    long delay;
+    synchronized (snapshot) {
+      delay = delays[op.ordinal()];
+    }
+    return Math.max(minDelayNanos, delay);
+  }
+
+  /**
+   * @return false if the cap does not allow for another hedge right now, so
+   * the read does not need to be prepared for one
+   */
+  public boolean mayHedge() {
+    return (hedges.get() + 1) * 100 <= reads.get() * maxPercent;
+  }
+
+  /**
+   * Takes a hedge, if the cap allows for another one.
+   */
+  public boolean tryHedge() {
+    while (true) {
+      long taken = hedges.get();
+      if ((taken + 1) * 100 > reads.get() * maxPercent) {
+        return false;
+      }
+      if (hedges.compareAndSet(taken, taken + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Gives back a hedge taken by {@link #tryHedge()} which could not be
+   * issued.
+   */
+  void hedgeRejected() {
+    hedges.decrementAndGet();
+  }
+
+  /**
+   * Counts a hedge which completed before the read it was issued for.
+   */
+  void hedgeWon() {
+    hedgeWins.incrementAndGet();
+  }
+
+  public long getReads() {
+    return reads.get();
+  }
+
+  public long getHedges() {
+    return hedges.get();
+  }
+
+  public long getHedgeWins() {
+    return hedgeWins.get();
+  }
+
+  @Override
+  public String toString() {
+    return "HedgedReads{reads=" + reads.get() + ", hedges=" + hedges.get() + ", hedgeWins="
+        + hedgeWins.get() + "}";
+  }
+}
@@ -0,0 +1,127 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear histogram in the spirit of HdrHistogram.
+ * <p>
+ * Values below {@link #SUB_BUCKETS} get a bucket each. Above that, every
+ * power of two is split into {@link #SUB_BUCKETS} linear sub-buckets, so a
+ * recorded value is off by at most 1/32 (~3%). Recording is one index
+ * computation and one atomic increment; nothing is allocated.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // enough buckets for any positive long
+  static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+  public void record(long value) {
+    counts.incrementAndGet(index(value));
+  }
+
+  /**
+   * Records count occurrences of value.
+   */
+  public void record(long value, long count) {
+    counts.addAndGet(index(value), count);
+  }
+
+  static int index(long value) {
+    if (value < SUB_BUCKETS) {
+      return value < 0 ? 0 : (int) value;
+    }
+    int exp = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exp - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+  }
+
+  /**
+   * @return largest value which maps to the given bucket
+   */
+  static long highestValue(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int shift = index / SUB_BUCKETS - 1;
+    long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+    return ((sub + 1) << shift) - 1;
+  }
+
+  /**
+   * Copies the current counts into the given array, which has to hold
+   * {@link #BUCKETS} entries.
+   */
+  public void snapshot(long[] into) {
+    for (int i = 0; i < BUCKETS; i++) {
+      into[i] = counts.get(i);
+    }
+  }
+
+  public static long[] newSnapshot() {
+    return new long[BUCKETS];
+  }
+
+  /**
+   * @return total number of values in the snapshot
+   */
+  public static long count(long[] snapshot) {
+    long total = 0;
+    for (long c : snapshot) {
+      total += c;
+    }
+    return total;
+  }
+
+  /**
+   * @param quantile between 0 and 1
+   * @return value at the given quantile of the snapshot, 0 if it is empty
+   */
+  public static long valueAtQuantile(long[] snapshot, long total, double quantile) {
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(quantile * total));
+    long seen = 0;
+    for (int i = 0; i < snapshot.length; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return highestValue(i);
+      }
+    }
+    return highestValue(snapshot.length - 1);
+  }
+
+  /**
+   * @return largest value in the snapshot, 0 if it is empty
+   */
+  public static long max(long[] snapshot) {
+    for (int i = snapshot.length - 1; i >= 0; i--) {
+      if (snapshot[i] != 0) {
+        return highestValue(i);
+      }
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,172 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.apache.hadoop.fs.CanSetReadahead;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.fs.Path;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Stream which opens the stream of the real filesystem on the first call
+ * that needs it (a read, or a seek once opened). Seeks before that only move
+ * the position, and closing a stream which was never read does not touch the
+ * real filesystem at all.
+ * <p>
+ * The time taken by the open is kept until {@link #takeOpenNanos()}, so
+ * that {@link TracingInputStream} can report it apart from the read which
+ * triggered it.
+ */
+public class LazyOpenStream extends FSInputStream implements CanSetReadahead {
+
+  private final StreamOpener opener;
+  private final Path f;
+  // guarded by this
+  private FSDataInputStream in;
+  private long pos;
+  private Long readahead;
+  private boolean closed;
+  private long openNanos;
+
+  public LazyOpenStream(StreamOpener opener, Path f) {
+    this.opener = opener;
+    this.f = f;
+  }
+
+  private synchronized FSDataInputStream stream() throws IOException {
+    if (in == null) {
+      if (closed) {
+        throw new IOException("Stream is closed: " + f);
+      }
+      long start = System.nanoTime();
+      FSDataInputStream opened = opener.open();
+      try {
+        if (pos != 0) {
+          opened.seek(pos);
+        }
+        if (readahead != null) {
+          opened.setReadahead(readahead);
+        }
+      } catch (UnsupportedOperationException e) {
+        //real stream does not support readahead. ignore
+      }
+      in = opened;
+      openNanos += System.nanoTime() - start;
+    }
+    return in;
+  }
+
+  /**
+   * @return true once the real stream was opened
+   */
+  public synchronized boolean isOpened() {
+    return in != null;
+  }
+
+  /**
+   * @return nanos spent opening the real stream since the previous call
+   */
+  public synchronized long takeOpenNanos() {
+    long nanos = openNanos;
+    openNanos = 0;
+    return nanos;
+  }
+
+  @Override
+  public synchronized void seek(long pos) throws IOException {
+    if (in != null) {
+      in.seek(pos);
+      return;
+    }
+    if (pos < 0) {
+      throw new EOFException("Cannot seek to a negative offset " + pos);
+    }
+    this.pos = pos;
+  }
+
+  @Override
+  public synchronized long getPos() throws IOException {
+    return (in == null) ? pos : in.getPos();
+  }
+
+  @Override
+  public synchronized boolean seekToNewSource(long targetPos) throws IOException {
+    return in != null && in.seekToNewSource(targetPos);
+  }
+
+  @Override
+  public synchronized int available() throws IOException {
+    return (in == null) ? 0 : in.available();
+  }
+
+  @Override
+  public int read() throws IOException {
+    return stream().read();
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    return stream().read(b, off, len);
+  }
+
+  @Override
+  public int read(long position, byte[] buffer, int offset, int length) throws IOException {
+    return stream().read(position, buffer, offset, length);
+  }
+
+  @Override
+  public void readFully(long position, byte[] buffer, int offset, int length)
+      throws IOException {
+    stream().readFully(position, buffer, offset, length);
+  }
+
+  @Override
+  public void readFully(long position, byte[] buffer) throws IOException {
+    readFully(position, buffer, 0, buffer.length);
+  }
+
+  @Override
+  public synchronized void setReadahead(Long readahead)
+      throws IOException, UnsupportedOperationException {
+    this.readahead = readahead;
+    if (in != null) {
+      in.setReadahead(readahead);
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    closed = true;
+    if (in != null) {
+      in.close();
+    }
+  }
+
+  /**
+   * @return the real stream (and its statistics) once opened
+   */
+  @Override
+  public synchronized String toString() {
+    return (in == null) ? "LazyOpenStream[" + f + ", not opened]"
+        : in.getWrappedStream().toString();
+  }
+}
@@ -0,0 +1,53 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Logs every event through the logger of the class which recorded it. This
+ * is the default sink and produces the lines {@link org.apache.hadoop.fs.parser.Parser}
+ * expects in the yarn logs.
+ */
+public class LogTraceSink implements TraceSink {
+
+  private final StringBuilder sb = new StringBuilder(512);
+  private final Set<Integer> definedTags = new HashSet<Integer>();
+
+  @Override
+  public void write(TraceEvent event) throws IOException {
+    int tagsId = event.getTagsId();
+    if (tagsId != TraceTags.NO_TAGS && definedTags.add(tagsId)) {
+      TraceTags.getLogger().info(TraceTags.PREFIX + tagsId + "," + event.getTags());
+    }
+    sb.setLength(0);
+    event.getLogger().info(event.format(sb).toString());
+  }
+
+  @Override
+  public void flush() throws IOException {
+    //nothing is buffered
+  }
+
+  @Override
+  public void close() throws IOException {
+  }
+}
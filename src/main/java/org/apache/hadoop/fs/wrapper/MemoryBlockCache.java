@@ -0,0 +1,475 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsInfo;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.Interns;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * JVM wide cache of blocks of remote files in direct (off heap) memory,
+ * shared by all wrapper streams. Cached data does not add to the heap and
+ * its garbage collection.
+ * <p>
+ * Every cached block occupies one slab, a slice of direct memory of the
+ * block size. Slabs are allocated in chunks as the cache fills up, up to the
+ * configured size, and reused after eviction. Evictions follow the CLOCK
+ * algorithm: hits set a referenced bit of the slab, and the clock hand
+ * evicts the first slab it finds without the bit, clearing the bits it
+ * passes.
+ * <p>
+ * The index is split into lock stripes by block. Hits copy the block under
+ * the read lock of its stripe, so readers of any block proceed concurrently
+ * and a slab is never reused while it is being copied. Misses are read from
+ * the next tier (the {@link DiskBlockCache} if enabled, else the remote
+ * store) straight into a slab, once for concurrent readers of the same
+ * block, which then copy it from the slab like hits. Hits, misses, hit
+ * ratio and occupancy are published through metrics2 as source
+ * "WrapperMemoryBlockCache".
+ */
+public final class MemoryBlockCache implements BlockCache, MetricsSource {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MemoryBlockCache.class);
+
+  private static final int STRIPES = 32;
+  private static final int CHUNK_SIZE = 64 * 1024 * 1024;
+
+  private static final MetricsInfo RECORD_INFO = Interns.info("WrapperMemoryBlockCache",
+      "Off heap block cache of the wrapper filesystems");
+  private static final MetricsInfo HITS_INFO =
+      Interns.info("Hits", "Block reads served from memory");
+  private static final MetricsInfo MISSES_INFO =
+      Interns.info("Misses", "Blocks loaded from the next tier");
+  private static final MetricsInfo WAITS_INFO =
+      Interns.info("Waits", "Block reads which waited for a load of the same block");
+  private static final MetricsInfo EVICTIONS_INFO = Interns.info("Evictions", "Evicted blocks");
+  private static final MetricsInfo HIT_RATIO_INFO =
+      Interns.info("HitRatio", "Hits / (hits + misses) since the previous snapshot");
+  private static final MetricsInfo USED_INFO = Interns.info("Used", "Bytes of cached blocks");
+  private static final MetricsInfo ALLOCATED_INFO =
+      Interns.info("Allocated", "Bytes of direct memory allocated for slabs");
+  private static final MetricsInfo CAPACITY_INFO =
+      Interns.info("Capacity", "Max bytes of direct memory");
+  private static final MetricsInfo ENTRIES_INFO = Interns.info("Entries", "Blocks cached");
+
+  private static volatile MemoryBlockCache instance;
+
+  private final int blockSize;
+  private final int slabsPerChunk;
+  private final BlockCache next;
+  private final Stripe[] stripes = new Stripe[STRIPES];
+
+  // per slab. A slab is only read under the read lock of the stripe of its
+  // owner; owners are guarded by clockLock
+  private final ByteBuffer[] slabs;
+  private final BlockKey[] owners;
+  private final AtomicIntegerArray referenced;
+
+  private final Object clockLock = new Object();
+  // guarded by clockLock
+  private final ArrayDeque<Integer> free = new ArrayDeque<Integer>();
+  private int allocated;
+  private boolean allocationFailed;
+  private int hand;
+
+  private final ConcurrentMap<BlockKey, FutureTask<Boolean>> loading =
+      new ConcurrentHashMap<BlockKey, FutureTask<Boolean>>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong waits = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong used = new AtomicLong();
+  private final AtomicLong entries = new AtomicLong();
+  // guarded by this
+  private long previousHits;
+  private long previousMisses;
+
+  /**
+   * @param next tier blocks are loaded through on a miss; may be null
+   */
+  MemoryBlockCache(long capacity, int blockSize, BlockCache next) {
+    if (next != null && next.getBlockSize() != blockSize) {
+      throw new IllegalArgumentException("Block size " + blockSize
+          + " differs from the next tier " + next.getBlockSize());
+    }
+    this.blockSize = blockSize;
+    this.next = next;
+    int slabCount = (int) Math.min(Integer.MAX_VALUE, capacity / blockSize);
+    this.slabsPerChunk = Math.max(1, CHUNK_SIZE / blockSize);
+    this.slabs = new ByteBuffer[slabCount];
+    this.owners = new BlockKey[slabCount];
+    this.referenced = new AtomicIntegerArray(slabCount);
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Stripe();
+    }
+  }
+
+  /**
+   * Returns the cache of this JVM, creating it with the settings of the
+   * given configuration if it does not exist yet. The disk block cache, if
+   * enabled, becomes the next tier.
+   *
+   * @return null if disabled (fs.wrapper.memory.cache.size=0)
+   */
+  public static MemoryBlockCache get(Configuration conf) {
+    MemoryBlockCache cache = instance;
+    if (cache == null) {
+      long capacity = conf.getLong(Constants.MEMORY_CACHE_SIZE,
+          Constants.DEFAULT_MEMORY_CACHE_SIZE);
+      int blockSize = conf.getInt(Constants.CACHE_BLOCK_SIZE, Constants.DEFAULT_CACHE_BLOCK_SIZE);
+      if (capacity < blockSize) {
+        return null;
+      }
+      synchronized (MemoryBlockCache.class) {
+        cache = instance;
+        if (cache == null) {
+          cache = new MemoryBlockCache(capacity, blockSize, DiskBlockCache.get(conf));
+          try {
+            DefaultMetricsSystem.instance().register("WrapperMemoryBlockCache",
+                "Off heap block cache of the wrapper filesystems", cache);
+          } catch (RuntimeException e) {
+            LOG.warn("Unable to register memory block cache metrics", e);
+          }
+          LOG.info("Memory block cache of " + capacity + " bytes, next tier " + cache.next);
+          instance = cache;
+        }
+      }
+    }
+    return cache;
+  }
+
+  @Override
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  @Override
+  public int read(FileVersion file, final long index, final int blockLength,
+      final Loader loader, int offsetInBlock, ByteBuffer dst) throws IOException {
+    int n = Math.min(dst.remaining(), blockLength - offsetInBlock);
+    final BlockKey key = new BlockKey(file, index);
+    if (readCached(key, offsetInBlock, dst, n)) {
+      hits.incrementAndGet();
+      return n;
+    }
+    FutureTask<Boolean> load = new FutureTask<Boolean>(new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws IOException {
+        return load(key, blockLength, loader);
+      }
+    });
+    FutureTask<Boolean> running = loading.putIfAbsent(key, load);
+    if (running == null) {
+      try {
+        // it may have been stored since the lookup above
+        if (readCached(key, offsetInBlock, dst, n)) {
+          hits.incrementAndGet();
+          return n;
+        }
+        misses.incrementAndGet();
+        load.run();
+      } finally {
+        loading.remove(key, load);
+      }
+    } else {
+      waits.incrementAndGet();
+      load = running;
+    }
+    get(load);
+    // served from the slab; it is read elsewhere only if there was no slab
+    // to load into, or it was evicted right away
+    if (!readCached(key, offsetInBlock, dst, n)) {
+      if (next != null) {
+        next.read(file, index, blockLength, loader, offsetInBlock, dst);
+      } else {
+        ByteBuffer target = dst.duplicate();
+        target.limit(target.position() + n);
+        loader.load(index * blockSize + offsetInBlock, target);
+        dst.position(dst.position() + n);
+      }
+    }
+    return n;
+  }
+
+  /**
+   * Loads a block straight into a free slab and adds it to the index.
+   *
+   * @return false if no slab could be found
+   */
+  private boolean load(BlockKey key, int blockLength, Loader loader) throws IOException {
+    int slab = allocate();
+    if (slab < 0) {
+      return false;
+    }
+    // the slab is neither free nor owned, so no one else touches it
+    ByteBuffer target = slabs[slab].duplicate();
+    target.clear();
+    target.limit(blockLength);
+    boolean loaded = false;
+    try {
+      if (next != null) {
+        next.read(key.file, key.index, blockLength, loader, 0, target);
+      } else {
+        loader.load(key.index * blockSize, target);
+      }
+      loaded = true;
+    } finally {
+      if (!loaded) {
+        synchronized (clockLock) {
+          free.push(slab);
+        }
+      }
+    }
+    Stripe stripe = stripe(key);
+    boolean added;
+    stripe.lock.writeLock().lock();
+    try {
+      added = !stripe.slabs.containsKey(key);
+      if (added) {
+        slabs[slab].limit(blockLength);
+        stripe.slabs.put(key, slab);
+        referenced.set(slab, 1);
+        used.addAndGet(blockLength);
+        entries.incrementAndGet();
+      }
+    } finally {
+      stripe.lock.writeLock().unlock();
+    }
+    // taken after the stripe lock, as evict() takes them the other way round
+    synchronized (clockLock) {
+      if (added) {
+        owners[slab] = key;
+      } else {
+        free.push(slab);
+      }
+    }
+    return true;
+  }
+
+  private static boolean get(FutureTask<Boolean> load) throws IOException {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return load.get();
+        } catch (InterruptedException e) {
+          // the load is done by another reader, which is not interrupted
+          interrupted = true;
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+          }
+          throw new IOException("Unable to load block", e.getCause());
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private boolean readCached(BlockKey key, int offsetInBlock, ByteBuffer dst, int len) {
+    Stripe stripe = stripe(key);
+    stripe.lock.readLock().lock();
+    try {
+      Integer slab = stripe.slabs.get(key);
+      if (slab == null) {
+        return false;
+      }
+      referenced.set(slab, 1);
+      ByteBuffer data = slabs[slab].duplicate();
+      data.limit(offsetInBlock + len);
+      data.position(offsetInBlock);
+      dst.put(data);
+      return true;
+    } finally {
+      stripe.lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @return a slab which is neither free nor owned by a block, or -1 if
+   * none could be found
+   */
+  private int allocate() {
+    synchronized (clockLock) {
+      Integer free = this.free.poll();
+      if (free != null) {
+        return free;
+      }
+      if (allocated < slabs.length && !allocationFailed) {
+        int count = Math.min(slabsPerChunk, slabs.length - allocated);
+        try {
+          ByteBuffer chunk = ByteBuffer.allocateDirect(count * blockSize);
+          for (int i = 0; i < count; i++) {
+            chunk.limit((i + 1) * blockSize).position(i * blockSize);
+            slabs[allocated + i] = chunk.slice();
+          }
+          for (int i = 1; i < count; i++) {
+            this.free.push(allocated + i);
+          }
+          int slab = allocated;
+          allocated += count;
+          return slab;
+        } catch (OutOfMemoryError e) {
+          // -XX:MaxDirectMemorySize is lower than the cache size
+          allocationFailed = true;
+          LOG.warn("Unable to allocate more direct memory, the cache stays at " + allocated
+              + " blocks: " + e);
+        }
+      }
+      return (allocated == 0) ? -1 : evict();
+    }
+  }
+
+  // guarded by clockLock
+  private int evict() {
+    int limit = 2 * allocated;
+    for (int i = 0; i < limit; i++) {
+      int slab = hand;
+      hand = (hand + 1) % allocated;
+      BlockKey owner = owners[slab];
+      if (owner == null || referenced.getAndSet(slab, 0) == 1) {
+        continue;
+      }
+      Stripe stripe = stripe(owner);
+      stripe.lock.writeLock().lock();
+      try {
+        stripe.slabs.remove(owner);
+        owners[slab] = null;
+        used.addAndGet(-slabs[slab].limit());
+        entries.decrementAndGet();
+      } finally {
+        stripe.lock.writeLock().unlock();
+      }
+      evictions.incrementAndGet();
+      return slab;
+    }
+    // all slabs are being filled
+    return -1;
+  }
+
+  private Stripe stripe(BlockKey key) {
+    int h = key.hashCode();
+    return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getWaits() {
+    return waits.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  /**
+   * @return bytes of the cached blocks
+   */
+  public long getUsed() {
+    return used.get();
+  }
+
+  @Override
+  public synchronized void getMetrics(MetricsCollector collector, boolean all) {
+    long h = hits.get();
+    long m = misses.get();
+    long lookups = (h - previousHits) + (m - previousMisses);
+    double hitRatio = (lookups == 0) ? 0 : (double) (h - previousHits) / lookups;
+    previousHits = h;
+    previousMisses = m;
+    long allocatedBytes;
+    synchronized (clockLock) {
+      allocatedBytes = (long) allocated * blockSize;
+    }
+    collector.addRecord(RECORD_INFO)
+        .setContext("wrapper")
+        .addCounter(HITS_INFO, h)
+        .addCounter(MISSES_INFO, m)
+        .addCounter(WAITS_INFO, waits.get())
+        .addCounter(EVICTIONS_INFO, evictions.get())
+        .addGauge(HIT_RATIO_INFO, hitRatio)
+        .addGauge(USED_INFO, used.get())
+        .addGauge(ALLOCATED_INFO, allocatedBytes)
+        .addGauge(CAPACITY_INFO, (long) slabs.length * blockSize)
+        .addGauge(ENTRIES_INFO, entries.get());
+  }
+
+  @Override
+  public String toString() {
+    return "blocks=" + entries.get() + ", used=" + used.get() + "/"
+        + ((long) slabs.length * blockSize) + ", blockSize=" + blockSize;
+  }
+
+  private static final class Stripe {
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // guarded by lock
+    private final HashMap<BlockKey, Integer> slabs = new HashMap<BlockKey, Integer>();
+  }
+
+  private static final class BlockKey {
+    private final FileVersion file;
+    private final long index;
+
+    BlockKey(FileVersion file, long index) {
+      this.file = file;
+      this.index = index;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * file.hashCode() + (int) (index ^ (index >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof BlockKey)) {
+        return false;
+      }
+      BlockKey other = (BlockKey) o;
+      return index == other.index && file.equals(other.file);
+    }
+  }
+}
@@ -0,0 +1,386 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Output stream which uploads the file in parts while it is written, rather
+ * than buffering it all (on local disk, as S3AOutputStream does) and
+ * uploading it in close().
+ * <p>
+ * Bytes are collected in a buffer of partSize bytes. A full buffer is handed
+ * to the upload threads as the next part and writing continues in another
+ * buffer. A stream holds at most maxBuffers buffers, the one being written
+ * included; when all of them are uploading, the writer waits for one to
+ * complete (backpressure), which bounds the memory of a stream to
+ * maxBuffers * partSize. close() uploads the last part, waits for the
+ * parts still uploading and completes the upload; a file smaller than a part
+ * is written with a single put instead. Part buffers are pooled per JVM, at
+ * most maxBuffers of them.
+ * <p>
+ * A failed part fails the next write (or close) and aborts the upload: parts
+ * which did not start uploading yet are dropped, and the abort waits for the
+ * parts still uploading, which would otherwise be stored after it. Like the
+ * streams of the real filesystems, not meant to be written to by several
+ * threads at once.
+ */
+public class MultipartOutputStream extends OutputStream {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MultipartOutputStream.class);
+
+  private static final Queue<byte[]> POOL = new ConcurrentLinkedQueue<byte[]>();
+  private static final AtomicInteger POOLED = new AtomicInteger();
+  private static volatile ExecutorService executor;
+
+  private final MultipartUploader uploader;
+  private final Path path;
+  private final int partSize;
+  private final ExecutorService uploadExecutor;
+  private final Semaphore buffers;
+  private final int maxBuffers;
+
+  private MultipartUploader.Upload upload;
+  private final List<Part> parts = new ArrayList<Part>();
+  // first failure of a part upload
+  private volatile Throwable failure;
+  private byte[] buffer;
+  private int count;
+  private long bytesWritten;
+  private long bufferWaits;
+  private long bufferWaitNanos;
+  private boolean closed;
+  // null unless the status of the file is dropped from it on close
+  private FileStatusCache statusCache;
+
+  /**
+   * @param path       qualified path of the file
+   * @param partSize   bytes per part, except the last one
+   * @param maxBuffers part buffers of the stream, the one being written
+   *                   included, so up to maxBuffers parts upload at once
+   */
+  public MultipartOutputStream(MultipartUploader uploader, Path path, int partSize,
+      int maxBuffers, ExecutorService uploadExecutor) {
+    this.uploader = uploader;
+    this.path = path;
+    this.partSize = Math.max(1, partSize);
+    this.uploadExecutor = uploadExecutor;
+    this.maxBuffers = Math.max(2, maxBuffers);
+    this.buffers = new Semaphore(this.maxBuffers);
+  }
+
+  /**
+   * Returns the upload executor of this JVM, creating it with the given
+   * number of threads if it does not exist yet. See {@link ReadExecutor}.
+   */
+  public static ExecutorService getExecutor(int threads) {
+    ExecutorService uploads = executor;
+    if (uploads == null) {
+      synchronized (MultipartOutputStream.class) {
+        uploads = executor;
+        if (uploads == null) {
+          uploads = ReadExecutor.newExecutor(threads, "wrapper-upload-");
+          executor = uploads;
+        }
+      }
+    }
+    return uploads;
+  }
+
+  /**
+   * Drops the status of the file from the cache once the stream is closed.
+   */
+  void invalidateOnClose(FileStatusCache statusCache) {
+    this.statusCache = statusCache;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    ensureBuffer();
+    buffer[count++] = (byte) b;
+    bytesWritten++;
+    if (count == partSize) {
+      uploadPart();
+    }
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (off < 0 || len < 0 || len > b.length - off) {
+      throw new IndexOutOfBoundsException();
+    }
+    while (len > 0) {
+      ensureBuffer();
+      int n = Math.min(len, partSize - count);
+      System.arraycopy(b, off, buffer, count, n);
+      count += n;
+      off += n;
+      len -= n;
+      bytesWritten += n;
+      if (count == partSize) {
+        uploadPart();
+      }
+    }
+  }
+
+  private void ensureBuffer() throws IOException {
+    if (closed) {
+      throw new IOException("Stream of " + path + " is closed");
+    }
+    checkFailure();
+    if (buffer != null) {
+      return;
+    }
+    if (!buffers.tryAcquire()) {
+      long start = System.nanoTime();
+      try {
+        buffers.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for a part buffer of " + path);
+      }
+      bufferWaits++;
+      bufferWaitNanos += System.nanoTime() - start;
+      // the part which completed may have failed
+      if (failure != null) {
+        buffers.release();
+        checkFailure();
+      }
+    }
+    buffer = acquire(partSize);
+    count = 0;
+  }
+
+  /**
+   * Hands the buffer to the upload threads as the next part.
+   */
+  private void uploadPart() throws IOException {
+    if (upload == null) {
+      upload = uploader.start(path);
+    }
+    Part part = new Part(upload, parts.size() + 1, buffer, count);
+    buffer = null;
+    count = 0;
+    part.future = uploadExecutor.submit(part);
+    parts.add(part);
+  }
+
+  private void checkFailure() throws IOException {
+    Throwable t = failure;
+    if (t != null) {
+      abort();
+      throw new IOException("Upload of a part of " + path + " failed", t);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      if (upload == null) {
+        uploader.put(path, (buffer == null) ? new byte[0] : buffer, count);
+      } else {
+        if (count > 0) {
+          uploadPart();
+        }
+        complete();
+      }
+    } finally {
+      if (buffer != null) {
+        release(buffer);
+        buffer = null;
+        buffers.release();
+      }
+      if (statusCache != null) {
+        statusCache.invalidate(path, false);
+      }
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(toString());
+    }
+  }
+
+  private void complete() throws IOException {
+    List<String> tags = new ArrayList<String>(parts.size());
+    try {
+      for (Part part : parts) {
+        tags.add(part.future.get());
+      }
+    } catch (InterruptedException e) {
+      // the abort does not wait for the parts still uploading then
+      Thread.currentThread().interrupt();
+      abort();
+      throw new InterruptedIOException("Interrupted waiting for the parts of " + path);
+    } catch (ExecutionException e) {
+      abort();
+      throw new IOException("Upload of a part of " + path + " failed", e.getCause());
+    }
+    try {
+      upload.complete(tags);
+    } catch (IOException e) {
+      abort();
+      throw e;
+    }
+  }
+
+  /**
+   * Aborts the upload once; the stream is closed. Parts which did not start
+   * are dropped and their buffers released; parts still uploading are waited
+   * for, unless the thread is interrupted.
+   */
+  private void abort() {
+    closed = true;
+    if (upload == null) {
+      return;
+    }
+    MultipartUploader.Upload aborted = upload;
+    upload = null;
+    // all parts are dropped first, so none starts while waiting for another
+    List<Part> uploading = new ArrayList<Part>();
+    for (Part part : parts) {
+      if (part.claimed.compareAndSet(false, true)) {
+        part.future.cancel(false);
+        release(part.data);
+        buffers.release();
+      } else {
+        uploading.add(part);
+      }
+    }
+    boolean interrupted = Thread.interrupted();
+    for (Part part : uploading) {
+      while (!interrupted) {
+        try {
+          part.future.get();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException | CancellationException e) {
+          break;
+        }
+      }
+    }
+    try {
+      aborted.abort();
+    } catch (IOException e) {
+      LOG.warn("Could not abort the upload of " + path, e);
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * @return part buffers which are neither being written nor uploading
+   */
+  int getFreeBuffers() {
+    return buffers.availablePermits();
+  }
+
+  private static byte[] acquire(int capacity) {
+    byte[] pooled;
+    while ((pooled = POOL.poll()) != null) {
+      POOLED.decrementAndGet();
+      if (pooled.length == capacity) {
+        return pooled;
+      }
+    }
+    return new byte[capacity];
+  }
+
+  /**
+   * Pools the buffer unless maxBuffers are pooled already, so that the heap
+   * kept after the writes is that of one stream.
+   */
+  private void release(byte[] released) {
+    if (POOLED.incrementAndGet() <= maxBuffers) {
+      POOL.offer(released);
+    } else {
+      POOLED.decrementAndGet();
+    }
+  }
+
+  /**
+   * Upload of one part. The part is claimed by the upload thread when it
+   * starts, or by the abort if it did not start by then, and its buffer is
+   * released by whichever claimed it.
+   */
+  private final class Part implements Callable<String> {
+    private final MultipartUploader.Upload upload;
+    private final int partNumber;
+    private final byte[] data;
+    private final int len;
+    private final AtomicBoolean claimed = new AtomicBoolean();
+    private Future<String> future;
+
+    Part(MultipartUploader.Upload upload, int partNumber, byte[] data, int len) {
+      this.upload = upload;
+      this.partNumber = partNumber;
+      this.data = data;
+      this.len = len;
+    }
+
+    @Override
+    public String call() throws IOException {
+      if (!claimed.compareAndSet(false, true)) {
+        // dropped by the abort
+        return null;
+      }
+      try {
+        return upload.uploadPart(partNumber, data, len);
+      } catch (IOException | RuntimeException e) {
+        if (failure == null) {
+          failure = e;
+        }
+        throw e;
+      } finally {
+        release(data);
+        buffers.release();
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "MultipartOutputStream{path=" + path + ", bytesWritten=" + bytesWritten + ", parts="
+        + parts.size() + ", partSize=" + partSize + ", bufferWaits=" + bufferWaits
+        + ", bufferWaitMs=" + (bufferWaitNanos / 1000000) + "}";
+  }
+}
@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Multipart upload API of a store, as used by {@link MultipartOutputStream}.
+ * Implementations are named by fs.wrapper.multipart.uploader.class and
+ * created once per wrapper filesystem.
+ */
+public interface MultipartUploader {
+
+  /**
+   * @param fs   the real filesystem of the wrapper, initialized
+   * @param conf configuration of the wrapper
+   */
+  void initialize(FileSystem fs, Configuration conf) throws IOException;
+
+  /**
+   * @return bytes of the smallest part the store accepts, the last part of
+   * an upload excepted
+   */
+  int getMinPartSize();
+
+  /**
+   * Writes a whole file, which is smaller than a part, with one request.
+   *
+   * @param path qualified path of the file
+   */
+  void put(Path path, byte[] data, int len) throws IOException;
+
+  /**
+   * Starts a multipart upload of the file. It becomes visible once the
+   * upload is completed.
+   *
+   * @param path qualified path of the file
+   */
+  Upload start(Path path) throws IOException;
+
+  /**
+   * Multipart upload of one file.
+   */
+  interface Upload {
+
+    /**
+     * Uploads a part. Called concurrently for different parts.
+     *
+     * @param partNumber number of the part, from 1
+     * @return tag identifying the uploaded part (e.g its ETag)
+     */
+    String uploadPart(int partNumber, byte[] data, int len) throws IOException;
+
+    /**
+     * @param partTags tags of all parts, in part number order
+     */
+    void complete(List<String> partTags) throws IOException;
+
+    /**
+     * Drops the upload and the parts uploaded so far.
+     */
+    void abort() throws IOException;
+  }
+}
@@ -0,0 +1,57 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.hadoop.fs.wrapper;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * JVM wide bound on the additional streams the wrapper streams open for
+ * parallel and hedged reads. The {@link ReadExecutor} bounds the threads
+ * doing such reads, but every stream which reads in parallel keeps streams
+ * (connections) of its own open until it is closed.
+ * <p>
+ * A permit is taken for every additional stream opened and given back when
+ * it is closed. Without a permit the read is done on the stream itself.
+ */
+public final class ParallelStreamLimit {
+
+  private static volatile Semaphore instance;
+
+  private ParallelStreamLimit() {
+  }
+
+  /**
+   * Returns the permits of this JVM, creating them with the given number of
+   * streams if they do not exist yet.
+   */
+  public static Semaphore get(int maxStreams) {
+    Semaphore permits = instance;
+    if (permits == null) {
+      synchronized (ParallelStreamLimit.class) {
+        permits = instance;
+        if (permits == null) {
+          permits = new Semaphore(Math.max(0, maxStreams));
+          instance = permits;
+        }
+      }
+    }
+    return permits;
+  }
+}
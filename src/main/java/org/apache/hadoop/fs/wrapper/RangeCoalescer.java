@@ -0,0 +1,136 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Merges the ranges of a vectored read which are close to each other, so
+ * that they are fetched with a single request. The bytes in the gaps are
+ * read and dropped, which is cheaper than another round trip as long as the
+ * gaps are small.
+ */
+public final class RangeCoalescer {
+
+  private static final Comparator<FileRange> BY_OFFSET = new Comparator<FileRange>() {
+    @Override
+    public int compare(FileRange a, FileRange b) {
+      return a.getOffset() < b.getOffset() ? -1 : (a.getOffset() == b.getOffset() ? 0 : 1);
+    }
+  };
+
+  private RangeCoalescer() {
+  }
+
+  /**
+   * @param maxGap        ranges at most this far apart are merged
+   * @param maxMergedSize merged ranges do not grow beyond this size (a
+   *                      single range larger than it is kept as is)
+   * @return merged ranges, ordered by offset
+   */
+  public static List<CombinedRange> coalesce(List<? extends FileRange> ranges, int maxGap,
+      int maxMergedSize) {
+    List<FileRange> sorted = new ArrayList<FileRange>(ranges);
+    Collections.sort(sorted, BY_OFFSET);
+    List<CombinedRange> combined = new ArrayList<CombinedRange>();
+    CombinedRange current = null;
+    for (FileRange range : sorted) {
+      if (current != null && range.getOffset() - current.end <= maxGap
+          && Math.max(current.end, range.getEnd()) - current.offset <= maxMergedSize) {
+        current.add(range);
+      } else {
+        current = new CombinedRange(range);
+        combined.add(current);
+      }
+    }
+    return combined;
+  }
+
+  /**
+   * Splits one range into parts of (almost) equal size, read separately.
+   *
+   * @return the parts, ordered by offset
+   */
+  public static List<CombinedRange> split(long position, byte[] b, int off, int len,
+      int parts) {
+    List<CombinedRange> split = new ArrayList<CombinedRange>(parts);
+    int done = 0;
+    for (int i = 0; i < parts; i++) {
+      int partLen = (len - done) / (parts - i);
+      split.add(new CombinedRange(new FileRange(position + done, b, off + done, partLen)));
+      done += partLen;
+    }
+    return split;
+  }
+
+  /**
+   * Range fetched with one request, and the ranges it is scattered to.
+   */
+  public static final class CombinedRange {
+    private final long offset;
+    private long end;
+    private final List<FileRange> ranges = new ArrayList<FileRange>(4);
+
+    CombinedRange(FileRange first) {
+      this.offset = first.getOffset();
+      this.end = first.getEnd();
+      ranges.add(first);
+    }
+
+    void add(FileRange range) {
+      end = Math.max(end, range.getEnd());
+      ranges.add(range);
+    }
+
+    public long getOffset() {
+      return offset;
+    }
+
+    public int getLength() {
+      return (int) (end - offset);
+    }
+
+    public List<FileRange> getRanges() {
+      return ranges;
+    }
+
+    /**
+     * Copies the bytes of the combined range into the buffers of its ranges.
+     *
+     * @param data bytes of the combined range
+     */
+    void scatter(byte[] data) {
+      for (FileRange range : ranges) {
+        System.arraycopy(data, (int) (range.getOffset() - offset), range.getBuffer(),
+            range.getBufferOffset(), range.getLength());
+      }
+    }
+
+    /**
+     * @return true if the combined range is exactly its only range, so it can
+     * be read straight into the buffer of that range
+     */
+    boolean isSingle() {
+      return ranges.size() == 1;
+    }
+  }
+}
@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JVM wide, bounded pool of daemon threads for reads the wrapper streams
+ * issue in parallel. When all threads are busy and the queue is full, the
+ * submitting thread runs the read itself.
+ * <p>
+ * Hedged reads have a pool of their own, which rejects reads once all its
+ * threads are busy: a hedge which has to wait is of no use, and a read the
+ * submitter would run itself could not be hedged.
+ */
+public final class ReadExecutor {
+
+  private static final int QUEUE_SIZE = 1024;
+  private static final long KEEP_ALIVE_SECONDS = 60;
+
+  private static volatile ExecutorService instance;
+  private static volatile ExecutorService hedgeInstance;
+
+  private ReadExecutor() {
+  }
+
+  /**
+   * Returns the executor of this JVM, creating it with the given number of
+   * threads if it does not exist yet.
+   */
+  public static ExecutorService get(int threads) {
+    ExecutorService executor = instance;
+    if (executor == null) {
+      synchronized (ReadExecutor.class) {
+        executor = instance;
+        if (executor == null) {
+          executor = newExecutor(threads, "wrapper-read-");
+          instance = executor;
+        }
+      }
+    }
+    return executor;
+  }
+
+  /**
+   * Returns the hedged read executor of this JVM, creating it with the given
+   * number of threads if it does not exist yet. Submissions are rejected
+   * with a RejectedExecutionException while all threads are busy.
+   */
+  public static ExecutorService getHedgeExecutor(int threads) {
+    ExecutorService executor = hedgeInstance;
+    if (executor == null) {
+      synchronized (ReadExecutor.class) {
+        executor = hedgeInstance;
+        if (executor == null) {
+          executor = new ThreadPoolExecutor(0, Math.max(1, threads), KEEP_ALIVE_SECONDS,
+              TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), threadFactory("wrapper-hedge-"),
+              new ThreadPoolExecutor.AbortPolicy());
+          hedgeInstance = executor;
+        }
+      }
+    }
+    return executor;
+  }
+
+  /**
+   * @return bounded pool of daemon threads named prefix + number, whose
+   * submitters run tasks themselves once it is full
+   */
+  static ExecutorService newExecutor(int threads, String prefix) {
+    int size = Math.max(1, threads);
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(size, size, KEEP_ALIVE_SECONDS,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(QUEUE_SIZE), threadFactory(prefix),
+        new ThreadPoolExecutor.CallerRunsPolicy());
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  private static ThreadFactory threadFactory(final String prefix) {
+    return new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, prefix + count.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    };
+  }
+}
@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+
+/**
+ * Sequence of local trace files of one JVM, named
+ * &lt;prefix&gt;-&lt;creationTime&gt;.&lt;suffix&gt;. The file sinks write
+ * through {@link #roll()} and start a new file once {@link #shouldRoll()}
+ * says the current one is too large or too old.
+ * <p>
+ * Writes are buffered and go straight to the file, so tracing never shares
+ * locks with the application logging.
+ */
+public class RollingTraceFile implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RollingTraceFile.class);
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final File dir;
+  private final String prefix;
+  private final String suffix;
+  private final long maxSize;
+  private final long maxAgeMs;
+  private final int maxFiles;
+  private final LinkedList<File> files = new LinkedList<File>();
+  private CountingOutputStream out;
+  private long openTime;
+
+  /**
+   * @param maxSize  bytes after which a new file is started. 0 for no limit
+   * @param maxAgeMs age after which a new file is started. 0 for no limit
+   * @param maxFiles number of files of this JVM to keep; older ones are
+   *                 deleted. 0 keeps all of them
+   */
+  public RollingTraceFile(File dir, String prefix, String suffix, long maxSize, long maxAgeMs,
+      int maxFiles) {
+    this.dir = dir;
+    this.prefix = prefix;
+    this.suffix = suffix;
+    this.maxSize = maxSize;
+    this.maxAgeMs = maxAgeMs;
+    this.maxFiles = maxFiles;
+  }
+
+  /**
+   * Closes the current file (if any) and starts a new one.
+   *
+   * @return stream to write the new file with
+   */
+  public OutputStream roll() throws IOException {
+    close();
+    if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+      throw new IOException("Unable to create trace dir " + dir);
+    }
+    long now = System.currentTimeMillis();
+    File file = new File(dir, prefix + "-" + now + "." + suffix);
+    for (int i = 1; file.exists(); i++) {
+      file = new File(dir, prefix + "-" + now + "_" + i + "." + suffix);
+    }
+    out = new CountingOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+    openTime = now;
+    files.add(file);
+    LOG.info("Writing trace to " + file);
+    while (maxFiles > 0 && files.size() > maxFiles) {
+      File old = files.removeFirst();
+      if (!old.delete()) {
+        LOG.warn("Unable to delete old trace " + old);
+      }
+    }
+    return out;
+  }
+
+  /**
+   * @return true if there is no current file, or it is due for rotation
+   */
+  public boolean shouldRoll() {
+    return out == null
+        || (maxSize > 0 && out.count >= maxSize)
+        || (maxAgeMs > 0 && System.currentTimeMillis() - openTime >= maxAgeMs);
+  }
+
+  /**
+   * @return file currently written, or null
+   */
+  public File getFile() {
+    return out == null ? null : files.getLast();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (out != null) {
+      CountingOutputStream current = out;
+      out = null;
+      current.close();
+    }
+  }
+
+  private static final class CountingOutputStream extends FilterOutputStream {
+    private long count;
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+  }
+}
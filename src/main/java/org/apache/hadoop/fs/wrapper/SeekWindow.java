@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The bytes last read from the delegate of a stream, kept in a ring buffer
+ * so that reads a short distance behind the delegate (backward seeks) are
+ * served without moving it. Ring buffers are pooled per JVM and handed back
+ * when the stream is closed. Not thread safe.
+ */
+final class SeekWindow {
+
+  private static final int MAX_POOLED = 64;
+  private static final Queue<byte[]> POOL = new ConcurrentLinkedQueue<byte[]>();
+  private static final AtomicInteger POOLED = new AtomicInteger();
+
+  private final int capacity;
+  private byte[] ring;
+  // bytes [end - len, end) of the file are in the ring, at their offset modulo capacity
+  private long end;
+  private int len;
+
+  SeekWindow(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Adds bytes read from the delegate at the given position. Bytes which do
+   * not continue the window start a new one.
+   */
+  void append(long position, byte[] b, int off, int n) {
+    if (n > 0) {
+      append(position, ByteBuffer.wrap(b, off, n));
+    }
+  }
+
+  /**
+   * @param src bytes read at the given position, from its position to its
+   *            limit; its position is advanced past them
+   */
+  void append(long position, ByteBuffer src) {
+    int n = src.remaining();
+    if (n <= 0) {
+      return;
+    }
+    if (ring == null) {
+      ring = acquire(capacity);
+    }
+    if (position != end) {
+      end = position;
+      len = 0;
+    }
+    if (n > capacity) {
+      int skip = n - capacity;
+      src.position(src.position() + skip);
+      end += skip;
+      n = capacity;
+    }
+    int start = (int) (end % capacity);
+    int first = Math.min(n, capacity - start);
+    src.get(ring, start, first);
+    src.get(ring, 0, n - first);
+    end += n;
+    len = Math.min(capacity, len + n);
+  }
+
+  /**
+   * Copies bytes at the given position into dst, up to its limit.
+   *
+   * @return bytes copied, 0 if the position is not inside the window
+   */
+  int read(long position, ByteBuffer dst) {
+    if (ring == null || position < end - len || position >= end || !dst.hasRemaining()) {
+      return 0;
+    }
+    int n = (int) Math.min(dst.remaining(), end - position);
+    int start = (int) (position % capacity);
+    int first = Math.min(n, capacity - start);
+    dst.put(ring, start, first);
+    dst.put(ring, 0, n - first);
+    return n;
+  }
+
+  /**
+   * Hands the ring buffer back to the pool.
+   */
+  void release() {
+    byte[] released = ring;
+    ring = null;
+    len = 0;
+    if (released != null && POOLED.incrementAndGet() <= MAX_POOLED) {
+      POOL.offer(released);
+    } else if (released != null) {
+      POOLED.decrementAndGet();
+    }
+  }
+
+  private static byte[] acquire(int capacity) {
+    byte[] pooled;
+    while ((pooled = POOL.poll()) != null) {
+      POOLED.decrementAndGet();
+      if (pooled.length == capacity) {
+        return pooled;
+      }
+    }
+    return new byte[capacity];
+  }
+}
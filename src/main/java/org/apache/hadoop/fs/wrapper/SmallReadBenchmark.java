@@ -0,0 +1,163 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.fs.Path;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Measures the cost per byte of single byte and small reads (as
+ * DataInputStream.readInt and friends issue them) through a wrapper stream,
+ * with and without the small read buffer, against a BufferedInputStream over
+ * the same in memory stream. Wrapper streams are timed for
+ * {@link WrapperMetrics} but not traced.
+ * <p>
+ * java -cp hadoop-aws-wrapper-2.7.1.jar:`hadoop classpath`
+ * org.apache.hadoop.fs.wrapper.SmallReadBenchmark [sizeInMB] [rounds]
+ */
+public class SmallReadBenchmark {
+
+  // small read buffer of the buffered wrapper streams
+  private static final int BUFFER_SIZE = 8192;
+
+  public static void main(String[] args) throws IOException {
+    int size = ((args.length > 0) ? Integer.parseInt(args[0]) : 64) * 1024 * 1024;
+    int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+    byte[] data = new byte[size];
+    new Random(0).nextBytes(data);
+    WrapperMetrics metrics = WrapperMetrics.get(new Configuration(), "benchmark");
+
+    for (int round = 0; round < rounds; round++) {
+      System.out.println("round " + round);
+      for (Mode mode : Mode.values()) {
+        for (boolean ints : new boolean[] { false, true }) {
+          InputStream in = mode.open(data, metrics);
+          long start = System.nanoTime();
+          long sum = ints ? readInts(new DataInputStream(in)) : readBytes(in);
+          long nanos = System.nanoTime() - start;
+          in.close();
+          System.out.println(String.format("  %-16s %-7s %6.2f ns/byte (%d)", mode,
+              ints ? "readInt" : "read", (double) nanos / size, sum));
+        }
+      }
+    }
+  }
+
+  private static long readBytes(InputStream in) throws IOException {
+    long sum = 0;
+    int b;
+    while ((b = in.read()) >= 0) {
+      sum += b;
+    }
+    return sum;
+  }
+
+  private static long readInts(DataInputStream in) throws IOException {
+    long sum = 0;
+    try {
+      while (true) {
+        sum += in.readInt();
+      }
+    } catch (EOFException e) {
+      return sum;
+    }
+  }
+
+  private enum Mode {
+    BUFFERED {
+      @Override
+      InputStream open(byte[] data, WrapperMetrics metrics) {
+        return new BufferedInputStream(new MemoryStream(data));
+      }
+    },
+    WRAPPER {
+      @Override
+      InputStream open(byte[] data, WrapperMetrics metrics) {
+        return wrap(data, metrics, 0);
+      }
+    },
+    WRAPPER_BUFFERED {
+      @Override
+      InputStream open(byte[] data, WrapperMetrics metrics) {
+        return wrap(data, metrics, BUFFER_SIZE);
+      }
+    };
+
+    abstract InputStream open(byte[] data, WrapperMetrics metrics);
+
+    static InputStream wrap(byte[] data, WrapperMetrics metrics, int bufferSize) {
+      TracingInputStream in = new TracingInputStream(new MemoryStream(data),
+          new Path("/benchmark"), data.length, null, false, false);
+      in.setMetrics(metrics);
+      in.setSmallReadBuffer(bufferSize, Constants.DEFAULT_SMALL_READ_THRESHOLD);
+      return in;
+    }
+  }
+
+  /**
+   * Stands in for the stream of a remote file, without its latency.
+   */
+  private static class MemoryStream extends FSInputStream {
+    private final byte[] data;
+    private int pos;
+
+    MemoryStream(byte[] data) {
+      this.data = data;
+    }
+
+    @Override
+    public int read() {
+      return (pos < data.length) ? data[pos++] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (pos >= data.length) {
+        return -1;
+      }
+      int n = Math.min(len, data.length - pos);
+      System.arraycopy(data, pos, b, off, n);
+      pos += n;
+      return n;
+    }
+
+    @Override
+    public void seek(long pos) {
+      this.pos = (int) pos;
+    }
+
+    @Override
+    public long getPos() {
+      return pos;
+    }
+
+    @Override
+    public boolean seekToNewSource(long targetPos) {
+      return false;
+    }
+  }
+}
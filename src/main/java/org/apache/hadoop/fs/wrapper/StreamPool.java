@@ -0,0 +1,211 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams of the real filesystem which were closed through a wrapper
+ * filesystem recently, kept open for a short while so that opening the same
+ * file again (same path, length and modification time) takes the stream and
+ * its connection instead of creating a new one. Readers often open a file,
+ * read its footer, close it and open it again right after.
+ * <p>
+ * Streams idle for longer than the timeout are closed by a background
+ * thread shared by all pools ("wrapper-stream-pool").
+ */
+public class StreamPool implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(StreamPool.class);
+
+  private static final ScheduledExecutorService SWEEPER = createSweeper();
+
+  private final int maxStreams;
+  private final long idleMs;
+  // oldest first; guarded by itself
+  private final LinkedHashMap<FileVersion, LinkedList<Idle>> idle =
+      new LinkedHashMap<FileVersion, LinkedList<Idle>>();
+  private int size;
+  private boolean closed;
+  private final ScheduledFuture<?> sweep;
+  private final AtomicLong reuses = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong idleEvictions = new AtomicLong();
+  private final AtomicLong rejections = new AtomicLong();
+
+  public StreamPool(int maxStreams, long idleMs) {
+    this.maxStreams = maxStreams;
+    this.idleMs = idleMs;
+    long period = Math.max(10, idleMs / 2);
+    this.sweep = SWEEPER.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        evictIdle(System.currentTimeMillis());
+      }
+    }, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  private static ScheduledExecutorService createSweeper() {
+    ScheduledThreadPoolExecutor sweeper = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "wrapper-stream-pool");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    sweeper.setRemoveOnCancelPolicy(true);
+    return sweeper;
+  }
+
+  /**
+   * @return an idle stream of the file, positioned where it was left, or
+   * null
+   */
+  public FSDataInputStream take(FileVersion key) {
+    synchronized (idle) {
+      LinkedList<Idle> streams = idle.get(key);
+      if (streams != null) {
+        Idle taken = streams.removeLast();
+        if (streams.isEmpty()) {
+          idle.remove(key);
+        }
+        size--;
+        reuses.incrementAndGet();
+        return taken.stream;
+      }
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * Keeps a stream which was closed by its reader.
+   *
+   * @return false if the pool is full or closed; the caller closes the
+   * stream then
+   */
+  public boolean offer(FileVersion key, FSDataInputStream stream) {
+    synchronized (idle) {
+      if (closed || size >= maxStreams) {
+        rejections.incrementAndGet();
+        return false;
+      }
+      LinkedList<Idle> streams = idle.get(key);
+      if (streams == null) {
+        streams = new LinkedList<Idle>();
+        idle.put(key, streams);
+      }
+      streams.add(new Idle(stream, System.currentTimeMillis() + idleMs));
+      size++;
+      return true;
+    }
+  }
+
+  void evictIdle(long now) {
+    List<FSDataInputStream> expired = new ArrayList<FSDataInputStream>();
+    boolean closing;
+    synchronized (idle) {
+      closing = closed;
+      Iterator<Map.Entry<FileVersion, LinkedList<Idle>>> it = idle.entrySet().iterator();
+      while (it.hasNext()) {
+        LinkedList<Idle> streams = it.next().getValue();
+        while (!streams.isEmpty() && (closing || streams.getFirst().expiry <= now)) {
+          expired.add(streams.removeFirst().stream);
+          size--;
+        }
+        if (streams.isEmpty()) {
+          it.remove();
+        }
+      }
+    }
+    if (!closing) {
+      idleEvictions.addAndGet(expired.size());
+    }
+    for (FSDataInputStream stream : expired) {
+      try {
+        stream.close();
+      } catch (IOException e) {
+        LOG.debug("Unable to close idle stream", e);
+      }
+    }
+  }
+
+  public long getReuses() {
+    return reuses.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getIdleEvictions() {
+    return idleEvictions.get();
+  }
+
+  /**
+   * Closes all idle streams. Streams offered afterwards are rejected.
+   */
+  @Override
+  public void close() {
+    sweep.cancel(false);
+    synchronized (idle) {
+      closed = true;
+    }
+    evictIdle(Long.MAX_VALUE);
+  }
+
+  @Override
+  public String toString() {
+    int idleStreams;
+    synchronized (idle) {
+      idleStreams = size;
+    }
+    return "StreamPool{idle=" + idleStreams + ", reuses=" + reuses.get() + ", misses="
+        + misses.get() + ", idleEvictions=" + idleEvictions.get() + ", rejections="
+        + rejections.get() + "}";
+  }
+
+  private static final class Idle {
+    private final FSDataInputStream stream;
+    private final long expiry;
+
+    Idle(FSDataInputStream stream, long expiry) {
+      this.stream = stream;
+      this.expiry = expiry;
+    }
+  }
+}
@@ -0,0 +1,301 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JVM wide registry of the open wrapper streams.
+ * <p>
+ * Every stream opened through a wrapper filesystem gets a unique id and an
+ * entry holding its path, open time, bytes read and (with
+ * fs.wrapper.stacktrace=true) the call site which opened it. The entry is a
+ * {@link PhantomReference} to the stream, so a stream which is garbage
+ * collected without having been closed - and which most likely leaked its
+ * connection - is noticed by the "wrapper-stream-registry" thread and
+ * reported as a leak.
+ * <p>
+ * The same thread periodically logs the number of open streams per
+ * filesystem and the streams which have been open for long.
+ * <pre>
+ * fs.wrapper.stream.report.interval.ms : report interval (default 60000, 0 disables it)
+ * fs.wrapper.stream.report.min.age.ms  : list streams open longer than this (default 300000)
+ * </pre>
+ */
+public final class StreamRegistry {
+
+  private static final Logger LOG = LoggerFactory.getLogger(StreamRegistry.class);
+
+  private static final long POLL_INTERVAL_MS = 1000;
+  // max number of long open streams listed per report
+  private static final int MAX_REPORTED_STREAMS = 20;
+
+  private static volatile StreamRegistry instance;
+
+  private final ConcurrentMap<Long, Registration> open =
+      new ConcurrentHashMap<Long, Registration>();
+  private final ReferenceQueue<TracingInputStream> queue =
+      new ReferenceQueue<TracingInputStream>();
+  private final AtomicLong nextId = new AtomicLong();
+  private final AtomicLong leaked = new AtomicLong();
+  private final long reportIntervalMs;
+  private final long reportMinAgeMs;
+  private final Thread reporter;
+
+  private StreamRegistry(long reportIntervalMs, long reportMinAgeMs) {
+    this.reportIntervalMs = reportIntervalMs;
+    this.reportMinAgeMs = reportMinAgeMs;
+    this.reporter = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        reportLoop();
+      }
+    }, "wrapper-stream-registry");
+    this.reporter.setDaemon(true);
+  }
+
+  /**
+   * Returns the registry of this JVM, creating it with the settings of the
+   * given configuration if it does not exist yet.
+   *
+   * @return null if disabled by fs.wrapper.stream.registry.enabled
+   */
+  public static StreamRegistry get(Configuration conf) {
+    if (!conf.getBoolean(Constants.STREAM_REGISTRY_ENABLED,
+        Constants.DEFAULT_STREAM_REGISTRY_ENABLED)) {
+      return null;
+    }
+    StreamRegistry registry = instance;
+    if (registry == null) {
+      synchronized (StreamRegistry.class) {
+        registry = instance;
+        if (registry == null) {
+          registry = new StreamRegistry(
+              conf.getLong(Constants.STREAM_REPORT_INTERVAL_MS,
+                  Constants.DEFAULT_STREAM_REPORT_INTERVAL_MS),
+              conf.getLong(Constants.STREAM_REPORT_MIN_AGE_MS,
+                  Constants.DEFAULT_STREAM_REPORT_MIN_AGE_MS));
+          registry.reporter.start();
+          instance = registry;
+        }
+      }
+    }
+    return registry;
+  }
+
+  /**
+   * Registers a newly opened stream. The returned registration has to be
+   * closed when the stream is closed.
+   *
+   * @param fileSystem uri of the filesystem the stream was opened with
+   * @param callSiteId call site which opened the stream, or
+   *                   {@link CallSiteTable#NO_CALL_SITE}
+   */
+  public Registration register(TracingInputStream stream, String fileSystem, Path path,
+      int callSiteId) {
+    Registration registration = new Registration(this, stream, nextId.incrementAndGet(),
+        fileSystem, path, stream.hashCode(), callSiteId);
+    open.put(registration.id, registration);
+    return registration;
+  }
+
+  /**
+   * @return number of currently open streams
+   */
+  public int getOpenCount() {
+    return open.size();
+  }
+
+  /**
+   * @return number of currently open streams per filesystem uri
+   */
+  public Map<String, Integer> getOpenCountPerFileSystem() {
+    Map<String, Integer> counts = new TreeMap<String, Integer>();
+    for (Registration registration : open.values()) {
+      Integer count = counts.get(registration.fileSystem);
+      counts.put(registration.fileSystem, count == null ? 1 : count + 1);
+    }
+    return counts;
+  }
+
+  /**
+   * @return snapshot of the currently open streams
+   */
+  public List<Registration> getOpenStreams() {
+    return new ArrayList<Registration>(open.values());
+  }
+
+  /**
+   * @return number of streams which were garbage collected without being closed
+   */
+  public long getLeakedCount() {
+    return leaked.get();
+  }
+
+  private void reportLoop() {
+    long lastReport = System.currentTimeMillis();
+    while (true) {
+      try {
+        Reference<? extends TracingInputStream> ref = queue.remove(POLL_INTERVAL_MS);
+        while (ref != null) {
+          reportLeak((Registration) ref);
+          ref = queue.poll();
+        }
+        long now = System.currentTimeMillis();
+        if (reportIntervalMs > 0 && now - lastReport >= reportIntervalMs) {
+          reportOpenStreams(now);
+          lastReport = now;
+        }
+      } catch (InterruptedException e) {
+        return;
+      } catch (RuntimeException e) {
+        LOG.warn("Error in stream registry", e);
+      }
+    }
+  }
+
+  private void reportLeak(Registration registration) {
+    // closed streams are cleared before they can be enqueued; this is just
+    // in case close and collection raced
+    if (open.remove(registration.id) == null) {
+      return;
+    }
+    leaked.incrementAndGet();
+    LOG.warn("Stream was not closed before it was garbage collected: "
+        + registration.describe(System.currentTimeMillis())
+        + "; leaked streams so far: " + leaked.get());
+  }
+
+  private void reportOpenStreams(long now) {
+    if (open.isEmpty()) {
+      return;
+    }
+    List<Registration> old = new ArrayList<Registration>();
+    for (Registration registration : open.values()) {
+      if (now - registration.openTime >= reportMinAgeMs) {
+        old.add(registration);
+      }
+    }
+    StringBuilder sb = new StringBuilder("Open streams: ").append(getOpenCountPerFileSystem())
+        .append(", open for more than ").append(reportMinAgeMs).append(" ms: ")
+        .append(old.size());
+    Collections.sort(old, new Comparator<Registration>() {
+      @Override
+      public int compare(Registration a, Registration b) {
+        return a.openTime < b.openTime ? -1 : (a.openTime == b.openTime ? 0 : 1);
+      }
+    });
+    for (int i = 0; i < old.size() && i < MAX_REPORTED_STREAMS; i++) {
+      sb.append("\n  ").append(old.get(i).describe(now));
+    }
+    LOG.info(sb.toString());
+  }
+
+  /**
+   * Entry of an open stream. Does not hold on to the stream itself.
+   */
+  public static final class Registration extends PhantomReference<TracingInputStream> {
+
+    private final StreamRegistry registry;
+    private final long id;
+    private final String fileSystem;
+    private final Path path;
+    private final int streamHashCode;
+    private final int callSiteId;
+    private final long openTime;
+    // only updated by the thread reading the stream; approximate if several
+    // threads do positional reads on the same stream
+    private volatile long bytesRead;
+
+    private Registration(StreamRegistry registry, TracingInputStream stream, long id,
+        String fileSystem, Path path, int streamHashCode, int callSiteId) {
+      super(stream, registry.queue);
+      this.registry = registry;
+      this.id = id;
+      this.fileSystem = fileSystem;
+      this.path = path;
+      this.streamHashCode = streamHashCode;
+      this.callSiteId = callSiteId;
+      this.openTime = System.currentTimeMillis();
+    }
+
+    void addBytesRead(long bytes) {
+      bytesRead += bytes;
+    }
+
+    /**
+     * Removes the stream from the registry. Safe to call more than once.
+     */
+    void unregister() {
+      registry.open.remove(id);
+      clear();
+    }
+
+    public long getId() {
+      return id;
+    }
+
+    public String getFileSystem() {
+      return fileSystem;
+    }
+
+    public Path getPath() {
+      return path;
+    }
+
+    public long getOpenTime() {
+      return openTime;
+    }
+
+    public long getBytesRead() {
+      return bytesRead;
+    }
+
+    public int getCallSiteId() {
+      return callSiteId;
+    }
+
+    String describe(long now) {
+      StringBuilder sb = new StringBuilder("stream_").append(id)
+          .append(" (hashCode_").append(streamHashCode).append(") ").append(path)
+          .append(" open for ").append(now - openTime).append(" ms, read ")
+          .append(bytesRead).append(" bytes");
+      if (callSiteId != CallSiteTable.NO_CALL_SITE) {
+        sb.append(", opened at ").append(CallSiteTable.PREFIX).append(callSiteId);
+      }
+      return sb.toString();
+    }
+  }
+}
@@ -0,0 +1,238 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsInfo;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.Interns;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JVM wide cache of file tails (e.g ORC footers), shared by all wrapper
+ * streams.
+ * <p>
+ * Split generation and the record reader both read the tail of the same
+ * file through streams of their own. The first positional read which ends at
+ * the end of the file puts the bytes it read into the cache; later reads of
+ * any stream of the same file (same path, length and modification time)
+ * which fall inside the cached tail are copied from memory.
+ * <p>
+ * The cache is bounded by the total size of the tails and evicts the least
+ * recently used ones. Streams look a tail up once and keep a reference to
+ * it, so the lock is not taken on the read path. Hits, misses and evictions
+ * are published through metrics2 as source "WrapperTailCache".
+ */
+public final class TailCache implements MetricsSource {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TailCache.class);
+
+  private static final MetricsInfo RECORD_INFO =
+      Interns.info("WrapperTailCache", "File tail cache of the wrapper filesystems");
+  private static final MetricsInfo HITS_INFO = Interns.info("Hits", "Reads served from the cache");
+  private static final MetricsInfo MISSES_INFO =
+      Interns.info("Misses", "Tail reads which were not cached");
+  private static final MetricsInfo EVICTIONS_INFO = Interns.info("Evictions", "Evicted tails");
+  private static final MetricsInfo SIZE_INFO = Interns.info("Size", "Bytes cached");
+  private static final MetricsInfo ENTRIES_INFO = Interns.info("Entries", "Tails cached");
+
+  private static volatile TailCache instance;
+
+  private final long capacity;
+  private final int maxTailSize;
+  // guarded by itself
+  private final LinkedHashMap<FileVersion, Tail> tails =
+      new LinkedHashMap<FileVersion, Tail>(64, 0.75f, true);
+  private long size;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  TailCache(long capacity, int maxTailSize) {
+    this.capacity = capacity;
+    this.maxTailSize = maxTailSize;
+  }
+
+  /**
+   * Returns the cache of this JVM, creating it with the settings of the
+   * given configuration if it does not exist yet.
+   *
+   * @return null if disabled (fs.wrapper.tail.cache.size=0)
+   */
+  public static TailCache get(Configuration conf) {
+    TailCache cache = instance;
+    if (cache == null) {
+      long capacity = conf.getLong(Constants.TAIL_CACHE_SIZE,
+          Constants.DEFAULT_TAIL_CACHE_SIZE);
+      if (capacity <= 0) {
+        return null;
+      }
+      synchronized (TailCache.class) {
+        cache = instance;
+        if (cache == null) {
+          cache = new TailCache(capacity, conf.getInt(Constants.TAIL_CACHE_MAX_TAIL,
+              Constants.DEFAULT_TAIL_CACHE_MAX_TAIL));
+          try {
+            DefaultMetricsSystem.instance().register("WrapperTailCache",
+                "File tail cache of the wrapper filesystems", cache);
+          } catch (RuntimeException e) {
+            LOG.warn("Unable to register tail cache metrics", e);
+          }
+          instance = cache;
+        }
+      }
+    }
+    return cache;
+  }
+
+  /**
+   * @return largest tail which is cached
+   */
+  public int getMaxTailSize() {
+    return maxTailSize;
+  }
+
+  /**
+   * @return cached tail of the file, or null
+   */
+  public Tail get(FileVersion key) {
+    Tail tail;
+    synchronized (tails) {
+      tail = tails.get(key);
+    }
+    if (tail == null) {
+      misses.incrementAndGet();
+    }
+    return tail;
+  }
+
+  /**
+   * Caches the tail of a file, read from position up to the end of the file.
+   *
+   * @return the tail now cached for the file, or null if it is too large
+   */
+  public Tail put(FileVersion key, long position, byte[] b, int off, int len) {
+    return put(key, position, ByteBuffer.wrap(b, off, len));
+  }
+
+  /**
+   * @param src bytes read from position up to the end of the file, from its
+   *            position to its limit; its position is not changed
+   */
+  public Tail put(FileVersion key, long position, ByteBuffer src) {
+    int len = src.remaining();
+    if (len > maxTailSize || len > capacity || position + len != key.getLength()) {
+      return null;
+    }
+    synchronized (tails) {
+      Tail tail = tails.get(key);
+      if (tail != null && tail.offset <= position) {
+        return tail;
+      }
+      byte[] data = new byte[len];
+      src.duplicate().get(data);
+      Tail added = new Tail(position, data);
+      tails.put(key, added);
+      size += len - (tail == null ? 0 : tail.data.length);
+      Iterator<Tail> it = tails.values().iterator();
+      while (size > capacity && it.hasNext()) {
+        Tail evicted = it.next();
+        if (evicted == added) {
+          continue;
+        }
+        it.remove();
+        size -= evicted.data.length;
+        evictions.incrementAndGet();
+      }
+      return added;
+    }
+  }
+
+  void hit() {
+    hits.incrementAndGet();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  @Override
+  public void getMetrics(MetricsCollector collector, boolean all) {
+    long cachedSize;
+    int entries;
+    synchronized (tails) {
+      cachedSize = size;
+      entries = tails.size();
+    }
+    collector.addRecord(RECORD_INFO)
+        .setContext("wrapper")
+        .addCounter(HITS_INFO, hits.get())
+        .addCounter(MISSES_INFO, misses.get())
+        .addCounter(EVICTIONS_INFO, evictions.get())
+        .addGauge(SIZE_INFO, cachedSize)
+        .addGauge(ENTRIES_INFO, entries);
+  }
+
+  /**
+   * Cached bytes of a file from offset up to its end. Immutable.
+   */
+  public static final class Tail {
+    private final long offset;
+    private final byte[] data;
+
+    Tail(long offset, byte[] data) {
+      this.offset = offset;
+      this.data = data;
+    }
+
+    public long getOffset() {
+      return offset;
+    }
+
+    /**
+     * Copies bytes at the given position into dst, up to its limit.
+     *
+     * @return bytes copied, 0 if the position is not inside the tail
+     */
+    int read(long position, ByteBuffer dst) {
+      if (position < offset || position >= offset + data.length) {
+        return 0;
+      }
+      int n = (int) Math.min(dst.remaining(), offset + data.length - position);
+      dst.put(data, (int) (position - offset), n);
+      return n;
+    }
+  }
+}
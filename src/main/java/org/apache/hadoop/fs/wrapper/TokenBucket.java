@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket which allows up to {@code permitsPerSec} acquisitions
+ * per second, with bursts of at most one second worth of permits.
+ */
+class TokenBucket {
+
+  private static final long NANOS_PER_SEC = TimeUnit.SECONDS.toNanos(1);
+
+  private final long permitsPerSec;
+  private final AtomicLong tokens;
+  private final AtomicLong lastRefill;
+
+  TokenBucket(long permitsPerSec) {
+    this.permitsPerSec = permitsPerSec;
+    this.tokens = new AtomicLong(permitsPerSec);
+    this.lastRefill = new AtomicLong(System.nanoTime());
+  }
+
+  boolean tryAcquire() {
+    refill();
+    while (true) {
+      long available = tokens.get();
+      if (available <= 0) {
+        return false;
+      }
+      if (tokens.compareAndSet(available, available - 1)) {
+        return true;
+      }
+    }
+  }
+
+  private void refill() {
+    long now = System.nanoTime();
+    long last = lastRefill.get();
+    long elapsed = now - last;
+    if (elapsed >= NANOS_PER_SEC) {
+      // idle for a while, bucket is full again
+      if (lastRefill.compareAndSet(last, now)) {
+        tokens.set(permitsPerSec);
+      }
+      return;
+    }
+    long permits = elapsed * permitsPerSec / NANOS_PER_SEC;
+    if (permits > 0
+        && lastRefill.compareAndSet(last, last + permits * NANOS_PER_SEC / permitsPerSec)) {
+      while (true) {
+        long available = tokens.get();
+        long updated = Math.min(permitsPerSec, available + permits);
+        if (tokens.compareAndSet(available, updated)) {
+          return;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,185 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.slf4j.Logger;
+
+/**
+ * A single trace event as seen by the drainer thread of {@link TraceRecorder}.
+ * <p>
+ * Instances are reused by the drainer, so they must not be held on to after
+ * the event has been handled.
+ */
+public class TraceEvent {
+
+  public enum Kind {
+    FILE_SYSTEM,
+    INPUT_STREAM,
+    // definition of a call site; id is the call site id and msg its frames
+    CALL_SITE
+  }
+
+  Kind kind;
+  Logger logger;
+  TraceOp op;
+  long id;
+  String address;
+  Object path;
+  long contentLen;
+  long oldPos;
+  long newPos;
+  long positionalRead;
+  long bytes;
+  long timeInNanos;
+  long timestamp;
+  int callSiteId;
+  int tagsId;
+  String tags;
+  long threadId;
+  String msg;
+
+  public Kind getKind() {
+    return kind;
+  }
+
+  public Logger getLogger() {
+    return logger;
+  }
+
+  public TraceOp getOp() {
+    return op;
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  public String getAddress() {
+    return address;
+  }
+
+  public Object getPath() {
+    return path;
+  }
+
+  public long getContentLen() {
+    return contentLen;
+  }
+
+  public long getOldPos() {
+    return oldPos;
+  }
+
+  public long getNewPos() {
+    return newPos;
+  }
+
+  public long getPositionalRead() {
+    return positionalRead;
+  }
+
+  public long getBytes() {
+    return bytes;
+  }
+
+  public long getTimeInNanos() {
+    return timeInNanos;
+  }
+
+  /**
+   * @return wall clock time (in millis) at which the event was recorded
+   */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  /**
+   * @return id of the interned call site, or {@link CallSiteTable#NO_CALL_SITE}
+   */
+  public int getCallSiteId() {
+    return callSiteId;
+  }
+
+  /**
+   * @return id of the interned tags, or {@link TraceTags#NO_TAGS}
+   */
+  public int getTagsId() {
+    return tagsId;
+  }
+
+  /**
+   * @return tags the tagsId stands for, or null
+   */
+  public String getTags() {
+    return tags;
+  }
+
+  /**
+   * @return id of the thread which recorded the event
+   */
+  public long getThreadId() {
+    return threadId;
+  }
+
+  public String getMsg() {
+    return msg;
+  }
+
+  /**
+   * Formats the event in the same layout the wrappers always logged, so that
+   * {@link org.apache.hadoop.fs.parser.Parser} keeps working.
+   * <pre>
+   * FileSystem:  hashCode_hashCode, address, filePath, operation, fileLen, timeInNanos,
+   *              [callSite_id], thread_id, [tags_id]
+   * InputStream: hashCode_hashCode, address, fileName, operation, fileLen, oldPos,
+   *              currentPosAfterRead, positionalSeekLoc, bytesRead, timeInNanos, msg,
+   *              thread_id, [tags_id]
+   * CallSite:    callSite_id, frames
+   * </pre>
+   * The msg column holds callSite_id when the call site of the event was captured.
+   * Tag definitions are written separately by the sinks.
+   */
+  public StringBuilder format(StringBuilder sb) {
+    if (kind == Kind.CALL_SITE) {
+      return sb.append(CallSiteTable.PREFIX).append(id).append(',').append(msg);
+    }
+    sb.append("hashCode_").append(id)
+        .append(',').append(address)
+        .append(',').append(path)
+        .append(',').append(op.getName())
+        .append(',').append(contentLen);
+    if (kind == Kind.INPUT_STREAM) {
+      sb.append(',').append(oldPos)
+          .append(',').append(newPos)
+          .append(',').append(positionalRead)
+          .append(',').append(bytes);
+    }
+    sb.append(',').append(timeInNanos);
+    if (callSiteId != CallSiteTable.NO_CALL_SITE) {
+      sb.append(',').append(CallSiteTable.PREFIX).append(callSiteId);
+    } else if (kind == Kind.INPUT_STREAM) {
+      sb.append(',').append(msg == null ? "" : msg);
+    }
+    sb.append(',').append(TraceTags.THREAD_PREFIX).append(threadId);
+    if (tagsId != TraceTags.NO_TAGS) {
+      sb.append(',').append(TraceTags.PREFIX).append(tagsId);
+    }
+    return sb;
+  }
+}
@@ -0,0 +1,65 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+/**
+ * Operations which are traced by the wrappers. The name is what ends up in
+ * the "operation" column of the trace.
+ */
+public enum TraceOp {
+  OPEN("open"),
+  // open of the real stream, deferred to the first read (fs.wrapper.lazy.open)
+  LAZY_OPEN("lazyOpen"),
+  CREATE("create"),
+  APPEND("append"),
+  READ("read"),
+  READ_FULLY("readFully"),
+  READ_VECTORED("readVectored"),
+  CLOSE("close"),
+  // batch of writes of an output stream
+  WRITE("write"),
+  HFLUSH("hflush"),
+  HSYNC("hsync"),
+  // close of an output stream, which uploads the file on object stores
+  CLOSE_OUTPUT("closeOutput"),
+  LIST_STATUS("listStatus"),
+  MKDIRS("mkdirs"),
+  GET_FILE_STATUS("getFileStatus"),
+  // fileLen holds the files moved or deleted by a parallel directory plan
+  // (-1 if the real filesystem did it in one call); a plan writes a line every
+  // TreeOperations.PROGRESS_INTERVAL files, each with the files and time since
+  // the previous line of the operation
+  RENAME("rename"),
+  DELETE("delete");
+
+  private final String name;
+
+  TraceOp(String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
@@ -0,0 +1,445 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.util.ShutdownHookManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * JVM wide recorder for the trace events of the wrapper filesystems and
+ * streams.
+ * <p>
+ * Reader threads only copy primitive fields (and references they already
+ * hold) into a pre-allocated ring buffer. A single background thread drains
+ * the buffer and hands the events over to a {@link TraceSink} (the job log by
+ * default, see {@link Constants#TRACE_SINK}). If the buffer is full the event
+ * is dropped and counted, so the read path never allocates and never waits
+ * on logging I/O.
+ * <p>
+ * The ring buffer is a bounded multi-producer/single-consumer queue. Every
+ * slot carries a sequence number: producers claim a slot by CAS on the tail
+ * and publish it by advancing the slot sequence, the drainer releases it
+ * again once it is consumed.
+ */
+public final class TraceRecorder {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TraceRecorder.class);
+
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final long SHUTDOWN_WAIT_MS = 5000;
+  private static final long DROP_REPORT_INTERVAL_MS = 10000;
+  // set by YARN for container JVMs
+  private static final String CONTAINER_LOG_DIR = "yarn.app.container.log.dir";
+
+  private static volatile TraceRecorder instance;
+
+  private final int capacity;
+  private final int mask;
+  private final AtomicLongArray sequences;
+  private final AtomicLong tail = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong throttled = new AtomicLong();
+  // null when the event rate is not capped
+  private final TokenBucket rateLimit;
+  // only accessed by the drainer thread
+  private long head;
+  private long reportedDropped;
+  private long reportedThrottled;
+  private long lastDropReportTime;
+
+  // event slots
+  private final TraceEvent.Kind[] kinds;
+  private final Logger[] loggers;
+  private final TraceOp[] ops;
+  private final long[] ids;
+  private final String[] addresses;
+  private final Object[] paths;
+  private final long[] contentLens;
+  private final long[] oldPositions;
+  private final long[] newPositions;
+  private final long[] positionalReads;
+  private final long[] bytes;
+  private final long[] timesInNanos;
+  private final long[] timestamps;
+  private final int[] callSiteIds;
+  private final int[] tagsIds;
+  private final long[] threadIds;
+  private final String[] msgs;
+
+  private final CallSiteTable callSites;
+  private final TraceTags tags = new TraceTags();
+  private final TraceSink sink;
+  private final Thread drainer;
+  private volatile boolean running = true;
+
+  private TraceRecorder(int requestedCapacity, long maxEventsPerSec, int maxStackDepth,
+      int stackSampleRate, TraceSink sink) {
+    this.sink = sink;
+    this.rateLimit = (maxEventsPerSec > 0) ? new TokenBucket(maxEventsPerSec) : null;
+    this.callSites = new CallSiteTable(this, maxStackDepth, stackSampleRate);
+    int cap = Integer.highestOneBit(Math.max(2, requestedCapacity - 1)) << 1;
+    this.capacity = cap;
+    this.mask = cap - 1;
+    this.sequences = new AtomicLongArray(cap);
+    for (int i = 0; i < cap; i++) {
+      sequences.set(i, i);
+    }
+    this.kinds = new TraceEvent.Kind[cap];
+    this.loggers = new Logger[cap];
+    this.ops = new TraceOp[cap];
+    this.ids = new long[cap];
+    this.addresses = new String[cap];
+    this.paths = new Object[cap];
+    this.contentLens = new long[cap];
+    this.oldPositions = new long[cap];
+    this.newPositions = new long[cap];
+    this.positionalReads = new long[cap];
+    this.bytes = new long[cap];
+    this.timesInNanos = new long[cap];
+    this.timestamps = new long[cap];
+    this.callSiteIds = new int[cap];
+    this.tagsIds = new int[cap];
+    this.threadIds = new long[cap];
+    this.msgs = new String[cap];
+
+    this.drainer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        drainLoop();
+      }
+    }, "wrapper-trace-drainer");
+    this.drainer.setDaemon(true);
+  }
+
+  /**
+   * Returns the recorder of this JVM, creating it with default settings if
+   * it does not exist yet.
+   */
+  public static TraceRecorder get() {
+    return get(null);
+  }
+
+  /**
+   * Returns the recorder of this JVM, creating it with the settings of the
+   * given configuration if it does not exist yet.
+   */
+  public static TraceRecorder get(Configuration conf) {
+    TraceRecorder recorder = instance;
+    if (recorder == null) {
+      synchronized (TraceRecorder.class) {
+        recorder = instance;
+        if (recorder == null) {
+          if (conf == null) {
+            conf = new Configuration();
+          }
+          int size = conf.getInt(Constants.TRACE_BUFFER_SIZE, Constants.DEFAULT_TRACE_BUFFER_SIZE);
+          long maxEventsPerSec = conf.getLong(Constants.TRACE_MAX_EVENTS_PER_SEC,
+              Constants.DEFAULT_TRACE_MAX_EVENTS_PER_SEC);
+          int maxStackDepth = conf.getInt(Constants.STACK_TRACE_DEPTH,
+              Constants.DEFAULT_STACK_TRACE_DEPTH);
+          int stackSampleRate = conf.getInt(Constants.STACK_TRACE_SAMPLE,
+              Constants.DEFAULT_STACK_TRACE_SAMPLE);
+          recorder = new TraceRecorder(size, maxEventsPerSec, maxStackDepth, stackSampleRate,
+              createSink(conf));
+          recorder.start();
+          instance = recorder;
+        }
+      }
+    }
+    return recorder;
+  }
+
+  private static TraceSink createSink(Configuration conf) {
+    String type = conf.getTrimmed(Constants.TRACE_SINK, Constants.DEFAULT_TRACE_SINK);
+    boolean binary = Constants.TRACE_SINK_BINARY.equalsIgnoreCase(type);
+    if (binary || Constants.TRACE_SINK_FILE.equalsIgnoreCase(type)) {
+      RollingTraceFile files = createTraceFile(conf, binary ? "bin" : "log");
+      try {
+        if (binary) {
+          return new BinaryTraceSink(files, conf.getInt(Constants.TRACE_BINARY_SEGMENT_SIZE,
+              Constants.DEFAULT_TRACE_BINARY_SEGMENT_SIZE));
+        }
+        return new FileTraceSink(files);
+      } catch (IOException e) {
+        LOG.warn("Unable to create trace file; logging trace instead", e);
+      }
+    } else if (!Constants.TRACE_SINK_LOG.equalsIgnoreCase(type)) {
+      LOG.warn("Unknown " + Constants.TRACE_SINK + "=" + type + "; logging trace instead");
+    }
+    return new LogTraceSink();
+  }
+
+  private static RollingTraceFile createTraceFile(Configuration conf, String suffix) {
+    String defaultDir = System.getProperty(CONTAINER_LOG_DIR,
+        System.getProperty("java.io.tmpdir"));
+    File dir = new File(conf.getTrimmed(Constants.TRACE_DIR, defaultDir));
+    String jvmName = ManagementFactory.getRuntimeMXBean().getName().replace('@', '_');
+    return new RollingTraceFile(dir, "wrapper-trace-" + jvmName, suffix,
+        conf.getLong(Constants.TRACE_FILE_MAX_SIZE, Constants.DEFAULT_TRACE_FILE_MAX_SIZE),
+        conf.getLong(Constants.TRACE_FILE_MAX_AGE_MS, Constants.DEFAULT_TRACE_FILE_MAX_AGE_MS),
+        conf.getInt(Constants.TRACE_FILE_MAX_FILES, Constants.DEFAULT_TRACE_FILE_MAX_FILES));
+  }
+
+  private void start() {
+    drainer.start();
+    ShutdownHookManager.get().addShutdownHook(new Runnable() {
+      @Override
+      public void run() {
+        stop();
+      }
+    }, FileSystem.SHUTDOWN_HOOK_PRIORITY - 1);
+    LOG.info("Started trace recorder with capacity=" + capacity);
+  }
+
+  /**
+   * Stops the drainer after it has drained whatever is in the buffer.
+   */
+  void stop() {
+    running = false;
+    LockSupport.unpark(drainer);
+    try {
+      drainer.join(SHUTDOWN_WAIT_MS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * @return number of events dropped because the buffer was full
+   */
+  public long getDroppedEvents() {
+    return dropped.get();
+  }
+
+  /**
+   * @return number of events dropped because of fs.wrapper.trace.max.events.per.sec
+   */
+  public long getThrottledEvents() {
+    return throttled.get();
+  }
+
+  /**
+   * @return table used to attach call sites (fs.wrapper.stacktrace) to events
+   */
+  public CallSiteTable getCallSites() {
+    return callSites;
+  }
+
+  /**
+   * @return table used to attach query/task tags (fs.wrapper.trace.tags) to events
+   */
+  public TraceTags getTags() {
+    return tags;
+  }
+
+  public boolean recordFileSystemEvent(Logger logger, TraceOp op, long id, String address,
+      Object path, long contentLen, long timeInNanos) {
+    return recordFileSystemEvent(logger, op, id, address, path, contentLen, timeInNanos,
+        CallSiteTable.NO_CALL_SITE);
+  }
+
+  public boolean recordFileSystemEvent(Logger logger, TraceOp op, long id, String address,
+      Object path, long contentLen, long timeInNanos, int callSiteId) {
+    return recordFileSystemEvent(logger, op, id, address, path, contentLen, timeInNanos,
+        callSiteId, TraceTags.NO_TAGS);
+  }
+
+  public boolean recordFileSystemEvent(Logger logger, TraceOp op, long id, String address,
+      Object path, long contentLen, long timeInNanos, int callSiteId, int tagsId) {
+    return publish(TraceEvent.Kind.FILE_SYSTEM, true, logger, op, id, address, path, contentLen,
+        -1, -1, -1, -1, timeInNanos, callSiteId, tagsId, null);
+  }
+
+  public boolean recordStreamEvent(Logger logger, TraceOp op, long id, String address,
+      Object path, long contentLen, long oldPos, long newPos, long positionalRead, long read,
+      long timeInNanos, int callSiteId) {
+    return recordStreamEvent(logger, op, id, address, path, contentLen, oldPos, newPos,
+        positionalRead, read, timeInNanos, callSiteId, TraceTags.NO_TAGS);
+  }
+
+  public boolean recordStreamEvent(Logger logger, TraceOp op, long id, String address,
+      Object path, long contentLen, long oldPos, long newPos, long positionalRead, long read,
+      long timeInNanos, int callSiteId, int tagsId) {
+    return publish(TraceEvent.Kind.INPUT_STREAM, true, logger, op, id, address, path,
+        contentLen, oldPos, newPos, positionalRead, read, timeInNanos, callSiteId, tagsId, null);
+  }
+
+  /**
+   * Records the definition of a call site. These are not subject to the rate
+   * limit, since events referring to the call site would be useless without it.
+   */
+  boolean recordCallSite(Logger logger, int callSiteId, String frames) {
+    return publish(TraceEvent.Kind.CALL_SITE, false, logger, null, callSiteId, null, null, -1,
+        -1, -1, -1, -1, -1, callSiteId, TraceTags.NO_TAGS, frames);
+  }
+
+  private boolean publish(TraceEvent.Kind kind, boolean limited, Logger logger, TraceOp op,
+      long id, String address, Object path, long contentLen, long oldPos, long newPos,
+      long positionalRead, long read, long timeInNanos, int callSiteId, int tagsId, String msg) {
+    if (limited && rateLimit != null && !rateLimit.tryAcquire()) {
+      throttled.incrementAndGet();
+      return false;
+    }
+    long seq;
+    int slot;
+    while (true) {
+      seq = tail.get();
+      slot = (int) (seq & mask);
+      long slotSeq = sequences.get(slot);
+      if (slotSeq == seq) {
+        if (tail.compareAndSet(seq, seq + 1)) {
+          break;
+        }
+      } else if (slotSeq < seq) {
+        // drainer has not released this slot yet; buffer is full
+        dropped.incrementAndGet();
+        return false;
+      }
+      // some other producer claimed the slot, retry with the new tail
+    }
+    kinds[slot] = kind;
+    loggers[slot] = logger;
+    ops[slot] = op;
+    ids[slot] = id;
+    addresses[slot] = address;
+    paths[slot] = path;
+    contentLens[slot] = contentLen;
+    oldPositions[slot] = oldPos;
+    newPositions[slot] = newPos;
+    positionalReads[slot] = positionalRead;
+    bytes[slot] = read;
+    timesInNanos[slot] = timeInNanos;
+    timestamps[slot] = System.currentTimeMillis();
+    callSiteIds[slot] = callSiteId;
+    tagsIds[slot] = tagsId;
+    threadIds[slot] = Thread.currentThread().getId();
+    msgs[slot] = msg;
+    sequences.lazySet(slot, seq + 1);
+    return true;
+  }
+
+  /**
+   * Moves the next event into the given holder.
+   *
+   * @return false if there is nothing to drain
+   */
+  private boolean poll(TraceEvent event) {
+    int slot = (int) (head & mask);
+    if (sequences.get(slot) != head + 1) {
+      return false;
+    }
+    event.kind = kinds[slot];
+    event.logger = loggers[slot];
+    event.op = ops[slot];
+    event.id = ids[slot];
+    event.address = addresses[slot];
+    event.path = paths[slot];
+    event.contentLen = contentLens[slot];
+    event.oldPos = oldPositions[slot];
+    event.newPos = newPositions[slot];
+    event.positionalRead = positionalReads[slot];
+    event.bytes = bytes[slot];
+    event.timeInNanos = timesInNanos[slot];
+    event.timestamp = timestamps[slot];
+    event.callSiteId = callSiteIds[slot];
+    event.tagsId = tagsIds[slot];
+    event.tags = tags.get(tagsIds[slot]);
+    event.threadId = threadIds[slot];
+    event.msg = msgs[slot];
+    // do not keep paths and messages reachable from the buffer
+    loggers[slot] = null;
+    paths[slot] = null;
+    msgs[slot] = null;
+    sequences.lazySet(slot, head + capacity);
+    head++;
+    return true;
+  }
+
+  private void drainLoop() {
+    TraceEvent event = new TraceEvent();
+    while (true) {
+      boolean stopping = !running;
+      int drained = 0;
+      while (poll(event)) {
+        try {
+          sink.write(event);
+        } catch (Throwable t) {
+          LOG.warn("Unable to write trace event", t);
+        }
+        drained++;
+      }
+      reportDropped(stopping);
+      if (stopping) {
+        closeSink();
+        return;
+      }
+      if (drained == 0) {
+        try {
+          sink.flush();
+        } catch (Throwable t) {
+          LOG.warn("Unable to flush trace", t);
+        }
+        LockSupport.parkNanos(IDLE_PARK_NANOS);
+      }
+    }
+  }
+
+  private void closeSink() {
+    try {
+      sink.close();
+    } catch (Throwable t) {
+      LOG.warn("Unable to close trace", t);
+    }
+  }
+
+  private void reportDropped(boolean force) {
+    long current = dropped.get();
+    long currentThrottled = throttled.get();
+    long now = System.currentTimeMillis();
+    if ((current != reportedDropped || currentThrottled != reportedThrottled)
+        && (force || now - lastDropReportTime >= DROP_REPORT_INTERVAL_MS)) {
+      if (current != reportedDropped) {
+        LOG.warn("Trace buffer full; dropped " + (current - reportedDropped)
+            + " events (total dropped=" + current + ")");
+      }
+      if (currentThrottled != reportedThrottled) {
+        LOG.info("Trace rate limit reached; dropped " + (currentThrottled - reportedThrottled)
+            + " events (total throttled=" + currentThrottled + ")");
+      }
+      reportedDropped = current;
+      reportedThrottled = currentThrottled;
+      lastDropReportTime = now;
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Decides once per stream whether it gets traced, so that unsampled streams
+ * can skip tracing altogether.
+ * <pre>
+ * fs.wrapper.trace.sample.streams : trace 1 in N streams (default 1)
+ * fs.wrapper.trace.include.paths  : only trace paths matching this regex
+ * </pre>
+ */
+public class TraceSampler {
+
+  private final int sampleStreams;
+  private final Pattern includePaths;
+  private final AtomicLong candidates = new AtomicLong();
+
+  public TraceSampler(Configuration conf) {
+    this.sampleStreams = Math.max(1, conf.getInt(Constants.TRACE_SAMPLE_STREAMS,
+        Constants.DEFAULT_TRACE_SAMPLE_STREAMS));
+    String include = conf.getTrimmed(Constants.TRACE_INCLUDE_PATHS, "");
+    this.includePaths = include.isEmpty() ? null : Pattern.compile(include);
+  }
+
+  /**
+   * @return true if the stream (or file) on this path should be traced
+   */
+  public boolean sample(Path f) {
+    if (includePaths != null && !includePaths.matcher(f.toString()).find()) {
+      return false;
+    }
+    return sampleStreams == 1 || candidates.getAndIncrement() % sampleStreams == 0;
+  }
+
+  @Override
+  public String toString() {
+    return "TraceSampler{sampleStreams=" + sampleStreams + ", includePaths=" + includePaths + "}";
+  }
+}
@@ -0,0 +1,40 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination of the trace events drained by {@link TraceRecorder}.
+ * <p>
+ * All methods are called from the single drainer thread. The event passed to
+ * {@link #write(TraceEvent)} is reused, so implementations must copy whatever
+ * they want to keep.
+ */
+public interface TraceSink extends Closeable {
+
+  void write(TraceEvent event) throws IOException;
+
+  /**
+   * Called whenever the drainer runs out of events. Implementations can use
+   * this to push out buffered data.
+   */
+  void flush() throws IOException;
+}
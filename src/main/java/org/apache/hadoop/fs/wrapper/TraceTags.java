@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Interns the tags (query id, task attempt id etc) of the wrapper
+ * filesystems, so that every trace event only carries a small id.
+ * <p>
+ * The tags are the values of the keys in fs.wrapper.trace.tags, formatted as
+ * "key=value key=value". Every distinct set of tags is written to the trace
+ * once (as "tags_id,key=value ...") by the sink which first sees it; the
+ * events themselves carry tags_id.
+ * <p>
+ * Filesystems are cached per JVM, so the configuration they were initialized
+ * with only names the first task of a reused container. Streams therefore
+ * take their tags when they are opened or created, from (in this order)
+ * <ul>
+ *   <li>the tags set for the calling thread with {@link #setForThread},</li>
+ *   <li>the tags of the running task, set with {@link #setCurrent},</li>
+ *   <li>the configuration the filesystem was initialized with.</li>
+ * </ul>
+ * Tasks of reused containers call setCurrent with their configuration when
+ * they start; engines running several tasks at once use setForThread.
+ */
+public class TraceTags {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TraceTags.class);
+
+  public static final int NO_TAGS = 0;
+  public static final String PREFIX = "tags_";
+  public static final String THREAD_PREFIX = "thread_";
+
+  private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+  private final ConcurrentMap<Integer, String> tags = new ConcurrentHashMap<Integer, String>();
+  private int nextId = NO_TAGS + 1;
+  // tags of the running task, NO_TAGS until set
+  private volatile int current = NO_TAGS;
+  private final ThreadLocal<Integer> threadTags = new ThreadLocal<Integer>();
+
+  /**
+   * Tags all streams opened or created from now on with the fs.wrapper.trace.tags
+   * values of the given (task) configuration, unless the opening thread has
+   * tags of its own. A configuration without any of the keys clears them.
+   */
+  public static void setCurrent(Configuration conf) {
+    TraceTags tags = TraceRecorder.get(conf).getTags();
+    tags.current = tags.intern(conf);
+  }
+
+  /**
+   * Tags the streams the calling thread opens or creates from now on with the
+   * fs.wrapper.trace.tags values of the given configuration, until
+   * {@link #clearForThread()}.
+   */
+  public static void setForThread(Configuration conf) {
+    TraceTags tags = TraceRecorder.get(conf).getTags();
+    tags.threadTags.set(tags.intern(conf));
+  }
+
+  public static void clearForThread() {
+    TraceRecorder.get().getTags().threadTags.remove();
+  }
+
+  /**
+   * @param fallback tags to use when neither the thread nor the task set any,
+   *                 i.e those of the filesystem
+   * @return id of the tags in effect for the calling thread
+   */
+  public int resolve(int fallback) {
+    Integer thread = threadTags.get();
+    if (thread != null && thread != NO_TAGS) {
+      return thread;
+    }
+    int task = current;
+    return task != NO_TAGS ? task : fallback;
+  }
+
+  /**
+   * @return id of the tags found in the configuration, or {@link #NO_TAGS} if
+   * none of the fs.wrapper.trace.tags keys are set
+   */
+  public int intern(Configuration conf) {
+    StringBuilder sb = new StringBuilder();
+    for (String key : conf.getTrimmedStrings(Constants.TRACE_TAGS,
+        Constants.DEFAULT_TRACE_TAGS)) {
+      String value = conf.getTrimmed(key);
+      if (value != null && !value.isEmpty()) {
+        if (sb.length() > 0) {
+          sb.append(' ');
+        }
+        // keep the trace line parseable
+        sb.append(key).append('=').append(value.replace(',', '_').replace(' ', '_'));
+      }
+    }
+    return sb.length() == 0 ? NO_TAGS : intern(sb.toString());
+  }
+
+  public int intern(String value) {
+    Integer id = ids.get(value);
+    if (id == null) {
+      synchronized (this) {
+        id = ids.get(value);
+        if (id == null) {
+          id = nextId++;
+          tags.put(id, value);
+          ids.put(value, id);
+        }
+      }
+    }
+    return id;
+  }
+
+  /**
+   * @return tags with the given id, or null if unknown
+   */
+  public String get(int id) {
+    return id == NO_TAGS ? null : tags.get(id);
+  }
+
+  /**
+   * @return logger the tag definitions are logged with
+   */
+  static Logger getLogger() {
+    return LOG;
+  }
+}
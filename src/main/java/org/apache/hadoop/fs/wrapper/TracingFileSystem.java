@@ -0,0 +1,662 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import com.google.common.base.Throwables;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.util.Progressable;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+
+/**
+ * Wrapper which traces all FS calls of the filesystem it delegates to.
+ * <p>
+ * Used as is, the delegate is picked from the configuration by the scheme of
+ * the filesystem URI, so any Hadoop filesystem can be traced. e.g
+ * <pre>
+ *   fs.hdfs.impl=org.apache.hadoop.fs.wrapper.TracingFileSystem
+ *   fs.wrapper.hdfs.target.impl=org.apache.hadoop.hdfs.DistributedFileSystem
+ *
+ *   fs.file.impl=org.apache.hadoop.fs.wrapper.TracingFileSystem
+ *   fs.wrapper.file.target.impl=org.apache.hadoop.fs.LocalFileSystem
+ * </pre>
+ * The store specific wrappers (e.g S3AWrapperFileSystem) pass their delegate
+ * to the constructor instead.
+ * <p>
+ * Trace lines are logged with the logger of the concrete class, so that
+ * "grep S3AWrapper" style filtering keeps working.
+ */
+public class TracingFileSystem extends FileSystem {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TracingFileSystem.class);
+
+  public static final String TARGET_IMPL_PREFIX = "fs.wrapper.";
+  public static final String TARGET_IMPL_SUFFIX = ".target.impl";
+
+  protected static final String PRINT_STACK_TRACE = "fs.wrapper.stacktrace";
+
+  private final Logger traceLog = LoggerFactory.getLogger(getClass());
+  protected FileSystem realFS;
+  protected final String address;
+  protected boolean printStackTrace;
+  private TraceRecorder recorder;
+  private TraceSampler sampler;
+  private WrapperMetrics metrics;
+  private StreamRegistry streams;
+  // tags of the initialize configuration; streams resolve theirs when opened
+  private int tagsId;
+  private boolean adaptiveReadahead;
+  private int readaheadMin;
+  private int readaheadMax;
+  private int seekWindowSize;
+  private int seekSkipThreshold;
+  private TailCache tailCache;
+  private BlockCache blockCache;
+  private int vectoredMaxGap;
+  private int vectoredMaxMergedSize;
+  private int vectoredMaxStreams;
+  private int readThreads;
+  private int parallelStreamsMax;
+  private boolean lazyOpen;
+  private StreamPool streamPool;
+  private int splitReadThreshold;
+  private int splitReadPartSize;
+  private HedgedReads hedgedReads;
+  private int smallReadBufferSize;
+  private int smallReadThreshold;
+  private long writeBatchSize;
+  // null if disabled
+  private MultipartUploader multipartUploader;
+  private int multipartPartSize;
+  private int multipartBuffers;
+  private int multipartThreads;
+  // null if disabled
+  private TreeOperations treeOperations;
+  // null if disabled
+  private FileStatusCache statusCache;
+
+  public TracingFileSystem() {
+    this(null);
+  }
+
+  /**
+   * @param realFS filesystem to delegate to. If null, it is created in
+   *               {@link #initialize(URI, Configuration)} from
+   *               fs.wrapper.&lt;scheme&gt;.target.impl
+   */
+  protected TracingFileSystem(FileSystem realFS) {
+    super();
+    this.realFS = realFS;
+    String localAddress = null;
+    try {
+      localAddress = InetAddress.getLocalHost().getHostAddress();
+    } catch (UnknownHostException e) {
+      //ignore
+    }
+    this.address = localAddress;
+  }
+
+  /**
+   * @return key which names the delegate class for the given scheme
+   */
+  public static String getTargetImplKey(String scheme) {
+    return TARGET_IMPL_PREFIX + scheme + TARGET_IMPL_SUFFIX;
+  }
+
+  @Override
+  public URI getUri() {
+    return realFS.getUri();
+  }
+
+  @Override
+  public void initialize(URI name, Configuration conf) throws IOException {
+    printStackTrace = conf.getBoolean(PRINT_STACK_TRACE, false);
+    recorder = TraceRecorder.get(conf);
+    sampler = new TraceSampler(conf);
+    tagsId = recorder.getTags().intern(conf);
+    adaptiveReadahead = conf.getBoolean(Constants.READAHEAD_ADAPTIVE,
+        Constants.DEFAULT_READAHEAD_ADAPTIVE);
+    readaheadMin = conf.getInt(Constants.READAHEAD_MIN, Constants.DEFAULT_READAHEAD_MIN);
+    readaheadMax = conf.getInt(Constants.READAHEAD_MAX, Constants.DEFAULT_READAHEAD_MAX);
+    seekWindowSize = conf.getInt(Constants.SEEK_WINDOW_SIZE, Constants.DEFAULT_SEEK_WINDOW_SIZE);
+    seekSkipThreshold = conf.getInt(Constants.SEEK_SKIP_THRESHOLD,
+        Constants.DEFAULT_SEEK_SKIP_THRESHOLD);
+    tailCache = TailCache.get(conf);
+    blockCache = MemoryBlockCache.get(conf);
+    if (blockCache == null) {
+      blockCache = DiskBlockCache.get(conf);
+    }
+    vectoredMaxGap = conf.getInt(Constants.VECTORED_MAX_GAP, Constants.DEFAULT_VECTORED_MAX_GAP);
+    vectoredMaxMergedSize = conf.getInt(Constants.VECTORED_MAX_MERGED_SIZE,
+        Constants.DEFAULT_VECTORED_MAX_MERGED_SIZE);
+    vectoredMaxStreams = conf.getInt(Constants.VECTORED_MAX_STREAMS,
+        Constants.DEFAULT_VECTORED_MAX_STREAMS);
+    readThreads = conf.getInt(Constants.READ_THREADS, Constants.DEFAULT_READ_THREADS);
+    parallelStreamsMax = conf.getInt(Constants.PARALLEL_STREAMS_MAX,
+        Constants.DEFAULT_PARALLEL_STREAMS_MAX);
+    lazyOpen = conf.getBoolean(Constants.LAZY_OPEN, Constants.DEFAULT_LAZY_OPEN);
+    int streamPoolSize = conf.getInt(Constants.STREAM_POOL_SIZE,
+        Constants.DEFAULT_STREAM_POOL_SIZE);
+    if (streamPoolSize > 0) {
+      streamPool = new StreamPool(streamPoolSize, conf.getLong(Constants.STREAM_POOL_IDLE_MS,
+          Constants.DEFAULT_STREAM_POOL_IDLE_MS));
+    }
+    splitReadThreshold = conf.getInt(Constants.SPLIT_READ_THRESHOLD,
+        Constants.DEFAULT_SPLIT_READ_THRESHOLD);
+    splitReadPartSize = conf.getInt(Constants.SPLIT_READ_PART_SIZE,
+        Constants.DEFAULT_SPLIT_READ_PART_SIZE);
+    smallReadBufferSize = conf.getInt(Constants.SMALL_READ_BUFFER_SIZE,
+        Constants.DEFAULT_SMALL_READ_BUFFER_SIZE);
+    smallReadThreshold = conf.getInt(Constants.SMALL_READ_THRESHOLD,
+        Constants.DEFAULT_SMALL_READ_THRESHOLD);
+    writeBatchSize = conf.getLong(Constants.WRITE_BATCH_SIZE, Constants.DEFAULT_WRITE_BATCH_SIZE);
+    long statusCacheTtl = conf.getLong(Constants.STATUS_CACHE_TTL_MS,
+        Constants.DEFAULT_STATUS_CACHE_TTL_MS);
+    if (statusCacheTtl > 0) {
+      statusCache = new FileStatusCache(statusCacheTtl, conf.getInt(
+          Constants.STATUS_CACHE_MAX_ENTRIES, Constants.DEFAULT_STATUS_CACHE_MAX_ENTRIES));
+    }
+    metrics = WrapperMetrics.get(conf, name.getScheme());
+    hedgedReads = HedgedReads.get(conf);
+    if (metrics != null) {
+      metrics.setTags(recorder.getTags(), tagsId);
+    }
+    streams = StreamRegistry.get(conf);
+    if (printStackTrace) {
+      traceLog.info("initialize.." + Throwables.getStackTraceAsString(new Exception()));
+    }
+    if (realFS == null) {
+      realFS = createTargetFileSystem(name, conf);
+    }
+    realFS.initialize(name, conf);
+    if (conf.getBoolean(Constants.MULTIPART_ENABLED, Constants.DEFAULT_MULTIPART_ENABLED)) {
+      multipartUploader = createMultipartUploader(name, conf);
+      multipartPartSize = conf.getInt(Constants.MULTIPART_PART_SIZE,
+          Constants.DEFAULT_MULTIPART_PART_SIZE);
+      if (multipartUploader != null && multipartPartSize < multipartUploader.getMinPartSize()) {
+        // the store would only reject the parts once the whole file is uploaded
+        LOG.warn(Constants.MULTIPART_PART_SIZE + "=" + multipartPartSize + " is below the "
+            + multipartUploader.getMinPartSize() + " bytes of " + name + ", using the latter");
+        multipartPartSize = multipartUploader.getMinPartSize();
+      }
+      multipartBuffers = conf.getInt(Constants.MULTIPART_BUFFERS,
+          Constants.DEFAULT_MULTIPART_BUFFERS);
+      multipartThreads = conf.getInt(Constants.MULTIPART_THREADS,
+          Constants.DEFAULT_MULTIPART_THREADS);
+    }
+    if (conf.getBoolean(Constants.TREE_PARALLEL_ENABLED, Constants.DEFAULT_TREE_PARALLEL_ENABLED)) {
+      treeOperations = ReflectionUtils.newInstance(getTreeOperationsClass(), conf);
+      treeOperations.initialize(realFS, conf);
+      treeOperations.setTraceLog(traceLog);
+    }
+  }
+
+  private MultipartUploader createMultipartUploader(URI name, Configuration conf)
+      throws IOException {
+    Class<? extends MultipartUploader> clazz = conf.getClass(Constants.MULTIPART_UPLOADER_CLASS,
+        getDefaultMultipartUploader(), MultipartUploader.class);
+    if (clazz == null) {
+      LOG.warn("No multipart uploads for " + name + "; set " + Constants.MULTIPART_UPLOADER_CLASS);
+      return null;
+    }
+    MultipartUploader uploader = ReflectionUtils.newInstance(clazz, conf);
+    uploader.initialize(realFS, conf);
+    return uploader;
+  }
+
+  /**
+   * @return uploader used when fs.wrapper.multipart.enabled is set and no
+   * fs.wrapper.multipart.uploader.class is given; null if the delegate has none
+   */
+  protected Class<? extends MultipartUploader> getDefaultMultipartUploader() {
+    return null;
+  }
+
+  /**
+   * @return implementation of the parallel directory rename and delete of
+   * fs.wrapper.tree.parallel.enabled; store specific wrappers return one
+   * which uses the bulk operations of the store
+   */
+  protected Class<? extends TreeOperations> getTreeOperationsClass() {
+    return TreeOperations.class;
+  }
+
+  private FileSystem createTargetFileSystem(URI name, Configuration conf) throws IOException {
+    String key = getTargetImplKey(name.getScheme());
+    Class<? extends FileSystem> clazz = conf.getClass(key, null, FileSystem.class);
+    if (clazz == null) {
+      throw new IOException("No filesystem to trace for " + name + "; set " + key);
+    }
+    if (TracingFileSystem.class.isAssignableFrom(clazz)) {
+      throw new IOException(key + "=" + clazz.getName() + " would trace itself");
+    }
+    LOG.info("Tracing " + name.getScheme() + " with " + clazz.getName());
+    return ReflectionUtils.newInstance(clazz, conf);
+  }
+
+  @Override
+  public FSDataInputStream open(final Path f, final int bufferSize) throws IOException {
+    final FileStatus fileStatus = fileStatus(f);
+    final boolean traced = sampler.sample(f);
+    StreamOpener opener = new StreamOpener() {
+      @Override
+      public FSDataInputStream open() throws IOException {
+        return realFS.open(f, bufferSize);
+      }
+    };
+    FileVersion key = new FileVersion(fileStatus.getPath().toString(),
+        fileStatus.getLen(), fileStatus.getModificationTime());
+    long startTime = System.nanoTime();
+    FSDataInputStream rs = (streamPool == null) ? null : streamPool.take(key);
+    boolean reused = rs != null;
+    if (!reused) {
+      rs = lazyOpen ? new FSDataInputStream(new LazyOpenStream(opener, f))
+          : realFS.open(f, bufferSize);
+    }
+    long endTime = System.nanoTime();
+    if (reused || !lazyOpen) {
+      // a lazy open is recorded by the stream once it happens
+      record(WrapperMetrics.Op.OPEN, (endTime - startTime));
+    }
+    if (traced) {
+      log(f, TraceOp.OPEN, fileStatus.getLen(), (endTime - startTime));
+    }
+    FSInputStream in = createInputStream(rs, f, fileStatus.getLen(), traced);
+    if (in instanceof TracingInputStream) {
+      TracingInputStream tin = (TracingInputStream) in;
+      tin.setMetrics(metrics);
+      tin.setTagsId(recorder.getTags().resolve(tagsId));
+      if (blockCache != null) {
+        // blocks are read ahead as a whole already
+        tin.setBlockCache(blockCache, key);
+      } else if (adaptiveReadahead) {
+        tin.enableReadahead(readaheadMin, readaheadMax, seekWindowSize, seekSkipThreshold);
+      }
+      if (tailCache != null) {
+        tin.setTailCache(tailCache, key);
+      }
+      tin.setVectoredRead(vectoredMaxGap, vectoredMaxMergedSize);
+      tin.setSplitRead(splitReadThreshold, splitReadPartSize);
+      tin.setSmallReadBuffer(smallReadBufferSize, smallReadThreshold);
+      if (vectoredMaxStreams > 0) {
+        tin.enableParallelReads(opener, ReadExecutor.get(readThreads), vectoredMaxStreams,
+            ParallelStreamLimit.get(parallelStreamsMax));
+        if (hedgedReads != null) {
+          tin.enableHedgedReads(hedgedReads);
+        }
+      }
+      if (streamPool != null) {
+        tin.setStreamPool(streamPool, key, rs);
+      }
+      if (reused) {
+        // moved lazily when readahead or block cache own the position, so a
+        // read near where the previous reader left it keeps its connection
+        tin.seek(0);
+      }
+      if (streams != null) {
+        int callSite = printStackTrace ? recorder.getCallSites().capture()
+            : CallSiteTable.NO_CALL_SITE;
+        tin.setRegistration(streams.register(tin, getUri().toString(), f, callSite));
+      }
+    } else if (reused) {
+      rs.seek(0);
+    }
+    return new FSDataInputStream(in);
+  }
+
+  /**
+   * Wraps the stream opened by the delegate. Store specific wrappers override
+   * this to use their own stream class (and logger).
+   */
+  protected FSInputStream createInputStream(FSDataInputStream in, Path f, long contentLen,
+      boolean traced) throws IOException {
+    return new TracingInputStream(in, f, contentLen, address, printStackTrace, traced);
+  }
+
+  @Override
+  public FSDataOutputStream create(Path f, FsPermission permission, boolean overwrite,
+      int bufferSize, short replication, long blockSize, Progressable progress) throws IOException {
+    long startTime = System.nanoTime();
+    FSDataOutputStream out;
+    try {
+      out = (multipartUploader != null) ? createMultipart(f, overwrite)
+          : realFS.create(f, permission, overwrite, bufferSize, replication, blockSize, progress);
+    } finally {
+      invalidate(f);
+    }
+    long endTime = System.nanoTime();
+    record(WrapperMetrics.Op.CREATE, (endTime - startTime));
+    boolean traced = sampler.sample(f);
+    if (traced) {
+      log(f, TraceOp.CREATE, 0, (endTime - startTime));
+    }
+    return createOutputStream(out, f, traced);
+  }
+
+  /**
+   * Creates the file with a {@link MultipartOutputStream}. Like create() of
+   * the object stores, fails if the path is a directory, or if the file
+   * exists and overwrite is false; parent directories are not created.
+   */
+  private FSDataOutputStream createMultipart(Path f, boolean overwrite) throws IOException {
+    Path path = realFS.makeQualified(f);
+    FileStatus status = null;
+    try {
+      status = realFS.getFileStatus(path);
+    } catch (FileNotFoundException e) {
+      //created below
+    }
+    if (status != null && status.isDirectory()) {
+      throw new FileAlreadyExistsException(path + " is a directory");
+    }
+    if (status != null && !overwrite) {
+      throw new FileAlreadyExistsException(path + " already exists");
+    }
+    MultipartOutputStream out = new MultipartOutputStream(multipartUploader, path,
+        multipartPartSize, multipartBuffers, MultipartOutputStream.getExecutor(multipartThreads));
+    if (statusCache != null) {
+      out.invalidateOnClose(statusCache);
+    }
+    // counted in the statistics of the delegate, as its own streams are
+    return new FSDataOutputStream(out,
+        FileSystem.getStatistics(path.toUri().getScheme(), realFS.getClass()));
+  }
+
+  /**
+   * Wraps the output stream created by the delegate in a
+   * {@link TracingOutputStream}, unless there is nothing to record and no
+   * cached status to drop on close.
+   */
+  protected FSDataOutputStream createOutputStream(FSDataOutputStream out, Path f,
+      boolean traced) throws IOException {
+    if (!traced && metrics == null && statusCache == null) {
+      return out;
+    }
+    TracingOutputStream tout = new TracingOutputStream(out, f, out.getPos(), address, traced,
+        writeBatchSize);
+    if (statusCache != null) {
+      // the length and modification time only settle once the file is closed
+      tout.invalidateOnClose(statusCache, makeQualified(f));
+    }
+    tout.setMetrics(metrics);
+    tout.setTagsId(recorder.getTags().resolve(tagsId));
+    // bytes written are counted in the statistics of the delegate already
+    return new FSDataOutputStream(tout, null, out.getPos());
+  }
+
+  @Override
+  public void close() throws IOException {
+    //prints statistics if available
+    traceLog.info(realFS.toString());
+    if (statusCache != null) {
+      traceLog.info(statusCache.toString());
+    }
+    if (streamPool != null) {
+      traceLog.info(streamPool.toString());
+      streamPool.close();
+    }
+    if (hedgedReads != null) {
+      traceLog.info(hedgedReads.toString());
+    }
+    super.close();
+  }
+
+  @Override
+  public FSDataOutputStream append(Path f, int bufferSize, Progressable progress)
+      throws IOException {
+    long startTime = System.nanoTime();
+    FSDataOutputStream out;
+    try {
+      out = realFS.append(f, bufferSize, progress);
+    } finally {
+      invalidate(f);
+    }
+    long endTime = System.nanoTime();
+    record(WrapperMetrics.Op.APPEND, (endTime - startTime));
+    boolean traced = sampler.sample(f);
+    if (traced) {
+      log(f, TraceOp.APPEND, out.getPos(), (endTime - startTime));
+    }
+    return createOutputStream(out, f, traced);
+  }
+
+  @Override
+  public boolean rename(Path src, Path dst) throws IOException {
+    traceLog.info("rename src=" + src + " to dest=" + dst);
+    long startTime = System.nanoTime();
+    TreeTrace trace = sampler.sample(src) ? new TreeTrace(src, TraceOp.RENAME, startTime) : null;
+    boolean result;
+    try {
+      result = (treeOperations != null) ? treeOperations.rename(src, dst, trace)
+          : realFS.rename(src, dst);
+    } finally {
+      invalidate(src);
+      invalidate(dst);
+    }
+    long endTime = System.nanoTime();
+    record(WrapperMetrics.Op.RENAME, (endTime - startTime));
+    if (trace != null) {
+      trace.end(endTime);
+    }
+    return result;
+  }
+
+  @Override
+  public boolean delete(Path f, boolean recursive) throws IOException {
+    traceLog.info("delete src=" + f + " recursive=" + recursive);
+    long startTime = System.nanoTime();
+    TreeTrace trace = sampler.sample(f) ? new TreeTrace(f, TraceOp.DELETE, startTime) : null;
+    boolean result;
+    try {
+      result = (treeOperations != null && recursive) ? treeOperations.delete(f, trace)
+          : realFS.delete(f, recursive);
+    } finally {
+      invalidate(f);
+    }
+    long endTime = System.nanoTime();
+    record(WrapperMetrics.Op.DELETE, (endTime - startTime));
+    if (trace != null) {
+      trace.end(endTime);
+    }
+    return result;
+  }
+
+  @Override
+  public FileStatus[] listStatus(Path f) throws FileNotFoundException, IOException {
+    if (!printStackTrace && metrics == null) {
+      return cache(realFS.listStatus(f));
+    }
+    int callSite = printStackTrace ? recorder.getCallSites().capture() : CallSiteTable.NO_CALL_SITE;
+    long startTime = System.nanoTime();
+    FileStatus[] result = cache(realFS.listStatus(f));
+    long endTime = System.nanoTime();
+    record(WrapperMetrics.Op.LIST_STATUS, (endTime - startTime));
+    if (printStackTrace) {
+      log(f, TraceOp.LIST_STATUS, 0, (endTime - startTime), callSite);
+    }
+    return result;
+  }
+
+  @Override
+  public void setWorkingDirectory(Path new_dir) {
+    realFS.setWorkingDirectory(new_dir);
+  }
+
+  @Override
+  public Path getWorkingDirectory() {
+    return realFS.getWorkingDirectory();
+  }
+
+  @Override
+  public boolean mkdirs(Path f, FsPermission permission) throws IOException {
+    if (!printStackTrace && metrics == null) {
+      try {
+        return realFS.mkdirs(f, permission);
+      } finally {
+        invalidate(f);
+      }
+    }
+    int callSite = printStackTrace ? recorder.getCallSites().capture() : CallSiteTable.NO_CALL_SITE;
+    long startTime = System.nanoTime();
+    boolean result;
+    try {
+      result = realFS.mkdirs(f, permission);
+    } finally {
+      invalidate(f);
+    }
+    long endTime = System.nanoTime();
+    record(WrapperMetrics.Op.MKDIRS, (endTime - startTime));
+    if (printStackTrace) {
+      log(f, TraceOp.MKDIRS, 0, (endTime - startTime), callSite);
+    }
+    return result;
+  }
+
+  @Override
+  public FileStatus getFileStatus(Path f) throws IOException {
+    if (!printStackTrace && metrics == null) {
+      return fileStatus(f);
+    }
+    int callSite = printStackTrace ? recorder.getCallSites().capture() : CallSiteTable.NO_CALL_SITE;
+    long startTime = System.nanoTime();
+    FileStatus result = fileStatus(f);
+    long endTime = System.nanoTime();
+    record(WrapperMetrics.Op.GET_FILE_STATUS, (endTime - startTime));
+    if (printStackTrace) {
+      log(f, TraceOp.GET_FILE_STATUS, result.getLen(), (endTime - startTime), callSite);
+    }
+    return result;
+  }
+
+  /**
+   * @return status of the path, from the FileStatus cache if possible
+   */
+  private FileStatus fileStatus(Path f) throws IOException {
+    if (statusCache == null) {
+      return realFS.getFileStatus(f);
+    }
+    FileStatus status = statusCache.get(makeQualified(f));
+    if (status == null) {
+      status = realFS.getFileStatus(f);
+      statusCache.put(status);
+    }
+    return status;
+  }
+
+  // listLocatedStatus ends up here as well
+  private FileStatus[] cache(FileStatus[] statuses) {
+    if (statusCache != null) {
+      statusCache.putAll(statuses);
+    }
+    return statuses;
+  }
+
+  /**
+   * Drops the cached status of a path (and of everything below it) the
+   * wrapper changed. Called once the change is made, so that a status looked
+   * up while it was made is not kept. The parent goes too, as object stores
+   * report whether a directory is empty in its status.
+   */
+  private void invalidate(Path f) {
+    if (statusCache != null) {
+      Path path = makeQualified(f);
+      statusCache.invalidate(path, true);
+      if (path.getParent() != null) {
+        statusCache.invalidate(path.getParent(), false);
+      }
+    }
+  }
+
+  private void record(WrapperMetrics.Op op, long timeInNanos) {
+    if (metrics != null) {
+      metrics.record(op, timeInNanos);
+    }
+  }
+
+  //Format: hashCode_hashcode, address, filePath, operation, fileLen, timeInNanos
+  protected void log(Path f, TraceOp op, long contentLen, long timeInNanos) {
+    log(f, op, contentLen, timeInNanos, CallSiteTable.NO_CALL_SITE);
+  }
+
+  // callSite is appended as callSite_id when present
+  protected void log(Path f, TraceOp op, long contentLen, long timeInNanos, int callSite) {
+    recorder.recordFileSystemEvent(traceLog, op, hashCode(), address, f, contentLen, timeInNanos,
+        callSite, recorder.getTags().resolve(tagsId));
+  }
+
+  /**
+   * Traces a rename or recursive delete: a line per progress report of the
+   * parallel plan and one at the end, each with the files and the time since
+   * the previous line, so that they add up to the whole operation.
+   */
+  private final class TreeTrace implements TreeOperations.Progress {
+    private final Path path;
+    private final TraceOp op;
+    // end of the previous line
+    private long lineTime;
+    // -1 until the plan reports
+    private long files = -1;
+    private long tracedFiles;
+
+    TreeTrace(Path path, TraceOp op, long startTime) {
+      this.path = path;
+      this.op = op;
+      this.lineTime = startTime;
+    }
+
+    @Override
+    public synchronized void progress(long files) {
+      // reports of concurrent tasks may come out of order
+      if (files > this.files) {
+        this.files = files;
+        line(System.nanoTime());
+      }
+    }
+
+    @Override
+    public synchronized void done(long files) {
+      this.files = files;
+    }
+
+    synchronized void end(long endTime) {
+      line(endTime);
+    }
+
+    private void line(long time) {
+      log(path, op, (files < 0) ? -1 : files - tracedFiles, time - lineTime);
+      lineTime = time;
+      tracedFiles = Math.max(0, files);
+    }
+  }
+}
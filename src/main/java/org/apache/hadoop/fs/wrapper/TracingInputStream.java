@@ -0,0 +1,1598 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import com.google.common.base.Preconditions;
+import org.apache.hadoop.fs.ByteBufferReadable;
+import org.apache.hadoop.fs.CanSetReadahead;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PositionedReadable;
+import org.apache.hadoop.fs.Seekable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Wrapper which traces all read calls of the stream it delegates to, in the
+ * following format
+ * <p>
+ * hashCode_&lt;hashCode&gt;, address, fileName, operation, contentLengthOfFile,
+ * positionBeforeRead, positionAfterRead, positionalSeekLoc, bytesRead, timeTakenInNanos, msg,
+ * thread_&lt;threadId&gt;[, tags_&lt;tagsId&gt;]
+ * <p>
+ * The delegate can be any stream which is {@link Seekable} and
+ * {@link PositionedReadable} (e.g the FSDataInputStream of any filesystem).
+ * Trace lines are logged with the logger of the concrete class.
+ * <p>
+ * A delegate which is opened lazily ({@link LazyOpenStream}) is opened by the
+ * first read that needs it; the open is then logged as a lazyOpen line of its
+ * own and not accounted to that read.
+ * <p>
+ * Streams which were not sampled (see {@link TraceSampler}) are not logged;
+ * their calls are only timed for {@link WrapperMetrics}, or passed straight
+ * through when metrics are disabled.
+ * <p>
+ * {@link #readVectored(List)} reads a list of ranges at once; nearby ranges
+ * are coalesced and the remaining reads are issued in parallel.
+ * <p>
+ * With {@link HedgedReads} a positional read which is slower than usual is
+ * issued a second time on another stream of the file, and the first read to
+ * complete wins.
+ * <p>
+ * Reads into ByteBuffers ({@link ByteBufferReadable} and
+ * {@link #read(long, ByteBuffer)}) are traced like byte[] reads. Direct
+ * buffers are filled from the tail, block and readahead buffers by bulk
+ * copies, and straight from the delegate when it is ByteBufferReadable.
+ */
+public class TracingInputStream extends FSInputStream
+    implements ByteBufferReadable, CanSetReadahead {
+
+  private static final int LOAD_CHUNK_SIZE = 256 * 1024;
+  private static final Object GIVEN_UP = new Object();
+  private static final int READ_SCRATCH_SIZE = 64 * 1024;
+  private static final ThreadLocal<byte[]> LOAD_CHUNK = new ThreadLocal<byte[]>() {
+    @Override
+    protected byte[] initialValue() {
+      return new byte[LOAD_CHUNK_SIZE];
+    }
+  };
+
+  private final Logger traceLog = LoggerFactory.getLogger(getClass());
+
+  private final InputStream realStream;
+  private final Seekable seekable;
+  private final PositionedReadable positionedReadable;
+  private final boolean byteBufferReadable;
+  // delegate if it is opened on the first read, else null
+  private final LazyOpenStream lazyOpen;
+  private volatile boolean closed;
+
+  private final Path f;
+  private final long contentLen;
+  private final String address;
+  private final boolean printStackTrace;
+  private final boolean traced;
+  private final TraceRecorder recorder;
+  private WrapperMetrics metrics;
+  private StreamRegistry.Registration registration;
+  private int tagsId = TraceTags.NO_TAGS;
+  // null unless enabled through enableReadahead; reads then go through it and
+  // the position of this stream is tracked here, independent of the delegate
+  private AdaptiveReadahead readahead;
+  private long pos;
+  private final byte[] oneByte = new byte[1];
+  private TailCache tailCache;
+  private FileVersion tailKey;
+  // tail of this file once it is known to be cached
+  private TailCache.Tail tail;
+  private boolean tailLookedUp;
+  // null unless set through setBlockCache; reads are then served in blocks
+  // from it and the position is tracked here as with the readahead
+  private BlockCache blockCache;
+  private FileVersion blockKey;
+  private BlockCache.Loader blockLoader;
+  private int vectoredMaxGap = Constants.DEFAULT_VECTORED_MAX_GAP;
+  private int vectoredMaxMergedSize = Constants.DEFAULT_VECTORED_MAX_MERGED_SIZE;
+  // null unless enabled through enableParallelReads; vectored reads are then
+  // done one range after the other on this stream
+  private StreamOpener opener;
+  private ExecutorService executor;
+  private int maxStreams;
+  // JVM wide permits, one per open additional stream
+  private Semaphore streamPermits;
+  // readFully of at least splitThreshold bytes is split into parts of at
+  // least splitPartSize read in parallel; 0 disables it
+  private int splitThreshold;
+  private int splitPartSize;
+  // idle additional streams of the file for parallel reads; guarded by itself
+  private final Deque<FSDataInputStream> parallelStreams = new ArrayDeque<FSDataInputStream>();
+  private boolean parallelStreamsClosed;
+  // where the delegate goes on close instead of being closed, if set
+  private StreamPool streamPool;
+  private FileVersion poolKey;
+  private FSDataInputStream pooled;
+  // null unless slow positional reads are hedged
+  private HedgedReads hedgedReads;
+  // hedged reads running on the delegate in the background; one which lost
+  // may still be running when this stream is closed
+  private final AtomicInteger backgroundReads = new AtomicInteger();
+  // where positional reads which go straight to the remote store are done:
+  // the delegate, or the stream of the last hedge which won, so that they do
+  // not queue behind the read it won against
+  private volatile PreadStream preads;
+  // staging buffer of the last hedged read whose first read won, for reuse
+  private final AtomicReference<byte[]> hedgeStaging = new AtomicReference<byte[]>();
+  // direct buffers are read from a delegate without ByteBuffer reads through
+  // this array, at most READ_SCRATCH_SIZE bytes at a time
+  private final AtomicReference<byte[]> readScratch = new AtomicReference<byte[]>();
+  // read() and sequential reads shorter than smallReadThreshold are served
+  // from smallReadBuffer; it holds the smallReadLen bytes before the position
+  // of the stream underneath, of which [smallReadPos, smallReadLen) are unread
+  private int smallReadSize;
+  private int smallReadThreshold;
+  private byte[] smallReadBuffer;
+  private int smallReadPos;
+  private int smallReadLen;
+
+  /**
+   * @param traced false if this stream was not sampled; reads are then not
+   *               logged
+   */
+  public TracingInputStream(InputStream in, Path f, long contentLen,
+      String address, boolean printStackTrace, boolean traced) {
+    Preconditions.checkArgument(in instanceof Seekable && in instanceof PositionedReadable,
+        "Not a seekable and positioned readable stream; " + in.getClass());
+    this.realStream = in;
+    this.seekable = (Seekable) in;
+    this.positionedReadable = (PositionedReadable) in;
+    this.byteBufferReadable = isByteBufferReadable(in);
+    InputStream unwrapped = (in instanceof FSDataInputStream)
+        ? ((FSDataInputStream) in).getWrappedStream() : in;
+    this.lazyOpen = (unwrapped instanceof LazyOpenStream) ? (LazyOpenStream) unwrapped : null;
+    this.f = f;
+    this.contentLen = contentLen;
+    this.address = address;
+    this.printStackTrace = printStackTrace;
+    this.traced = traced;
+    this.recorder = TraceRecorder.get();
+    this.preads = new PreadStream(positionedReadable, null);
+  }
+
+  /**
+   * FSDataInputStream is ByteBufferReadable, but only supports it when the
+   * stream it wraps does.
+   */
+  static boolean isByteBufferReadable(InputStream in) {
+    if (in instanceof FSDataInputStream) {
+      return isByteBufferReadable(((FSDataInputStream) in).getWrappedStream());
+    }
+    return in instanceof ByteBufferReadable;
+  }
+
+  /**
+   * @return the stream this wrapper delegates to
+   */
+  protected InputStream getWrappedStream() {
+    return realStream;
+  }
+
+  public Path getPath() {
+    return f;
+  }
+
+  /**
+   * @param metrics where latencies of all reads (traced or not) are recorded.
+   *                May be null.
+   */
+  void setMetrics(WrapperMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * @param tagsId tags in effect when the stream was opened, see {@link TraceTags}
+   */
+  void setTagsId(int tagsId) {
+    this.tagsId = tagsId;
+  }
+
+  /**
+   * @param registration entry of this stream in the {@link StreamRegistry},
+   *                     removed again on close. May be null.
+   */
+  void setRegistration(StreamRegistry.Registration registration) {
+    this.registration = registration;
+  }
+
+  /**
+   * @param tailCache cache of file tails positional reads are served from
+   * @param key       identifies this version of the file in the cache
+   */
+  void setTailCache(TailCache tailCache, FileVersion key) {
+    this.tailCache = tailCache;
+    this.tailKey = key;
+  }
+
+  /**
+   * Reads through a {@link BlockCache} from now on. Has to be called before
+   * the first read.
+   *
+   * @param key identifies this version of the file in the cache
+   */
+  synchronized void setBlockCache(BlockCache blockCache, FileVersion key) throws IOException {
+    this.pos = seekable.getPos();
+    this.blockCache = blockCache;
+    this.blockKey = key;
+    this.blockLoader = loader(positionedReadable);
+  }
+
+  private static BlockCache.Loader loader(final PositionedReadable in) {
+    return new BlockCache.Loader() {
+      @Override
+      public void load(long position, ByteBuffer dst) throws IOException {
+        if (dst.hasArray()) {
+          in.readFully(position, dst.array(), dst.arrayOffset() + dst.position(),
+              dst.remaining());
+          dst.position(dst.limit());
+          return;
+        }
+        // positional reads go to arrays only; blocks loaded into direct memory
+        // are read in chunks small enough not to be humongous objects
+        byte[] chunk = LOAD_CHUNK.get();
+        while (dst.hasRemaining()) {
+          int len = Math.min(chunk.length, dst.remaining());
+          in.readFully(position, chunk, 0, len);
+          dst.put(chunk, 0, len);
+          position += len;
+        }
+      }
+    };
+  }
+
+  /**
+   * @return true if the position is tracked by this stream rather than the
+   * delegate
+   */
+  private boolean ownsPosition() {
+    return readahead != null || blockCache != null;
+  }
+
+  /**
+   * @param maxGap        ranges of a vectored read at most this far apart are
+   *                      read at once
+   * @param maxMergedSize merged ranges do not grow beyond this size
+   */
+  void setVectoredRead(int maxGap, int maxMergedSize) {
+    this.vectoredMaxGap = maxGap;
+    this.vectoredMaxMergedSize = maxMergedSize;
+  }
+
+  /**
+   * Lets vectored reads fetch ranges in parallel, on up to maxStreams
+   * additional streams of the file which are kept open until this stream is
+   * closed.
+   *
+   * @param opener        opens the additional streams
+   * @param executor      runs the parallel reads
+   * @param streamPermits bound additional streams of all streams of the JVM
+   */
+  void enableParallelReads(StreamOpener opener, ExecutorService executor, int maxStreams,
+      Semaphore streamPermits) {
+    this.opener = opener;
+    this.executor = executor;
+    this.maxStreams = maxStreams;
+    this.streamPermits = streamPermits;
+  }
+
+  /**
+   * Splits positional readFully calls of at least threshold bytes into
+   * parts of at least partSize bytes, read in parallel like the ranges of
+   * a vectored read. Only takes effect with
+   * {@link #enableParallelReads(StreamOpener, ExecutorService, int, Semaphore)}.
+   */
+  void setSplitRead(int threshold, int partSize) {
+    this.splitThreshold = threshold;
+    this.splitPartSize = Math.max(1, partSize);
+  }
+
+  /**
+   * Hedges slow positional reads on an additional stream of the file. Only
+   * takes effect with
+   * {@link #enableParallelReads(StreamOpener, ExecutorService, int, Semaphore)}.
+   */
+  void enableHedgedReads(HedgedReads hedgedReads) {
+    this.hedgedReads = hedgedReads;
+  }
+
+  /**
+   * Serves read() and sequential reads shorter than threshold bytes from a
+   * buffer of size bytes. The buffer is filled by one read, which is timed
+   * and traced as usual; the reads served from the buffer are not.
+   */
+  void setSmallReadBuffer(int size, int threshold) {
+    this.smallReadSize = size;
+    this.smallReadThreshold = Math.min(threshold, size);
+  }
+
+  /**
+   * Offers the delegate to the pool on close rather than closing it.
+   *
+   * @param key    identifies this version of the file in the pool
+   * @param stream the delegate, as opened by the real filesystem
+   */
+  void setStreamPool(StreamPool streamPool, FileVersion key, FSDataInputStream stream) {
+    this.streamPool = streamPool;
+    this.poolKey = key;
+    this.pooled = stream;
+  }
+
+  /**
+   * Reads through an {@link AdaptiveReadahead} from now on. Has to be called
+   * before the first read.
+   */
+  synchronized void enableReadahead(int minWindow, int maxWindow) throws IOException {
+    enableReadahead(minWindow, maxWindow, 0, 0);
+  }
+
+  /**
+   * @param seekWindowSize bytes last read which are kept for backward seeks
+   * @param skipThreshold  forward seeks up to this far drain the delegate
+   * @see AdaptiveReadahead#AdaptiveReadahead(InputStream, long, int, int, int, int)
+   */
+  synchronized void enableReadahead(int minWindow, int maxWindow, int seekWindowSize,
+      int skipThreshold) throws IOException {
+    this.pos = seekable.getPos();
+    this.readahead = new AdaptiveReadahead(realStream, contentLen, minWindow, maxWindow,
+        seekWindowSize, skipThreshold);
+  }
+
+  /**
+   * Passed on to the delegate if it supports it, and taken as a hint for the
+   * adaptive readahead (see {@link AdaptiveReadahead#setHint(Long)}).
+   */
+  @Override
+  public synchronized void setReadahead(Long readahead)
+      throws IOException, UnsupportedOperationException {
+    if (realStream instanceof CanSetReadahead) {
+      try {
+        ((CanSetReadahead) realStream).setReadahead(readahead);
+      } catch (UnsupportedOperationException e) {
+        //delegate does not support it. ignore
+      }
+    }
+    if (this.readahead != null) {
+      this.readahead.setHint(readahead);
+    }
+  }
+
+  @Override
+  public synchronized void seek(long pos) throws IOException {
+    if (smallReadLen > 0) {
+      long end = ownsPosition() ? this.pos : seekable.getPos();
+      if (pos >= end - smallReadLen && pos <= end) {
+        smallReadPos = (int) (pos - (end - smallReadLen));
+        return;
+      }
+      smallReadPos = smallReadLen = 0;
+    }
+    if (!ownsPosition()) {
+      seekable.seek(pos);
+      return;
+    }
+    if (pos < 0) {
+      throw new EOFException("Cannot seek to a negative offset " + pos);
+    }
+    // the delegate is only moved on the next read which misses the buffer
+    this.pos = pos;
+  }
+
+  @Override
+  public synchronized long getPos() throws IOException {
+    return (ownsPosition() ? pos : seekable.getPos()) - (smallReadLen - smallReadPos);
+  }
+
+  @Override
+  public boolean seekToNewSource(long targetPos) throws IOException {
+    return seekable.seekToNewSource(targetPos);
+  }
+
+  @Override
+  public synchronized int available() throws IOException {
+    if (smallReadPos < smallReadLen) {
+      return smallReadLen - smallReadPos;
+    }
+    if (!ownsPosition()) {
+      return realStream.available();
+    }
+    int buffered = (readahead == null) ? 0 : readahead.buffered(pos);
+    if (buffered > 0) {
+      return buffered;
+    }
+    return (seekable.getPos() == pos) ? realStream.available() : 0;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (smallReadPos < smallReadLen) {
+      return smallReadBuffer[smallReadPos++] & 0xff;
+    }
+    if (smallReadSize > 0) {
+      return fillSmallReadBuffer() ? smallReadBuffer[smallReadPos++] & 0xff : -1;
+    }
+    if (!traced && metrics == null) {
+      int read = readInternal();
+      count(read < 0 ? -1 : 1);
+      return read;
+    }
+    long start = System.nanoTime();
+    long oldPos = getPos();
+    int read = readInternal();
+    long end = System.nanoTime() - opened(oldPos);
+    count(read < 0 ? -1 : 1);
+    record(WrapperMetrics.Op.READ, (end - start), read < 0 ? -1 : 1);
+    if (traced) {
+      log(TraceOp.READ, oldPos, -1, read, (end - start));
+    }
+    return read;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (smallReadPos < smallReadLen) {
+      int n = Math.min(len, smallReadLen - smallReadPos);
+      System.arraycopy(smallReadBuffer, smallReadPos, b, off, n);
+      smallReadPos += n;
+      return n;
+    }
+    if (len > 0 && len < smallReadThreshold) {
+      if (!fillSmallReadBuffer()) {
+        return -1;
+      }
+      return read(b, off, len);
+    }
+    smallReadPos = smallReadLen = 0;
+    return readTraced(b, off, len);
+  }
+
+  /**
+   * Fills the small read buffer with one traced read.
+   *
+   * @return false at the end of the file
+   */
+  private boolean fillSmallReadBuffer() throws IOException {
+    if (smallReadBuffer == null) {
+      smallReadBuffer = new byte[smallReadSize];
+    }
+    smallReadPos = smallReadLen = 0;
+    int n = readTraced(smallReadBuffer, 0, smallReadBuffer.length);
+    smallReadLen = Math.max(n, 0);
+    return n > 0;
+  }
+
+  private int readTraced(byte[] b, int off, int len) throws IOException {
+    if (!traced && metrics == null) {
+      int read = readInternal(b, off, len);
+      count(read);
+      return read;
+    }
+    long start = System.nanoTime();
+    long oldPos = getPos();
+    int read = readInternal(b, off, len);
+    long end = System.nanoTime() - opened(oldPos);
+    count(read);
+    record(WrapperMetrics.Op.READ, (end - start), read);
+    if (traced) {
+      log(TraceOp.READ, oldPos, -1, read, (end - start));
+    }
+    return read;
+  }
+
+  @Override
+  public int read(byte[] b) throws IOException {
+    return read(b, 0, b.length);
+  }
+
+  @Override
+  public int read(ByteBuffer buf) throws IOException {
+    if (smallReadPos < smallReadLen) {
+      int n = Math.min(buf.remaining(), smallReadLen - smallReadPos);
+      buf.put(smallReadBuffer, smallReadPos, n);
+      smallReadPos += n;
+      return n;
+    }
+    smallReadPos = smallReadLen = 0;
+    if (!traced && metrics == null) {
+      int read = readInternal(buf);
+      count(read);
+      return read;
+    }
+    long start = System.nanoTime();
+    long oldPos = getPos();
+    int read = readInternal(buf);
+    long end = System.nanoTime() - opened(oldPos);
+    count(read);
+    record(WrapperMetrics.Op.READ, (end - start), read);
+    if (traced) {
+      log(TraceOp.READ, oldPos, -1, read, (end - start));
+    }
+    return read;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      // the delegate may already be in use by another stream of the pool
+      return;
+    }
+    if (registration != null) {
+      registration.unregister();
+    }
+    if (!traced && metrics == null) {
+      closeInternal();
+      return;
+    }
+    if (traced) {
+      //prints statistics if available
+      traceLog.info(readahead == null ? realStream.toString()
+          : realStream.toString() + " " + readahead);
+    }
+    long oldPos = getPos();
+    long start = System.nanoTime();
+    closeInternal();
+    long end = System.nanoTime();
+    record(WrapperMetrics.Op.CLOSE, (end - start), -1);
+    if (traced) {
+      log(TraceOp.CLOSE, oldPos, -1, -1, (end - start));
+    }
+  }
+
+  @Override
+  public void readFully(long position, byte[] buffer, int offset, int length)
+      throws IOException {
+    if (!traced && metrics == null) {
+      readFullyInternal(position, buffer, offset, length);
+      count(length);
+      return;
+    }
+    long start = System.nanoTime();
+    long oldPos = getPos();
+    readFullyInternal(position, buffer, offset, length);
+    long end = System.nanoTime() - opened(oldPos);
+    count(length);
+    record(WrapperMetrics.Op.READ_FULLY, (end - start), length);
+    if (traced) {
+      log(TraceOp.READ_FULLY, oldPos, position, length, (end - start));
+    }
+  }
+
+  @Override
+  public void readFully(long position, byte[] buffer) throws IOException {
+    readFully(position, buffer, 0, buffer.length);
+  }
+
+  @Override
+  public int read(long position, byte[] buffer, int offset, int length)
+      throws IOException {
+    if (!traced && metrics == null) {
+      int read = readInternal(position, buffer, offset, length);
+      count(read);
+      return read;
+    }
+    long start = System.nanoTime();
+    long oldPos = getPos();
+    int read = readInternal(position, buffer, offset, length);
+    long end = System.nanoTime() - opened(oldPos);
+    count(read);
+    record(WrapperMetrics.Op.POSITIONAL_READ, (end - start), read);
+    if (traced) {
+      log(TraceOp.READ, oldPos, position, read, (end - start));
+    }
+    return read;
+  }
+
+  /**
+   * Reads up to buf.remaining() bytes at the given position into buf, like
+   * {@link #read(long, byte[], int, int)}, and advances the position of buf
+   * past them. Does not change the position of the stream.
+   *
+   * @return bytes read, or -1 at the end of the file
+   */
+  public int read(long position, ByteBuffer buf) throws IOException {
+    if (!traced && metrics == null) {
+      int read = readInternal(position, buf);
+      count(read);
+      return read;
+    }
+    long start = System.nanoTime();
+    long oldPos = getPos();
+    int read = readInternal(position, buf);
+    long end = System.nanoTime() - opened(oldPos);
+    count(read);
+    record(WrapperMetrics.Op.POSITIONAL_READ, (end - start), read);
+    if (traced) {
+      log(TraceOp.READ, oldPos, position, read, (end - start));
+    }
+    return read;
+  }
+
+  /**
+   * Positional read into a ByteBuffer for callers holding an
+   * FSDataInputStream; streams not opened through a wrapper are read through
+   * a heap array unless buf has one.
+   *
+   * @see #read(long, ByteBuffer)
+   */
+  public static int read(FSDataInputStream in, long position, ByteBuffer buf)
+      throws IOException {
+    if (in.getWrappedStream() instanceof TracingInputStream) {
+      return ((TracingInputStream) in.getWrappedStream()).read(position, buf);
+    }
+    return readThroughArray(in, position, buf, null);
+  }
+
+  /**
+   * Reads into buf through the scratch array of this stream.
+   *
+   * @param position position to read at, or -1 to read at the position of in
+   */
+  private int readThroughArray(InputStream in, long position, ByteBuffer buf)
+      throws IOException {
+    if (buf.hasArray()) {
+      return readThroughArray(in, position, buf, null);
+    }
+    // taken, so concurrent positional reads do not share it
+    byte[] scratch = readScratch.getAndSet(null);
+    if (scratch == null || (scratch.length < READ_SCRATCH_SIZE
+        && scratch.length < buf.remaining())) {
+      scratch = new byte[Math.min(READ_SCRATCH_SIZE, buf.remaining())];
+    }
+    try {
+      return readThroughArray(in, position, buf, scratch);
+    } finally {
+      readScratch.set(scratch);
+    }
+  }
+
+  /**
+   * Reads into buf, straight into its array if it has one, else in chunks
+   * of the scratch array (which is the thread's load chunk if null) until it
+   * is full or a read returns less than asked for.
+   *
+   * @param position position to read at, or -1 to read at the position of in
+   */
+  private static int readThroughArray(InputStream in, long position, ByteBuffer buf,
+      byte[] scratch) throws IOException {
+    if (buf.hasArray()) {
+      int n = (position < 0)
+          ? in.read(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining())
+          : ((PositionedReadable) in).read(position, buf.array(),
+              buf.arrayOffset() + buf.position(), buf.remaining());
+      if (n > 0) {
+        buf.position(buf.position() + n);
+      }
+      return n;
+    }
+    if (scratch == null) {
+      scratch = LOAD_CHUNK.get();
+    }
+    int total = 0;
+    while (buf.hasRemaining()) {
+      int len = Math.min(scratch.length, buf.remaining());
+      int n = (position < 0) ? in.read(scratch, 0, len)
+          : ((PositionedReadable) in).read(position + total, scratch, 0, len);
+      if (n <= 0) {
+        return (total == 0) ? n : total;
+      }
+      buf.put(scratch, 0, n);
+      total += n;
+      if (n < len) {
+        break;
+      }
+    }
+    return total;
+  }
+
+  /**
+   * Reads all ranges, each into its own buffer. Ranges are sorted and ranges
+   * close to each other are read at once (see {@link RangeCoalescer}); the
+   * remaining reads run in parallel when enabled. Does not change the
+   * position of the stream.
+   *
+   * @throws EOFException if a range goes beyond the end of the file
+   */
+  public void readVectored(List<? extends FileRange> ranges) throws IOException {
+    if (ranges.isEmpty()) {
+      return;
+    }
+    List<RangeCoalescer.CombinedRange> combined =
+        RangeCoalescer.coalesce(ranges, vectoredMaxGap, vectoredMaxMergedSize);
+    long bytes = 0;
+    for (FileRange range : ranges) {
+      bytes += range.getLength();
+    }
+    if (!traced && metrics == null) {
+      readVectoredInternal(combined);
+      count(bytes);
+      return;
+    }
+    long start = System.nanoTime();
+    long oldPos = getPos();
+    readVectoredInternal(combined);
+    long end = System.nanoTime() - opened(oldPos);
+    count(bytes);
+    if (metrics != null) {
+      metrics.recordVectoredRead((end - start), bytes, ranges.size(), combined.size());
+    }
+    if (traced) {
+      log(TraceOp.READ_VECTORED, oldPos, combined.get(0).getOffset(), (int) bytes,
+          (end - start));
+    }
+  }
+
+  /**
+   * Vectored read on any stream; the ranges of streams which are not opened
+   * through a wrapper are read one after the other.
+   */
+  public static void readVectored(FSDataInputStream in, List<? extends FileRange> ranges)
+      throws IOException {
+    if (in.getWrappedStream() instanceof TracingInputStream) {
+      ((TracingInputStream) in.getWrappedStream()).readVectored(ranges);
+      return;
+    }
+    for (FileRange range : ranges) {
+      in.readFully(range.getOffset(), range.getBuffer(), range.getBufferOffset(),
+          range.getLength());
+    }
+  }
+
+  private void readVectoredInternal(final List<RangeCoalescer.CombinedRange> combined)
+      throws IOException {
+    checkOpen();
+    int parallelism = (opener == null) ? 0 : Math.min(maxStreams, combined.size() - 1);
+    if (parallelism <= 0) {
+      for (RangeCoalescer.CombinedRange range : combined) {
+        readCombined(null, range);
+      }
+      return;
+    }
+    // the caller reads the first range itself and then helps with the rest
+    final AtomicInteger next = new AtomicInteger(1);
+    List<Future<Void>> futures = new ArrayList<Future<Void>>(parallelism);
+    for (int i = 0; i < parallelism; i++) {
+      futures.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          FSDataInputStream in = borrowParallelStream();
+          if (in == null) {
+            // the JVM has no streams left; the caller reads the ranges
+            return null;
+          }
+          boolean ok = false;
+          try {
+            int index;
+            while ((index = next.getAndIncrement()) < combined.size()) {
+              readCombined(in, combined.get(index));
+            }
+            ok = true;
+          } finally {
+            returnParallelStream(in, ok);
+          }
+          return null;
+        }
+      }));
+    }
+    IOException failure = null;
+    try {
+      int index = 0;
+      do {
+        readCombined(null, combined.get(index));
+      } while ((index = next.getAndIncrement()) < combined.size());
+    } catch (IOException e) {
+      failure = e;
+      next.set(combined.size());
+    }
+    // the buffers of the caller must not be written to once this returns
+    boolean interrupted = false;
+    for (Future<Void> future : futures) {
+      while (true) {
+        try {
+          future.get();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+          next.set(combined.size());
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = (e.getCause() instanceof IOException) ? (IOException) e.getCause()
+                : new IOException("Parallel read of " + f + " failed", e.getCause());
+          }
+          break;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+      if (failure == null) {
+        failure = new InterruptedIOException("Interrupted vectored read of " + f);
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * @param in additional stream to read with, or null to read with this stream
+   */
+  private void readCombined(FSDataInputStream in, RangeCoalescer.CombinedRange range)
+      throws IOException {
+    byte[] b;
+    int off;
+    if (range.isSingle()) {
+      FileRange only = range.getRanges().get(0);
+      b = only.getBuffer();
+      off = only.getBufferOffset();
+    } else {
+      b = new byte[range.getLength()];
+      off = 0;
+    }
+    if (in == null) {
+      readFullyInternal(range.getOffset(), b, off, range.getLength(), false);
+    } else if (blockCache != null) {
+      readBlocksFully(range.getOffset(), b, off, range.getLength(), loader(in));
+    } else {
+      in.readFully(range.getOffset(), b, off, range.getLength());
+    }
+    if (!range.isSingle()) {
+      range.scatter(b);
+    }
+  }
+
+  /**
+   * @return false if borrowParallelStream() would return null right now
+   */
+  private boolean canBorrowParallelStream() {
+    synchronized (parallelStreams) {
+      if (!parallelStreams.isEmpty()) {
+        return true;
+      }
+    }
+    return streamPermits.availablePermits() > 0;
+  }
+
+  /**
+   * @return null if the JVM has as many additional streams open as allowed
+   */
+  private FSDataInputStream borrowParallelStream() throws IOException {
+    synchronized (parallelStreams) {
+      if (parallelStreamsClosed) {
+        throw new IOException("Stream is closed: " + f);
+      }
+      FSDataInputStream in = parallelStreams.poll();
+      if (in != null) {
+        return in;
+      }
+    }
+    if (!streamPermits.tryAcquire()) {
+      return null;
+    }
+    boolean opened = false;
+    try {
+      FSDataInputStream in = opener.open();
+      opened = true;
+      return in;
+    } finally {
+      if (!opened) {
+        streamPermits.release();
+      }
+    }
+  }
+
+  /**
+   * @param reusable false if the stream failed and is closed instead of kept
+   */
+  private void returnParallelStream(FSDataInputStream in, boolean reusable) throws IOException {
+    synchronized (parallelStreams) {
+      if (reusable && !parallelStreamsClosed && parallelStreams.size() < maxStreams) {
+        parallelStreams.push(in);
+        return;
+      }
+    }
+    closeParallelStream(in);
+  }
+
+  private void closeParallelStream(FSDataInputStream in) throws IOException {
+    try {
+      in.close();
+    } finally {
+      streamPermits.release();
+    }
+  }
+
+  private void closeParallelStreams() throws IOException {
+    List<FSDataInputStream> idle;
+    PreadStream swapped;
+    synchronized (parallelStreams) {
+      parallelStreamsClosed = true;
+      idle = new ArrayList<FSDataInputStream>(parallelStreams);
+      parallelStreams.clear();
+      swapped = preads;
+    }
+    for (FSDataInputStream in : idle) {
+      closeParallelStream(in);
+    }
+    // a read still running on it fails, as it would on a closed delegate
+    swapped.close();
+  }
+
+  private int readInternal() throws IOException {
+    checkOpen();
+    if (!ownsPosition()) {
+      return realStream.read();
+    }
+    synchronized (this) {
+      int n = readInternal(oneByte, 0, 1);
+      return (n <= 0) ? -1 : (oneByte[0] & 0xff);
+    }
+  }
+
+  private int readInternal(byte[] b, int off, int len) throws IOException {
+    checkOpen();
+    if (!ownsPosition()) {
+      return realStream.read(b, off, len);
+    }
+    synchronized (this) {
+      int n = readFromTail(pos, b, off, len);
+      if (n == 0) {
+        n = (blockCache != null) ? readBlocks(pos, b, off, len, blockLoader)
+            : readahead.read(pos, b, off, len);
+      }
+      if (n > 0) {
+        pos += n;
+      }
+      return n;
+    }
+  }
+
+  private int readInternal(ByteBuffer buf) throws IOException {
+    checkOpen();
+    if (buf.hasArray()) {
+      int n = readInternal(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+      if (n > 0) {
+        buf.position(buf.position() + n);
+      }
+      return n;
+    }
+    if (!ownsPosition()) {
+      return byteBufferReadable ? ((ByteBufferReadable) realStream).read(buf)
+          : readThroughArray(realStream, -1, buf);
+    }
+    synchronized (this) {
+      int n = readFromTail(pos, buf);
+      if (n == 0) {
+        n = (blockCache != null) ? readBlocks(pos, buf, blockLoader)
+            : readahead.read(pos, buf);
+      }
+      if (n > 0) {
+        pos += n;
+      }
+      return n;
+    }
+  }
+
+  private int readInternal(long position, byte[] b, int off, int len) throws IOException {
+    checkOpen();
+    int n = readFromTail(position, b, off, len);
+    if (n > 0) {
+      return n;
+    }
+    if (hedge(len)) {
+      n = readHedged(position, b, off, len, false);
+    } else {
+      n = preadDirect(position, b, off, len);
+    }
+    cacheTail(position, b, off, n);
+    return n;
+  }
+
+  private int readInternal(long position, ByteBuffer buf) throws IOException {
+    checkOpen();
+    if (buf.hasArray()) {
+      int n = readInternal(position, buf.array(), buf.arrayOffset() + buf.position(),
+          buf.remaining());
+      if (n > 0) {
+        buf.position(buf.position() + n);
+      }
+      return n;
+    }
+    int start = buf.position();
+    int n = readFromTail(position, buf);
+    if (n > 0) {
+      return n;
+    }
+    if (blockCache != null) {
+      n = readBlocks(position, buf, blockLoader);
+    } else if (readahead == null) {
+      // PositionedReadable has no ByteBuffer reads
+      n = readThroughArray(realStream, position, buf);
+    } else {
+      synchronized (this) {
+        n = readahead.read(position, buf);
+      }
+    }
+    if (n > 0 && position + n == contentLen) {
+      ByteBuffer read = buf.duplicate();
+      read.position(start);
+      read.limit(start + n);
+      cacheTail(position, read);
+    }
+    return n;
+  }
+
+  private int preadDirect(long position, byte[] b, int off, int len) throws IOException {
+    if (blockCache != null) {
+      return readBlocks(position, b, off, len, blockLoader);
+    } else if (readahead == null) {
+      return preadRemote(position, b, off, len, false);
+    }
+    synchronized (this) {
+      return readahead.read(position, b, off, len);
+    }
+  }
+
+  private void readFullyInternal(long position, byte[] b, int off, int len) throws IOException {
+    readFullyInternal(position, b, off, len, true);
+  }
+
+  /**
+   * @param direct false for the reads of a vectored read, which are neither
+   *               split nor hedged
+   */
+  private void readFullyInternal(long position, byte[] b, int off, int len, boolean direct)
+      throws IOException {
+    checkOpen();
+    if (len > 0 && readFromTail(position, b, off, len) == len) {
+      return;
+    }
+    if (direct && splitThreshold > 0 && len >= splitThreshold && opener != null
+        && maxStreams > 0) {
+      if (position < 0 || position + len > contentLen) {
+        throw new EOFException("Cannot read " + len + " bytes at " + position + " of " + f
+            + " with length " + contentLen);
+      }
+      int parts = Math.min(maxStreams + 1, Math.max(1, len / splitPartSize));
+      if (parts > 1) {
+        // each part is read straight into its slice of the buffer
+        readVectoredInternal(RangeCoalescer.split(position, b, off, len, parts));
+        if (metrics != null) {
+          metrics.recordSplitRead(parts);
+        }
+        cacheTail(position, b, off, len);
+        return;
+      }
+    }
+    if (direct && hedge(len)) {
+      readHedged(position, b, off, len, true);
+    } else {
+      readFullyDirect(position, b, off, len);
+    }
+    cacheTail(position, b, off, len);
+  }
+
+  private void readFullyDirect(long position, byte[] b, int off, int len) throws IOException {
+    if (blockCache != null) {
+      readBlocksFully(position, b, off, len, blockLoader);
+    } else if (readahead == null) {
+      preadRemote(position, b, off, len, true);
+    } else {
+      synchronized (this) {
+        readahead.readFully(position, b, off, len);
+      }
+    }
+  }
+
+  /**
+   * Reads through the readahead or the block cache are not hedged; they are
+   * mostly served from memory, and their loads hold the stream.
+   */
+  private boolean hedge(int len) {
+    return hedgedReads != null && opener != null && readahead == null && blockCache == null
+        && hedgedReads.accepts(len);
+  }
+
+  /**
+   * Positional read straight from the remote store, on the delegate or the
+   * stream of a hedge which replaced it.
+   */
+  private int preadRemote(long position, byte[] b, int off, int len, boolean fully)
+      throws IOException {
+    PreadStream in = acquirePreads();
+    try {
+      return pread(in.stream, position, b, off, len, fully);
+    } finally {
+      release(in);
+    }
+  }
+
+  /**
+   * Reads and records the latency for the hedge delay.
+   */
+  private int pread(PositionedReadable in, long position, byte[] b, int off, int len,
+      boolean fully) throws IOException {
+    long start = System.nanoTime();
+    int n;
+    if (fully) {
+      in.readFully(position, b, off, len);
+      n = len;
+    } else {
+      n = in.read(position, b, off, len);
+    }
+    if (hedgedReads != null) {
+      hedgedReads.record(fully ? WrapperMetrics.Op.READ_FULLY
+          : WrapperMetrics.Op.POSITIONAL_READ, System.nanoTime() - start);
+    }
+    return n;
+  }
+
+  /**
+   * Reads in place when no hedge can be issued. Otherwise reads into a
+   * staging buffer in the background; if that takes longer than the hedge
+   * delay, reads the same bytes on an additional stream as well and takes
+   * the bytes of whichever read completes first. A hedge which wins replaces
+   * the stream positional reads are done on.
+   *
+   * @return bytes read, like the positional read of the direct path
+   */
+  private int readHedged(final long position, byte[] b, int off, final int len,
+      final boolean fully) throws IOException {
+    long delay = hedgedReads.delayNanos(fully ? WrapperMetrics.Op.READ_FULLY
+        : WrapperMetrics.Op.POSITIONAL_READ);
+    if (!hedgedReads.mayHedge() || !canBorrowParallelStream()) {
+      return preadRemote(position, b, off, len, fully);
+    }
+    byte[] buffer = hedgeStaging.getAndSet(null);
+    final byte[] staging = (buffer != null && buffer.length >= len) ? buffer : new byte[len];
+    CompletionService<Integer> completion =
+        new ExecutorCompletionService<Integer>(hedgedReads.getExecutor());
+    Future<Integer> primary;
+    try {
+      primary = completion.submit(new Callable<Integer>() {
+        @Override
+        public Integer call() throws IOException {
+          backgroundReads.incrementAndGet();
+          try {
+            checkOpen();
+            return preadRemote(position, staging, 0, len, fully);
+          } finally {
+            backgroundReads.decrementAndGet();
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // no idle hedge thread
+      hedgeStaging.set(staging);
+      return preadRemote(position, b, off, len, fully);
+    }
+    Hedge hedgeRead = null;
+    Future<Integer> hedge = null;
+    Future<Integer> winner = null;
+    int n = -1;
+    IOException failure = null;
+    try {
+      Future<Integer> done = completion.poll(delay, TimeUnit.NANOSECONDS);
+      if (done == null && hedgedReads.tryHedge()) {
+        hedgeRead = new Hedge(position, len, fully);
+        try {
+          hedge = completion.submit(hedgeRead);
+        } catch (RejectedExecutionException e) {
+          hedgedReads.hedgeRejected();
+        }
+      }
+      int pending = (hedge == null) ? 1 : 2;
+      while (winner == null && pending > 0) {
+        if (done == null) {
+          done = completion.take();
+        }
+        pending--;
+        try {
+          n = done.get();
+          winner = done;
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = (e.getCause() instanceof IOException) ? (IOException) e.getCause()
+                : new IOException("Hedged read of " + f + " failed", e.getCause());
+          }
+        }
+        done = null;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      failure = new InterruptedIOException("Interrupted hedged read of " + f);
+      winner = null;
+    } finally {
+      // the first read is left to complete, so its stream is not interrupted
+      // in the middle of a read; a hedge is stopped
+      if (hedge != null && winner != hedge) {
+        hedge.cancel(true);
+        FSDataInputStream idle = hedgeRead.take();
+        if (idle != null) {
+          returnParallelStream(idle, true);
+        }
+      }
+      if (winner != primary) {
+        primary.cancel(false);
+      }
+    }
+    if (hedge != null) {
+      if (winner == hedge) {
+        hedgedReads.hedgeWon();
+        swapPreads(hedgeRead.take());
+      }
+      if (metrics != null) {
+        metrics.recordHedge(winner == hedge);
+      }
+    }
+    if (winner == null) {
+      throw failure;
+    }
+    if (n > 0) {
+      System.arraycopy(winner == hedge ? hedgeRead.buffer : staging, 0, b, off, n);
+    }
+    if (winner == primary) {
+      hedgeStaging.set(staging);
+    }
+    return n;
+  }
+
+  private PreadStream acquirePreads() throws IOException {
+    while (true) {
+      PreadStream in = preads;
+      in.users.incrementAndGet();
+      if (!in.retired) {
+        return in;
+      }
+      release(in);
+    }
+  }
+
+  private void release(PreadStream in) throws IOException {
+    if (in.users.decrementAndGet() == 0 && in.retired) {
+      in.close();
+    }
+  }
+
+  /**
+   * Makes the stream of a hedge which won the one positional reads are done
+   * on. The stream it replaces is closed once the reads on it complete,
+   * unless it is the delegate.
+   */
+  private void swapPreads(FSDataInputStream won) throws IOException {
+    PreadStream replaced;
+    synchronized (parallelStreams) {
+      if (parallelStreamsClosed) {
+        replaced = null;
+      } else {
+        replaced = preads;
+        preads = new PreadStream(won, won);
+      }
+    }
+    if (replaced == null) {
+      closeParallelStream(won);
+      return;
+    }
+    replaced.retired = true;
+    if (replaced.users.get() == 0) {
+      replaced.close();
+    }
+  }
+
+  /**
+   * Stream positional reads go to, counting the reads in progress on it.
+   */
+  private final class PreadStream {
+    private final PositionedReadable stream;
+    // an additional stream, closed once retired and unused; null for the delegate
+    private final FSDataInputStream owned;
+    private final AtomicInteger users = new AtomicInteger();
+    private volatile boolean retired;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    PreadStream(PositionedReadable stream, FSDataInputStream owned) {
+      this.stream = stream;
+      this.owned = owned;
+    }
+
+    void close() throws IOException {
+      if (owned != null && closed.compareAndSet(false, true)) {
+        closeParallelStream(owned);
+      }
+    }
+  }
+
+  /**
+   * Second read of a slow positional read, on an additional stream of the
+   * file, into a buffer of its own. A hedge which succeeded hands its stream
+   * over to {@link #take()}; it goes back to the idle streams if the reader
+   * gave it up first.
+   */
+  private final class Hedge implements Callable<Integer> {
+    private final long position;
+    private final int len;
+    private final boolean fully;
+    // set once the read succeeded
+    private volatile byte[] buffer;
+    private final AtomicReference<Object> stream = new AtomicReference<Object>();
+
+    Hedge(long position, int len, boolean fully) {
+      this.position = position;
+      this.len = len;
+      this.fully = fully;
+    }
+
+    @Override
+    public Integer call() throws IOException {
+      FSDataInputStream in = borrowParallelStream();
+      if (in == null) {
+        throw new IOException("No stream left to hedge a read of " + f);
+      }
+      boolean read = false;
+      boolean handedOver = false;
+      try {
+        byte[] data = new byte[len];
+        int n = pread(in, position, data, 0, len, fully);
+        buffer = data;
+        read = true;
+        handedOver = stream.compareAndSet(null, in);
+        return n;
+      } finally {
+        if (!handedOver) {
+          // a hedge cancelled in the middle of a read leaves its stream in
+          // an unknown state
+          returnParallelStream(in, read);
+        }
+      }
+    }
+
+    /**
+     * @return the stream of the hedge if it succeeded and was not taken
+     * before; the hedge keeps its stream if it did not succeed yet
+     */
+    FSDataInputStream take() {
+      Object taken = stream.getAndSet(GIVEN_UP);
+      return (taken == GIVEN_UP) ? null : (FSDataInputStream) taken;
+    }
+  }
+
+  /**
+   * Reads through the block cache, up to the end of the file.
+   *
+   * @return bytes read, -1 at the end of the file
+   */
+  private int readBlocks(long position, byte[] b, int off, int len, BlockCache.Loader loader)
+      throws IOException {
+    return readBlocks(position, ByteBuffer.wrap(b, off, len), loader);
+  }
+
+  /**
+   * Reads through the block cache into dst, up to its limit or the end of
+   * the file, and advances its position past the bytes read.
+   *
+   * @return bytes read, -1 at the end of the file
+   */
+  private int readBlocks(long position, ByteBuffer dst, BlockCache.Loader loader)
+      throws IOException {
+    if (position >= contentLen) {
+      return dst.hasRemaining() ? -1 : 0;
+    }
+    int blockSize = blockCache.getBlockSize();
+    int end = (int) Math.min(dst.remaining(), contentLen - position);
+    int limit = dst.limit();
+    dst.limit(dst.position() + end);
+    try {
+      int n = 0;
+      while (n < end) {
+        long p = position + n;
+        long index = p / blockSize;
+        int blockLength = (int) Math.min(blockSize, contentLen - index * blockSize);
+        n += blockCache.read(blockKey, index, blockLength, loader,
+            (int) (p - index * blockSize), dst);
+      }
+      return n;
+    } finally {
+      dst.limit(limit);
+    }
+  }
+
+  private void readBlocksFully(long position, byte[] b, int off, int len,
+      BlockCache.Loader loader) throws IOException {
+    if (position < 0 || position + len > contentLen) {
+      throw new EOFException("Cannot read " + len + " bytes at " + position + " of " + f
+          + " with length " + contentLen);
+    }
+    readBlocks(position, b, off, len, loader);
+  }
+
+  /**
+   * @return bytes copied from the cached tail of the file; 0 if the position
+   * is not inside a cached tail
+   */
+  private int readFromTail(long position, byte[] b, int off, int len) {
+    if (tailCache == null || len <= 0) {
+      return 0;
+    }
+    return readFromTail(position, ByteBuffer.wrap(b, off, len));
+  }
+
+  /**
+   * Copies bytes of the cached tail into dst, up to its limit.
+   */
+  private int readFromTail(long position, ByteBuffer dst) {
+    if (tailCache == null || !dst.hasRemaining()) {
+      return 0;
+    }
+    TailCache.Tail cached = tail;
+    if (cached == null) {
+      // looked up once per stream; later misses are filled by this stream itself
+      if (tailLookedUp || position < contentLen - tailCache.getMaxTailSize()
+          || position >= contentLen) {
+        return 0;
+      }
+      tailLookedUp = true;
+      cached = tailCache.get(tailKey);
+      if (cached == null) {
+        return 0;
+      }
+      tail = cached;
+    }
+    int n = cached.read(position, dst);
+    if (n > 0) {
+      tailCache.hit();
+    }
+    return n;
+  }
+
+  private void cacheTail(long position, byte[] b, int off, int read) {
+    if (tailCache != null && read > 0 && position + read == contentLen) {
+      cacheTail(position, ByteBuffer.wrap(b, off, read));
+    }
+  }
+
+  /**
+   * @param read bytes read at position, from its position to its limit
+   */
+  private void cacheTail(long position, ByteBuffer read) {
+    if (tailCache != null && read.hasRemaining() && position + read.remaining() == contentLen
+        && (tail == null || tail.getOffset() > position)) {
+      TailCache.Tail cached = tailCache.put(tailKey, position, read);
+      if (cached != null) {
+        tail = cached;
+      }
+    }
+  }
+
+  private synchronized void closeInternal() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    smallReadPos = smallReadLen = 0;
+    smallReadBuffer = null;
+    try {
+      closeParallelStreams();
+    } finally {
+      // a lazily opened delegate which was never read costs nothing to close;
+      // one a lost hedged read is still reading from cannot be reused
+      if (streamPool == null || (lazyOpen != null && !lazyOpen.isOpened())
+          || backgroundReads.get() > 0 || !streamPool.offer(poolKey, pooled)) {
+        realStream.close();
+      }
+    }
+    if (readahead != null) {
+      if (metrics != null) {
+        metrics.recordSeeks(readahead.getSeeks(), readahead.getSeeksAvoided());
+      }
+      readahead.release();
+    }
+  }
+
+  /**
+   * The delegate may be in use by another stream once this one is closed
+   * and its delegate went back to the pool.
+   */
+  private void checkOpen() throws IOException {
+    if (closed) {
+      throw new IOException("Stream is closed: " + f);
+    }
+  }
+
+  /**
+   * Records the open of a lazily opened delegate which happened during the
+   * read that is being timed.
+   *
+   * @return nanos the open took, to be taken off the time of the read
+   */
+  private long opened(long oldPos) {
+    if (lazyOpen == null) {
+      return 0;
+    }
+    long openNanos = lazyOpen.takeOpenNanos();
+    if (openNanos > 0) {
+      record(WrapperMetrics.Op.OPEN, openNanos, -1);
+      if (traced) {
+        log(TraceOp.LAZY_OPEN, oldPos, -1, -1, openNanos);
+      }
+    }
+    return openNanos;
+  }
+
+  private void count(long bytes) {
+    if (registration != null && bytes > 0) {
+      registration.addBytesRead(bytes);
+    }
+  }
+
+  private void record(WrapperMetrics.Op op, long timeInNanos, long bytes) {
+    if (metrics != null) {
+      metrics.recordRead(op, timeInNanos, bytes);
+    }
+  }
+
+  //Format: hashCode_hashCode, address, fileName, operation, fileLen, oldPos, currentPosAfterRead,
+  // positionalSeekLoc, bytesRead, timeInNanos, msg, thread_id, [tags_id]
+  private void log(TraceOp op, long oldPos, long positionalRead, int read, long timeInNanos) {
+    int callSite = CallSiteTable.NO_CALL_SITE;
+    if (read == 0 || read == 1) {
+      if (printStackTrace) {
+        callSite = recorder.getCallSites().capture();
+      }
+    }
+    long realPos = -1;
+    if (!closed) {
+      try {
+        realPos = getPos();
+      } catch (IOException e) {
+        //some streams throw once they are in a bad state. ignore
+      }
+    }
+    recorder.recordStreamEvent(traceLog, op, hashCode(), address, f, contentLen, oldPos,
+        realPos, positionalRead, read, timeInNanos, callSite, tagsId);
+  }
+}
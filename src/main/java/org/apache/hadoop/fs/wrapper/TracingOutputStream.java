@@ -0,0 +1,238 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.Syncable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Wrapper which traces the output stream of create() and append(), in the
+ * same format as {@link TracingInputStream}
+ * <p>
+ * hashCode_&lt;hashCode&gt;, address, fileName, operation, bytesWrittenSoFar,
+ * positionBeforeWrites, positionAfterWrites, -1, bytesWritten, timeTakenInNanos, msg,
+ * thread_&lt;threadId&gt;[, tags_&lt;tagsId&gt;]
+ * <p>
+ * Writes are not traced one by one: a "write" line covers a batch of at
+ * least batchSize bytes (or the bytes written before a hflush, hsync or
+ * close), and its time is the time since the first write of the batch.
+ * hflush and hsync are traced with the time they took, close (which uploads
+ * the file on object stores) as closeOutput. The size of every write goes to
+ * the write size histogram of {@link WrapperMetrics}. Like the streams it
+ * wraps, not meant to be written to by several threads at once.
+ */
+public class TracingOutputStream extends OutputStream implements Syncable {
+
+  private final Logger traceLog = LoggerFactory.getLogger(getClass());
+
+  private final OutputStream realStream;
+  private final Path f;
+  private final String address;
+  private final boolean traced;
+  private final long batchSize;
+  private final TraceRecorder recorder;
+  private WrapperMetrics metrics;
+  private int tagsId = TraceTags.NO_TAGS;
+  private FileStatusCache statusCache;
+  private Path qualifiedPath;
+
+  private final long startPos;
+  private long pos;
+  // the current batch: bytes [batchStart, pos) written since batchStartTime,
+  // singleByteWrites of them by write(int)
+  private long batchStart;
+  private long batchStartTime;
+  private long singleByteWrites;
+  private boolean closed;
+
+  /**
+   * @param startPos  position of the delegate, e.g the length of the file
+   *                  appended to
+   * @param traced    false if this stream was not sampled; writes are then
+   *                  only counted for {@link WrapperMetrics}
+   * @param batchSize bytes covered by one write line
+   */
+  public TracingOutputStream(OutputStream out, Path f, long startPos, String address,
+      boolean traced, long batchSize) {
+    this.realStream = out;
+    this.f = f;
+    this.startPos = startPos;
+    this.pos = startPos;
+    this.batchStart = startPos;
+    this.address = address;
+    this.traced = traced;
+    this.batchSize = Math.max(1, batchSize);
+    this.recorder = TraceRecorder.get();
+  }
+
+  /**
+   * @param metrics where write sizes and latencies are recorded. May be null.
+   */
+  void setMetrics(WrapperMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * @param tagsId tags in effect when the stream was created, see {@link TraceTags}
+   */
+  void setTagsId(int tagsId) {
+    this.tagsId = tagsId;
+  }
+
+  /**
+   * Drops the status of the file from the cache once the stream is closed.
+   *
+   * @param path qualified path of the file
+   */
+  void invalidateOnClose(FileStatusCache statusCache, Path path) {
+    this.statusCache = statusCache;
+    this.qualifiedPath = path;
+  }
+
+  /**
+   * @return the stream this wrapper delegates to
+   */
+  protected OutputStream getWrappedStream() {
+    return realStream;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    realStream.write(b);
+    // sizes of single byte writes go to the histogram once per batch
+    singleByteWrites++;
+    written(1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    realStream.write(b, off, len);
+    if (metrics != null) {
+      metrics.recordWriteSize(len);
+    }
+    written(len);
+  }
+
+  private void written(int len) {
+    if (pos == batchStart) {
+      batchStartTime = System.nanoTime();
+    }
+    pos += len;
+    if (pos - batchStart >= batchSize) {
+      endBatch();
+    }
+  }
+
+  private void endBatch() {
+    if (pos == batchStart) {
+      return;
+    }
+    long bytes = pos - batchStart;
+    if (metrics != null) {
+      metrics.recordWrite(bytes, singleByteWrites);
+    }
+    if (traced) {
+      log(TraceOp.WRITE, batchStart, bytes, System.nanoTime() - batchStartTime);
+    }
+    batchStart = pos;
+    singleByteWrites = 0;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    realStream.flush();
+  }
+
+  @Override
+  public void hflush() throws IOException {
+    endBatch();
+    long start = System.nanoTime();
+    if (realStream instanceof Syncable) {
+      ((Syncable) realStream).hflush();
+    } else {
+      realStream.flush();
+    }
+    long end = System.nanoTime();
+    record(WrapperMetrics.Op.HFLUSH, (end - start));
+    if (traced) {
+      log(TraceOp.HFLUSH, pos, -1, (end - start));
+    }
+  }
+
+  @Override
+  public void hsync() throws IOException {
+    endBatch();
+    long start = System.nanoTime();
+    if (realStream instanceof Syncable) {
+      ((Syncable) realStream).hsync();
+    } else {
+      realStream.flush();
+    }
+    long end = System.nanoTime();
+    record(WrapperMetrics.Op.HSYNC, (end - start));
+    if (traced) {
+      log(TraceOp.HSYNC, pos, -1, (end - start));
+    }
+  }
+
+  @Override
+  @Deprecated
+  public void sync() throws IOException {
+    hflush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    endBatch();
+    long start = System.nanoTime();
+    try {
+      realStream.close();
+    } finally {
+      if (statusCache != null) {
+        statusCache.invalidate(qualifiedPath, false);
+      }
+    }
+    long end = System.nanoTime();
+    record(WrapperMetrics.Op.CLOSE_OUTPUT, (end - start));
+    if (traced) {
+      traceLog.info(realStream.toString());
+      log(TraceOp.CLOSE_OUTPUT, startPos, pos - startPos, (end - start));
+    }
+  }
+
+  private void record(WrapperMetrics.Op op, long timeInNanos) {
+    if (metrics != null) {
+      metrics.record(op, timeInNanos);
+    }
+  }
+
+  private void log(TraceOp op, long oldPos, long bytes, long timeInNanos) {
+    recorder.recordStreamEvent(traceLog, op, hashCode(), address, f, pos, oldPos, pos, -1,
+        bytes, timeInNanos, CallSiteTable.NO_CALL_SITE, tagsId);
+  }
+}
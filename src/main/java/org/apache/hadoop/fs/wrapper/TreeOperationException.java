@@ -0,0 +1,59 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Failure of a directory rename or delete run by {@link TreeOperations},
+ * with the files which were moved or deleted before it stopped.
+ */
+public class TreeOperationException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final List<Path> completed;
+  private final Map<Path, Throwable> failures;
+
+  public TreeOperationException(String message, List<Path> completed,
+      Map<Path, Throwable> failures) {
+    super(message, failures.isEmpty() ? null : failures.values().iterator().next());
+    this.completed = completed;
+    this.failures = failures;
+  }
+
+  /**
+   * @return source files which were moved (rename) or deleted
+   */
+  public List<Path> getCompleted() {
+    return completed;
+  }
+
+  /**
+   * @return source files (the first file of each failed delete batch) and
+   * directories whose move, delete or listing failed
+   */
+  public Map<Path, Throwable> getFailures() {
+    return failures;
+  }
+}
@@ -0,0 +1,623 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Directory rename and recursive delete of object stores, run as a parallel
+ * plan rather than one object after the other.
+ * <p>
+ * The files of the source tree, and its empty directories, are listed by
+ * {@link #listTree(FileStatus)} and consumed as the listing comes. Every file
+ * listed is moved (rename) on a JVM wide pool while the listing continues;
+ * up to parallelism moves, deletes or directory creations of one operation
+ * are in flight, the listing waits for the rest. A rename only creates the
+ * empty directories of the source tree; the parents of the files moved are
+ * implied by them. Source files which are still there after their move, and
+ * the files of a delete, are deleted in batches of
+ * {@link #getDeleteBatchSize()}. What is left of the source tree (directory
+ * markers) is deleted by the real filesystem at the end.
+ * <p>
+ * This implementation lists directory by directory, moves a file with
+ * rename() of the real filesystem (a copy and a delete on object stores)
+ * and deletes files one by one; store specific subclasses list the tree in
+ * one flat listing, copy on the server and delete in bulk. A
+ * failure stops the plan once the operations in flight are done and is
+ * thrown as a {@link TreeOperationException}, which lists the files moved or
+ * deleted so far. Progress is logged every {@link #PROGRESS_INTERVAL} files.
+ */
+public class TreeOperations {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TreeOperations.class);
+
+  public static final int PROGRESS_INTERVAL = 1000;
+
+  private static volatile ExecutorService executor;
+
+  protected FileSystem fs;
+  private int threads;
+  private int parallelism;
+  private int deleteBatchSize;
+  private Logger traceLog = LOG;
+
+  /**
+   * @param fs   the real filesystem of the wrapper, initialized
+   * @param conf configuration of the wrapper
+   */
+  public void initialize(FileSystem fs, Configuration conf) throws IOException {
+    this.fs = fs;
+    this.threads = conf.getInt(Constants.TREE_THREADS, Constants.DEFAULT_TREE_THREADS);
+    this.parallelism = Math.max(1, conf.getInt(Constants.TREE_PARALLELISM,
+        Constants.DEFAULT_TREE_PARALLELISM));
+    this.deleteBatchSize = Math.max(1, conf.getInt(Constants.TREE_DELETE_BATCH_SIZE,
+        Constants.DEFAULT_TREE_DELETE_BATCH_SIZE));
+  }
+
+  /**
+   * Progress of one rename or delete run as a plan.
+   */
+  public interface Progress {
+
+    /**
+     * Called every {@link #PROGRESS_INTERVAL} files, concurrently.
+     *
+     * @param files files moved or deleted so far
+     */
+    void progress(long files);
+
+    /**
+     * Called once the plan completed.
+     *
+     * @param files files moved or deleted
+     */
+    void done(long files);
+  }
+
+  /**
+   * @param traceLog where progress is logged
+   */
+  void setTraceLog(Logger traceLog) {
+    this.traceLog = traceLog;
+  }
+
+  /**
+   * Returns the executor of this JVM, creating it with the given number of
+   * threads if it does not exist yet. See {@link ReadExecutor}.
+   */
+  private static ExecutorService getExecutor(int threads) {
+    ExecutorService tree = executor;
+    if (tree == null) {
+      synchronized (TreeOperations.class) {
+        tree = executor;
+        if (tree == null) {
+          tree = ReadExecutor.newExecutor(threads, "wrapper-tree-");
+          executor = tree;
+        }
+      }
+    }
+    return tree;
+  }
+
+  /**
+   * Lists the files under the directory, at any depth, and the directories
+   * without any entry, including the directory itself if it is empty. This
+   * implementation lists directory by directory, breadth first.
+   */
+  protected RemoteIterator<FileStatus> listTree(FileStatus dir) throws IOException {
+    return new DirectoryWalk(dir);
+  }
+
+  /**
+   * Moves a file. Called concurrently.
+   *
+   * @return true if the source is still there and has to be deleted
+   */
+  protected boolean moveFile(FileStatus src, Path dst) throws IOException {
+    // the parent is created by the first move into it which finds it missing
+    if (!fs.rename(src.getPath(), dst)
+        && !(fs.mkdirs(dst.getParent()) && fs.rename(src.getPath(), dst))) {
+      throw new IOException("Rename of " + src.getPath() + " to " + dst + " failed");
+    }
+    return false;
+  }
+
+  /**
+   * Creates the copy of an empty directory. Called concurrently.
+   */
+  protected void makeDirectory(Path dir) throws IOException {
+    if (!fs.mkdirs(dir)) {
+      throw new IOException("Mkdirs of " + dir + " failed");
+    }
+  }
+
+  /**
+   * Called once a directory was renamed to dst and the source is deleted.
+   */
+  protected void finishedRename(Path dst) throws IOException {
+  }
+
+  /**
+   * Deletes files, at most {@link #getDeleteBatchSize()} of them. Called
+   * concurrently.
+   */
+  protected void deleteFiles(List<Path> files) throws IOException {
+    for (Path file : files) {
+      // false if the file is gone already
+      fs.delete(file, false);
+    }
+  }
+
+  /**
+   * @return files per {@link #deleteFiles(List)} call
+   */
+  protected int getDeleteBatchSize() {
+    return 1;
+  }
+
+  /**
+   * Like {@link FileSystem#rename(Path, Path)}. Files are renamed by the real
+   * filesystem, directories in parallel.
+   *
+   * @param progress told about the progress of a directory rename, may be null
+   */
+  public boolean rename(Path src, Path dst, Progress progress) throws IOException {
+    FileStatus srcStatus;
+    try {
+      srcStatus = fs.getFileStatus(src);
+    } catch (FileNotFoundException e) {
+      return false;
+    }
+    if (!srcStatus.isDirectory() || srcStatus.getPath().isRoot()) {
+      return fs.rename(src, dst);
+    }
+    src = srcStatus.getPath();
+    dst = fs.makeQualified(dst);
+    try {
+      FileStatus dstStatus = fs.getFileStatus(dst);
+      if (!dstStatus.isDirectory()) {
+        return false;
+      }
+      // into the existing directory
+      dst = new Path(dst, src.getName());
+      if (exists(dst)) {
+        return false;
+      }
+    } catch (FileNotFoundException e) {
+      Path parent = dst.getParent();
+      if (parent != null && !parent.isRoot()) {
+        try {
+          if (!fs.getFileStatus(parent).isDirectory()) {
+            return false;
+          }
+        } catch (FileNotFoundException e2) {
+          return false;
+        }
+      }
+    }
+    String srcPrefix = src.toString() + Path.SEPARATOR;
+    if (dst.equals(src) || dst.toString().startsWith(srcPrefix)) {
+      return false;
+    }
+    Plan plan = new Plan("rename " + src + " to " + dst, true, progress);
+    RemoteIterator<FileStatus> entries = plan.list(srcStatus);
+    while (entries != null && plan.running() && plan.hasNext(entries, src)) {
+      FileStatus entry = entries.next();
+      String name = entry.getPath().toString();
+      Path target = name.equals(src.toString()) ? dst
+          : new Path(dst + Path.SEPARATOR + name.substring(srcPrefix.length()));
+      if (entry.isDirectory()) {
+        plan.makeDirectory(target);
+      } else {
+        plan.move(entry, target);
+      }
+    }
+    plan.finish();
+    fs.delete(src, true);
+    finishedRename(dst);
+    plan.done();
+    return true;
+  }
+
+  /**
+   * Like {@link FileSystem#delete(Path, boolean)} with recursive set.
+   * Files are deleted by the real filesystem, directories in parallel.
+   *
+   * @param progress told about the progress of a directory delete, may be null
+   */
+  public boolean delete(Path f, Progress progress) throws IOException {
+    FileStatus status;
+    try {
+      status = fs.getFileStatus(f);
+    } catch (FileNotFoundException e) {
+      return false;
+    }
+    if (!status.isDirectory() || status.getPath().isRoot()) {
+      return fs.delete(f, true);
+    }
+    Plan plan = new Plan("delete " + status.getPath(), false, progress);
+    RemoteIterator<FileStatus> entries = plan.list(status);
+    while (entries != null && plan.running() && plan.hasNext(entries, status.getPath())) {
+      FileStatus entry = entries.next();
+      if (entry.isDirectory()) {
+        plan.skipDirectory();
+      } else {
+        plan.delete(entry.getPath());
+      }
+    }
+    plan.finish();
+    boolean result = fs.delete(status.getPath(), true);
+    plan.done();
+    return result;
+  }
+
+  private boolean exists(Path path) throws IOException {
+    try {
+      fs.getFileStatus(path);
+      return true;
+    } catch (FileNotFoundException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Breadth first walk of a directory tree, see {@link #listTree(FileStatus)}.
+   */
+  private final class DirectoryWalk implements RemoteIterator<FileStatus> {
+
+    private final Deque<FileStatus> dirs = new ArrayDeque<FileStatus>();
+    // entries of dir, null before the next directory is listed
+    private RemoteIterator<LocatedFileStatus> entries;
+    private FileStatus dir;
+    private boolean empty;
+    private FileStatus next;
+
+    DirectoryWalk(FileStatus root) {
+      dirs.add(root);
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+      while (next == null) {
+        if (entries == null) {
+          dir = dirs.poll();
+          if (dir == null) {
+            return false;
+          }
+          entries = fs.listLocatedStatus(dir.getPath());
+          empty = true;
+        } else if (entries.hasNext()) {
+          LocatedFileStatus entry = entries.next();
+          empty = false;
+          if (entry.isDirectory()) {
+            dirs.add(entry);
+          } else {
+            next = entry;
+          }
+        } else {
+          entries = null;
+          if (empty) {
+            next = dir;
+          }
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public FileStatus next() throws IOException {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      FileStatus result = next;
+      next = null;
+      return result;
+    }
+  }
+
+  /**
+   * State of one rename or delete.
+   */
+  private final class Plan {
+
+    private final String name;
+    private final boolean moves;
+    // null if nobody listens
+    private final Progress progress;
+    private final ExecutorService pool = getExecutor(threads);
+    private final Semaphore inFlight = new Semaphore(parallelism);
+    private final long startTime = System.nanoTime();
+    private final int batchSize = Math.max(1, Math.min(deleteBatchSize, getDeleteBatchSize()));
+
+    private final List<Path> completed = Collections.synchronizedList(new ArrayList<Path>());
+    private final Map<Path, Throwable> failures = new LinkedHashMap<Path, Throwable>();
+    private final AtomicLong bytes = new AtomicLong();
+    // source files to delete in the next batch
+    private List<Path> pendingDeletes = new ArrayList<Path>();
+    // written by the listing thread only
+    private volatile long listed;
+    private volatile long emptyDirectories;
+    private long batches;
+
+    /**
+     * @param moves true for a rename, whose pending deletes are sources of
+     *              files which were copied already
+     */
+    Plan(String name, boolean moves, Progress progress) {
+      this.name = name;
+      this.moves = moves;
+      this.progress = progress;
+    }
+
+    boolean running() {
+      synchronized (failures) {
+        return failures.isEmpty();
+      }
+    }
+
+    /**
+     * @return entries of the tree, null if the listing failed
+     */
+    RemoteIterator<FileStatus> list(FileStatus dir) {
+      try {
+        return listTree(dir);
+      } catch (IOException e) {
+        failed(dir.getPath(), e);
+        return null;
+      }
+    }
+
+    boolean hasNext(RemoteIterator<FileStatus> entries, Path dir) {
+      try {
+        return entries.hasNext();
+      } catch (IOException e) {
+        failed(dir, e);
+        return false;
+      }
+    }
+
+    void move(final FileStatus src, final Path dst) throws IOException {
+      listed++;
+      submit(src.getPath(), new Task() {
+        @Override
+        public void run() throws IOException {
+          boolean delete = moveFile(src, dst);
+          bytes.addAndGet(src.getLen());
+          if (delete) {
+            deleteLater(src.getPath(), true);
+          } else {
+            done(Collections.singletonList(src.getPath()));
+          }
+        }
+      });
+    }
+
+    void makeDirectory(final Path dir) throws IOException {
+      emptyDirectories++;
+      submit(dir, new Task() {
+        @Override
+        public void run() throws IOException {
+          TreeOperations.this.makeDirectory(dir);
+        }
+      });
+    }
+
+    /**
+     * Counts an empty directory of a delete, which is left to the delete of
+     * the real filesystem.
+     */
+    void skipDirectory() {
+      emptyDirectories++;
+    }
+
+    void delete(Path file) throws IOException {
+      listed++;
+      deleteLater(file, false);
+    }
+
+    /**
+     * @param inline true to delete a full batch in the calling (move) task
+     *               rather than in a task of its own
+     */
+    private void deleteLater(Path file, boolean inline) throws IOException {
+      List<Path> batch = null;
+      synchronized (this) {
+        pendingDeletes.add(file);
+        if (pendingDeletes.size() >= batchSize) {
+          batch = pendingDeletes;
+          pendingDeletes = new ArrayList<Path>();
+        }
+      }
+      if (batch != null && inline) {
+        runDeletes(batch);
+      } else if (batch != null) {
+        submitDeletes(batch);
+      }
+    }
+
+    private void submitDeletes(final List<Path> batch) throws IOException {
+      submit(batch.get(0), new Task() {
+        @Override
+        public void run() throws IOException {
+          runDeletes(batch);
+        }
+      });
+    }
+
+    private void runDeletes(List<Path> batch) throws IOException {
+      synchronized (this) {
+        batches++;
+      }
+      deleteFiles(batch);
+      done(batch);
+    }
+
+    /**
+     * Runs the task on the pool once one of the parallelism slots is free.
+     */
+    private void submit(final Path path, final Task task) throws IOException {
+      try {
+        inFlight.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted during " + name);
+      }
+      pool.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            runTask(path, task);
+          } finally {
+            inFlight.release();
+          }
+        }
+      });
+    }
+
+    private void runTask(Path path, Task task) {
+      if (!running()) {
+        return;
+      }
+      try {
+        task.run();
+      } catch (IOException | RuntimeException e) {
+        failed(path, e);
+      }
+    }
+
+    private void done(List<Path> files) {
+      long n;
+      synchronized (completed) {
+        long before = completed.size();
+        completed.addAll(files);
+        n = completed.size();
+        if (before / PROGRESS_INTERVAL == n / PROGRESS_INTERVAL) {
+          return;
+        }
+      }
+      log("progress");
+      if (progress != null) {
+        progress.progress(n);
+      }
+    }
+
+    private void failed(Path path, Throwable t) {
+      synchronized (failures) {
+        failures.put(path, t);
+      }
+    }
+
+    /**
+     * Waits for the tasks in flight, deletes the files of the last batch and
+     * throws if anything failed. Sources of files which were copied are
+     * deleted after a failure too, so that no file is left in both places.
+     */
+    void finish() throws IOException {
+      awaitTasks();
+      List<Path> batch;
+      synchronized (this) {
+        batch = pendingDeletes;
+        pendingDeletes = new ArrayList<Path>();
+      }
+      if (!batch.isEmpty() && (moves || running())) {
+        try {
+          runDeletes(batch);
+        } catch (IOException | RuntimeException e) {
+          failed(batch.get(0), e);
+        }
+      }
+      Map<Path, Throwable> failed;
+      synchronized (failures) {
+        failed = new LinkedHashMap<Path, Throwable>(failures);
+      }
+      if (!failed.isEmpty()) {
+        List<Path> done;
+        synchronized (completed) {
+          done = new ArrayList<Path>(completed);
+        }
+        Map.Entry<Path, Throwable> first = failed.entrySet().iterator().next();
+        String message = name + " failed after " + done.size() + " of " + listed
+            + " files listed so far; " + failed.size() + " failed, first " + first.getKey()
+            + ": " + first.getValue();
+        traceLog.warn(message + "; done " + done);
+        throw new TreeOperationException(message, done, failed);
+      }
+    }
+
+    private void awaitTasks() throws IOException {
+      try {
+        inFlight.acquire(parallelism);
+        inFlight.release(parallelism);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted during " + name);
+      }
+    }
+
+    void done() {
+      log("done");
+      if (progress != null) {
+        synchronized (completed) {
+          progress.done(completed.size());
+        }
+      }
+    }
+
+    void log(String state) {
+      long files;
+      synchronized (completed) {
+        files = completed.size();
+      }
+      long batchCount;
+      synchronized (this) {
+        batchCount = batches;
+      }
+      traceLog.info(name + " " + state + " files=" + files + " listed=" + listed
+          + " emptyDirectories=" + emptyDirectories + " bytesMoved=" + bytes.get()
+          + " deleteBatches=" + batchCount + " timeInMs="
+          + ((System.nanoTime() - startTime) / 1000000));
+    }
+  }
+
+  private interface Task {
+    void run() throws IOException;
+  }
+}
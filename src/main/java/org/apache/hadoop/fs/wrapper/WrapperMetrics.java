@@ -0,0 +1,326 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsInfo;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.Interns;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.apache.hadoop.fs.wrapper.Constants.*;
+
+/**
+ * Live latency histograms per operation of all wrapper filesystems of one
+ * scheme in this JVM, published through metrics2 (and so JMX) as source
+ * "WrapperFileSystem-&lt;scheme&gt;".
+ * <p>
+ * For every operation the source has a cumulative NumOps counter and
+ * P50/P99/P999/Max gauges (in nanos) over the calls made since the previous
+ * snapshot. BytesRead and ReadMBPerSec cover all reads of the streams.
+ * VectoredRanges and VectoredRequests count the ranges asked for by vectored
+ * reads and the requests issued for them after coalescing. SplitReads and
+ * SplitParts count large readFully calls split into parallel reads.
+ * DelegateSeeks and SeeksAvoided count the seeks of the real streams behind
+ * the readahead and the seeks it served without them, as of stream close.
+ * Hedges counts the second reads issued for slow positional reads, HedgeWins
+ * those which completed first.
+ * <p>
+ * Output streams add BytesWritten, the Writes counter and
+ * WriteSizeP50Bytes/P99Bytes/MaxBytes gauges over the writes made since the
+ * previous snapshot; CloseOutput latencies include the upload of the file on
+ * object stores.
+ */
+public class WrapperMetrics implements MetricsSource {
+
+  private static final Logger LOG = LoggerFactory.getLogger(WrapperMetrics.class);
+
+  private static final String CONTEXT = "wrapper";
+  private static final String SOURCE_PREFIX = "WrapperFileSystem-";
+
+  private static final Map<String, WrapperMetrics> INSTANCES =
+      new HashMap<String, WrapperMetrics>();
+
+  public enum Op {
+    OPEN("Open"),
+    READ("Read"),
+    POSITIONAL_READ("PositionalRead"),
+    READ_FULLY("ReadFully"),
+    READ_VECTORED("ReadVectored"),
+    CLOSE("Close"),
+    CREATE("Create"),
+    APPEND("Append"),
+    HFLUSH("Hflush"),
+    HSYNC("Hsync"),
+    CLOSE_OUTPUT("CloseOutput"),
+    LIST_STATUS("ListStatus"),
+    GET_FILE_STATUS("GetFileStatus"),
+    RENAME("Rename"),
+    DELETE("Delete"),
+    MKDIRS("Mkdirs");
+
+    private final MetricsInfo numOps;
+    private final MetricsInfo p50;
+    private final MetricsInfo p99;
+    private final MetricsInfo p999;
+    private final MetricsInfo max;
+
+    Op(String name) {
+      numOps = Interns.info(name + "NumOps", "Number of " + name + " calls");
+      p50 = Interns.info(name + "P50Nanos", "50th percentile " + name + " latency");
+      p99 = Interns.info(name + "P99Nanos", "99th percentile " + name + " latency");
+      p999 = Interns.info(name + "P999Nanos", "99.9th percentile " + name + " latency");
+      max = Interns.info(name + "MaxNanos", "Max " + name + " latency");
+    }
+  }
+
+  private static final MetricsInfo RECORD_INFO =
+      Interns.info("WrapperFileSystem", "Latencies of the wrapper filesystem");
+  private static final MetricsInfo SCHEME_INFO = Interns.info("Scheme", "Filesystem scheme");
+  private static final MetricsInfo TAGS_INFO =
+      Interns.info("Tags", "Tags of the running task");
+  private static final MetricsInfo BYTES_READ_INFO =
+      Interns.info("BytesRead", "Bytes read from all streams");
+  private static final MetricsInfo READ_RATE_INFO =
+      Interns.info("ReadMBPerSec", "Read throughput since the previous snapshot");
+  private static final MetricsInfo VECTORED_RANGES_INFO =
+      Interns.info("VectoredRanges", "Ranges requested by vectored reads");
+  private static final MetricsInfo VECTORED_REQUESTS_INFO =
+      Interns.info("VectoredRequests", "Requests issued by vectored reads after coalescing");
+  private static final MetricsInfo SPLIT_READS_INFO =
+      Interns.info("SplitReads", "readFully calls split into parallel reads");
+  private static final MetricsInfo SPLIT_PARTS_INFO =
+      Interns.info("SplitParts", "Parallel reads issued for split readFully calls");
+  private static final MetricsInfo DELEGATE_SEEKS_INFO =
+      Interns.info("DelegateSeeks", "Seeks of the real streams of closed streams");
+  private static final MetricsInfo SEEKS_AVOIDED_INFO = Interns.info("SeeksAvoided",
+      "Seeks served from the seek window or by draining the real stream");
+  private static final MetricsInfo HEDGES_INFO =
+      Interns.info("Hedges", "Second reads issued for slow positional reads");
+  private static final MetricsInfo HEDGE_WINS_INFO =
+      Interns.info("HedgeWins", "Second reads which completed before the first one");
+  private static final MetricsInfo BYTES_WRITTEN_INFO =
+      Interns.info("BytesWritten", "Bytes written to all output streams");
+  private static final MetricsInfo WRITES_INFO =
+      Interns.info("Writes", "Write calls of all output streams");
+  private static final MetricsInfo WRITE_SIZE_P50_INFO =
+      Interns.info("WriteSizeP50Bytes", "50th percentile write size");
+  private static final MetricsInfo WRITE_SIZE_P99_INFO =
+      Interns.info("WriteSizeP99Bytes", "99th percentile write size");
+  private static final MetricsInfo WRITE_SIZE_MAX_INFO =
+      Interns.info("WriteSizeMaxBytes", "Max write size");
+
+  private final String scheme;
+  private final LatencyHistogram[] histograms;
+  private final AtomicLong bytesRead = new AtomicLong();
+  private final AtomicLong vectoredRanges = new AtomicLong();
+  private final AtomicLong vectoredRequests = new AtomicLong();
+  private final AtomicLong splitReads = new AtomicLong();
+  private final AtomicLong splitParts = new AtomicLong();
+  private final AtomicLong delegateSeeks = new AtomicLong();
+  private final AtomicLong seeksAvoided = new AtomicLong();
+  private final AtomicLong hedges = new AtomicLong();
+  private final AtomicLong hedgeWins = new AtomicLong();
+  private final AtomicLong bytesWritten = new AtomicLong();
+  private final LatencyHistogram writeSizes = new LatencyHistogram();
+  private volatile TraceTags tags;
+  private volatile int tagsId = TraceTags.NO_TAGS;
+
+  // state of the previous snapshot; guarded by this
+  private final long[][] previous;
+  private final long[] current = LatencyHistogram.newSnapshot();
+  private final long[] delta = LatencyHistogram.newSnapshot();
+  private final long[] previousWriteSizes = LatencyHistogram.newSnapshot();
+  private long previousBytesRead;
+  private long previousSnapshotTime = System.nanoTime();
+
+  WrapperMetrics(String scheme) {
+    this.scheme = scheme;
+    Op[] ops = Op.values();
+    this.histograms = new LatencyHistogram[ops.length];
+    this.previous = new long[ops.length][];
+    for (int i = 0; i < ops.length; i++) {
+      histograms[i] = new LatencyHistogram();
+      previous[i] = LatencyHistogram.newSnapshot();
+    }
+  }
+
+  /**
+   * @return metrics shared by all wrapper filesystems of the scheme, or null
+   * if disabled by fs.wrapper.metrics.enabled
+   */
+  public static WrapperMetrics get(Configuration conf, String scheme) {
+    if (!conf.getBoolean(METRICS_ENABLED, DEFAULT_METRICS_ENABLED)) {
+      return null;
+    }
+    synchronized (INSTANCES) {
+      WrapperMetrics metrics = INSTANCES.get(scheme);
+      if (metrics == null) {
+        metrics = new WrapperMetrics(scheme);
+        try {
+          if (conf.getBoolean(METRICS_INIT, DEFAULT_METRICS_INIT)) {
+            DefaultMetricsSystem.initialize(CONTEXT);
+          }
+          DefaultMetricsSystem.instance().register(SOURCE_PREFIX + scheme,
+              "Latencies of the " + scheme + " wrapper filesystem", metrics);
+        } catch (RuntimeException e) {
+          // histograms are still kept, they just can not be watched
+          LOG.warn("Unable to register metrics for " + scheme, e);
+        }
+        INSTANCES.put(scheme, metrics);
+      }
+      return metrics;
+    }
+  }
+
+  public void record(Op op, long timeInNanos) {
+    histograms[op.ordinal()].record(timeInNanos);
+  }
+
+  public void recordRead(Op op, long timeInNanos, long bytes) {
+    histograms[op.ordinal()].record(timeInNanos);
+    if (bytes > 0) {
+      bytesRead.addAndGet(bytes);
+    }
+  }
+
+  /**
+   * @param ranges   ranges the caller asked for
+   * @param requests reads issued for them; ranges - requests were saved
+   */
+  public void recordVectoredRead(long timeInNanos, long bytes, int ranges, int requests) {
+    recordRead(Op.READ_VECTORED, timeInNanos, bytes);
+    vectoredRanges.addAndGet(ranges);
+    vectoredRequests.addAndGet(requests);
+  }
+
+  public void recordSplitRead(int parts) {
+    splitReads.incrementAndGet();
+    splitParts.addAndGet(parts);
+  }
+
+  public void recordSeeks(long seeks, long avoided) {
+    delegateSeeks.addAndGet(seeks);
+    seeksAvoided.addAndGet(avoided);
+  }
+
+  public void recordWriteSize(int len) {
+    writeSizes.record(len);
+  }
+
+  /**
+   * @param bytes            bytes of a batch of writes
+   * @param singleByteWrites write(int) calls of the batch, whose sizes were
+   *                         not recorded one by one
+   */
+  public void recordWrite(long bytes, long singleByteWrites) {
+    bytesWritten.addAndGet(bytes);
+    if (singleByteWrites > 0) {
+      writeSizes.record(1, singleByteWrites);
+    }
+  }
+
+  public void recordHedge(boolean won) {
+    hedges.incrementAndGet();
+    if (won) {
+      hedgeWins.incrementAndGet();
+    }
+  }
+
+  /**
+   * @param tags   tags the record is tagged from, resolved at every snapshot
+   * @param tagsId tags of the filesystem initialized last, used until a task
+   *               sets its own (see {@link TraceTags#setCurrent})
+   */
+  public void setTags(TraceTags tags, int tagsId) {
+    this.tags = tags;
+    this.tagsId = tagsId;
+  }
+
+  public String getScheme() {
+    return scheme;
+  }
+
+  public LatencyHistogram getHistogram(Op op) {
+    return histograms[op.ordinal()];
+  }
+
+  private String currentTags() {
+    TraceTags traceTags = tags;
+    String current = (traceTags == null) ? null : traceTags.get(traceTags.resolve(tagsId));
+    return current == null ? "" : current;
+  }
+
+  @Override
+  public synchronized void getMetrics(MetricsCollector collector, boolean all) {
+    MetricsRecordBuilder rb = collector.addRecord(RECORD_INFO)
+        .setContext(CONTEXT)
+        .tag(SCHEME_INFO, scheme)
+        .tag(TAGS_INFO, currentTags());
+    for (Op op : Op.values()) {
+      long[] last = previous[op.ordinal()];
+      histograms[op.ordinal()].snapshot(current);
+      for (int i = 0; i < current.length; i++) {
+        delta[i] = current[i] - last[i];
+        last[i] = current[i];
+      }
+      long total = LatencyHistogram.count(delta);
+      rb.addCounter(op.numOps, LatencyHistogram.count(current))
+          .addGauge(op.p50, LatencyHistogram.valueAtQuantile(delta, total, 0.5))
+          .addGauge(op.p99, LatencyHistogram.valueAtQuantile(delta, total, 0.99))
+          .addGauge(op.p999, LatencyHistogram.valueAtQuantile(delta, total, 0.999))
+          .addGauge(op.max, LatencyHistogram.max(delta));
+    }
+    long now = System.nanoTime();
+    long bytes = bytesRead.get();
+    double seconds = (now - previousSnapshotTime) / 1e9;
+    double mbPerSec = seconds > 0 ? (bytes - previousBytesRead) / (1024.0 * 1024.0) / seconds : 0;
+    rb.addCounter(BYTES_READ_INFO, bytes)
+        .addGauge(READ_RATE_INFO, mbPerSec)
+        .addCounter(VECTORED_RANGES_INFO, vectoredRanges.get())
+        .addCounter(VECTORED_REQUESTS_INFO, vectoredRequests.get())
+        .addCounter(SPLIT_READS_INFO, splitReads.get())
+        .addCounter(SPLIT_PARTS_INFO, splitParts.get())
+        .addCounter(DELEGATE_SEEKS_INFO, delegateSeeks.get())
+        .addCounter(SEEKS_AVOIDED_INFO, seeksAvoided.get())
+        .addCounter(HEDGES_INFO, hedges.get())
+        .addCounter(HEDGE_WINS_INFO, hedgeWins.get());
+    writeSizes.snapshot(current);
+    for (int i = 0; i < current.length; i++) {
+      delta[i] = current[i] - previousWriteSizes[i];
+      previousWriteSizes[i] = current[i];
+    }
+    long writes = LatencyHistogram.count(delta);
+    rb.addCounter(BYTES_WRITTEN_INFO, bytesWritten.get())
+        .addCounter(WRITES_INFO, LatencyHistogram.count(current))
+        .addGauge(WRITE_SIZE_P50_INFO, LatencyHistogram.valueAtQuantile(delta, writes, 0.5))
+        .addGauge(WRITE_SIZE_P99_INFO, LatencyHistogram.valueAtQuantile(delta, writes, 0.99))
+        .addGauge(WRITE_SIZE_MAX_INFO, LatencyHistogram.max(delta));
+    previousBytesRead = bytes;
+    previousSnapshotTime = now;
+  }
+}
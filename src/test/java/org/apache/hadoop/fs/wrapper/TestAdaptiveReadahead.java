@@ -0,0 +1,231 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.fs.wrapper.AccessPatternClassifier.Pattern;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TestAdaptiveReadahead {
+
+  private static final int LENGTH = 64 * 1024;
+  private static final int MIN_WINDOW = 1024;
+  private static final int MAX_WINDOW = 8 * 1024;
+
+  @Test
+  public void testClassifier() {
+    AccessPatternClassifier classifier = new AccessPatternClassifier(100);
+    assertEquals(Pattern.RANDOM, classifier.record(0, 10));
+    assertEquals(Pattern.SEQUENTIAL, classifier.record(10, 10));
+    // a skip up to the gap is still sequential
+    assertEquals(Pattern.SEQUENTIAL, classifier.record(120, 10));
+    assertEquals(Pattern.RANDOM, classifier.record(1130, 10));
+    // the same skip again is a stride
+    assertEquals(Pattern.STRIDED, classifier.record(2140, 10));
+    assertEquals(Pattern.STRIDED, classifier.record(3150, 10));
+    assertEquals(Pattern.RANDOM, classifier.record(0, 10));
+    assertEquals(Pattern.RANDOM, classifier.getPattern());
+  }
+
+  @Test
+  public void testWindowGrowsWhileSequential() throws IOException {
+    CountingStream in = new CountingStream(LENGTH);
+    AdaptiveReadahead readahead = new AdaptiveReadahead(in, LENGTH, MIN_WINDOW, MAX_WINDOW);
+    // the first read is exact
+    long position = readAndCheck(readahead, 0, 256);
+    assertEquals(0, readahead.getWindow());
+    assertEquals(256, in.bytes);
+    int[] windows = { 1024, 2048, 4096, 8192, 8192 };
+    for (int window : windows) {
+      // one fill, then served from the buffer until it is used up
+      for (int i = 0; i < window / 256; i++) {
+        position = readAndCheck(readahead, position, 256);
+        assertEquals(window, readahead.getWindow());
+      }
+      assertEquals(position, in.bytes);
+    }
+    assertEquals(Pattern.SEQUENTIAL, readahead.getPattern());
+    assertEquals(6, in.reads);
+  }
+
+  @Test
+  public void testWindowDroppedOnRandomRead() throws IOException {
+    CountingStream in = new CountingStream(LENGTH);
+    AdaptiveReadahead readahead = new AdaptiveReadahead(in, LENGTH, MIN_WINDOW, MAX_WINDOW);
+    long position = readAndCheck(readahead, 0, 100);
+    position = readAndCheck(readahead, position, 100);
+    assertEquals(MIN_WINDOW, readahead.getWindow());
+    long bytes = in.bytes;
+
+    // backward: exactly the range, straight from the delegate
+    readAndCheck(readahead, 50 * 1024, 100);
+    readAndCheck(readahead, 10 * 1024, 100);
+    assertEquals(Pattern.RANDOM, readahead.getPattern());
+    assertEquals(0, readahead.getWindow());
+    assertEquals(bytes + 200, in.bytes);
+
+    // sequential again: the window starts over
+    readAndCheck(readahead, 10 * 1024 + 100, 100);
+    assertEquals(MIN_WINDOW, readahead.getWindow());
+  }
+
+  @Test
+  public void testHint() throws IOException {
+    CountingStream in = new CountingStream(LENGTH);
+    AdaptiveReadahead readahead = new AdaptiveReadahead(in, LENGTH, MIN_WINDOW, MAX_WINDOW);
+    readahead.setHint(0L);
+    long position = 0;
+    for (int i = 0; i < 10; i++) {
+      position = readAndCheck(readahead, position, 100);
+    }
+    assertEquals(0, readahead.getWindow());
+    assertEquals(1000, in.bytes);
+
+    readahead.setHint(16 * 1024L);
+    position = readAndCheck(readahead, position, 100);
+    assertEquals(16 * 1024, readahead.getWindow());
+    readahead.setHint(null);
+    readAndCheck(readahead, 40 * 1024, 100);
+    readAndCheck(readahead, 40 * 1024 + 100, 100);
+    assertEquals(MIN_WINDOW, readahead.getWindow());
+  }
+
+  @Test
+  public void testSeeksAvoided() throws IOException {
+    CountingStream in = new CountingStream(LENGTH);
+    AdaptiveReadahead readahead = new AdaptiveReadahead(in, LENGTH, MIN_WINDOW, MAX_WINDOW,
+        4096, 2048);
+    readahead.setHint(0L);
+    readAndCheck(readahead, 0, 1000);
+    // short forward seek: drained
+    readAndCheck(readahead, 2000, 1000);
+    // short backward seek: from the seek window
+    readAndCheck(readahead, 500, 1000);
+    assertEquals(0, readahead.getSeeks());
+    assertEquals(2, readahead.getSeeksAvoided());
+    // long forward seek
+    readAndCheck(readahead, 30000, 1000);
+    assertEquals(1, readahead.getSeeks());
+    assertEquals(1, in.seeks);
+  }
+
+  @Test
+  public void testReadFullyAndEndOfFile() throws IOException {
+    CountingStream in = new CountingStream(LENGTH);
+    AdaptiveReadahead readahead = new AdaptiveReadahead(in, LENGTH, MIN_WINDOW, MAX_WINDOW);
+    byte[] b = new byte[3000];
+    readahead.readFully(LENGTH - 6000, b, 0, 3000);
+    assertArrayEquals(expected(LENGTH - 6000, 3000), b);
+    readahead.readFully(LENGTH - 3000, b, 0, 3000);
+    assertArrayEquals(expected(LENGTH - 3000, 3000), b);
+    assertEquals(-1, readahead.read(LENGTH, b, 0, 10));
+  }
+
+  private static long readAndCheck(AdaptiveReadahead readahead, long position, int len)
+      throws IOException {
+    byte[] b = new byte[len];
+    int n = readahead.read(position, b, 0, len);
+    assertEquals(len, n);
+    assertArrayEquals(expected(position, len), b);
+    return position + n;
+  }
+
+  static byte[] expected(long position, int len) {
+    byte[] bytes = new byte[len];
+    for (int i = 0; i < len; i++) {
+      bytes[i] = CountingStream.byteAt(position + i);
+    }
+    return bytes;
+  }
+
+  /**
+   * In memory file which counts the reads and seeks of the stream.
+   */
+  static final class CountingStream extends FSInputStream {
+    private final long length;
+    private long pos;
+    int reads;
+    long bytes;
+    int seeks;
+
+    CountingStream(long length) {
+      this.length = length;
+    }
+
+    static byte byteAt(long position) {
+      return (byte) (position * 7 + (position >>> 10));
+    }
+
+    @Override
+    public int read() {
+      if (pos >= length) {
+        return -1;
+      }
+      reads++;
+      bytes++;
+      return byteAt(pos++) & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      int n = (int) Math.min(len, length - pos);
+      if (n <= 0) {
+        return -1;
+      }
+      for (int i = 0; i < n; i++) {
+        b[off + i] = byteAt(pos++);
+      }
+      reads++;
+      bytes += n;
+      return n;
+    }
+
+    @Override
+    public void seek(long pos) {
+      if (pos != this.pos) {
+        seeks++;
+      }
+      this.pos = pos;
+    }
+
+    @Override
+    public long getPos() {
+      return pos;
+    }
+
+    @Override
+    public boolean seekToNewSource(long targetPos) {
+      return false;
+    }
+
+    @Override
+    public int available() {
+      return (int) Math.min(Integer.MAX_VALUE, length - pos);
+    }
+  }
+}
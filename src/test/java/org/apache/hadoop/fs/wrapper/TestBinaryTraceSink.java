@@ -0,0 +1,210 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.parser.BinaryTraceReader;
+import org.apache.hadoop.fs.parser.Data;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestBinaryTraceSink {
+
+  private File dir;
+
+  @Before
+  public void setUp() {
+    dir = new File(System.getProperty("test.build.data", "target/test/data"),
+        "TestBinaryTraceSink");
+    FileUtil.fullyDelete(dir);
+  }
+
+  @After
+  public void tearDown() {
+    FileUtil.fullyDelete(dir);
+  }
+
+  @Test
+  public void testZigZag() {
+    long[] values = { 0, 1, -1, 63, -64, 64, Integer.MAX_VALUE, Integer.MIN_VALUE,
+        Long.MAX_VALUE, Long.MIN_VALUE };
+    for (long v : values) {
+      assertEquals(v, BinaryTraceFormat.unZigZag(BinaryTraceFormat.zigZag(v)));
+    }
+    // small magnitudes stay small, whatever the sign
+    assertEquals(0, BinaryTraceFormat.zigZag(0));
+    assertEquals(1, BinaryTraceFormat.zigZag(-1));
+    assertEquals(2, BinaryTraceFormat.zigZag(1));
+  }
+
+  @Test
+  public void testVarLongLength() {
+    BinaryTraceSink.SegmentBuffer buffer = new BinaryTraceSink.SegmentBuffer(16);
+    buffer.writeVarLong(127);
+    assertEquals(1, buffer.size());
+    buffer.reset();
+    buffer.writeVarLong(128);
+    assertEquals(2, buffer.size());
+    buffer.reset();
+    buffer.writeVarLong(-1);
+    assertEquals(10, buffer.size());
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    BinaryTraceSink sink = new BinaryTraceSink(files(), 64 * 1024);
+    sink.write(callSite(1, "a.B.c(B.java:1) <- a.D.e(D.java:2)"));
+    sink.write(fileSystemEvent(TraceOp.OPEN, "s3a://bucket/t/0", 1000, 1000L, 0, 1));
+    sink.write(streamEvent("s3a://bucket/t/0", 1000, 1001L, 0, 4096, -1, 4096, "seek"));
+    // position going backwards and values which need the full varint
+    sink.write(streamEvent("s3a://bucket/t/0", 999, 1002L, Long.MAX_VALUE, 0, 12, -1, null));
+    sink.close();
+
+    BinaryTraceReader reader = reader();
+    try {
+      Data open = reader.next();
+      assertEquals("open", open.getOperation());
+      assertEquals("10.0.0.1", open.getAddress());
+      assertEquals("s3a://bucket/t/0", open.getFileName());
+      assertEquals("hashCode_7", open.getHashCode());
+      assertEquals(1000, open.getTimestamp());
+      assertEquals(1000, open.getContentLen());
+      assertEquals("callSite_1", open.getMsg());
+      assertEquals(42, open.getThreadId());
+
+      Data read = reader.next();
+      assertEquals("read", read.getOperation());
+      assertEquals(1001, read.getTimestamp());
+      assertEquals(0, read.getOldPos());
+      assertEquals(4096, read.getRealPos());
+      assertEquals(-1, read.getPositionalRead());
+      assertEquals(4096, read.getRead());
+      assertEquals("seek", read.getMsg());
+
+      Data last = reader.next();
+      assertEquals(1002, last.getTimestamp());
+      assertEquals(999, last.getContentLen());
+      assertEquals(Long.MAX_VALUE, last.getOldPos());
+      assertEquals(0, last.getRealPos());
+      assertEquals(12, last.getPositionalRead());
+      assertNull(last.getMsg());
+
+      assertNull(reader.next());
+      assertEquals("a.B.c(B.java:1) <- a.D.e(D.java:2)", reader.getCallSites().get(1));
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testManySegments() throws IOException {
+    // segments are deflated one by one; make sure many of them read back in order
+    BinaryTraceSink sink = new BinaryTraceSink(files(), 256);
+    int events = 5000;
+    for (int i = 0; i < events; i++) {
+      sink.write(streamEvent("s3a://bucket/t/" + (i % 7), i, 1000L + i, i, i * 2L, -1, i, null));
+    }
+    sink.close();
+
+    BinaryTraceReader reader = reader();
+    try {
+      for (int i = 0; i < events; i++) {
+        Data data = reader.next();
+        assertNotNull("event " + i, data);
+        assertEquals("s3a://bucket/t/" + (i % 7), data.getFileName());
+        assertEquals(1000L + i, data.getTimestamp());
+        assertEquals(i * 2L, data.getRealPos());
+        assertEquals(i, data.getRead());
+      }
+      assertNull(reader.next());
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testIsBinaryTrace() throws IOException {
+    BinaryTraceSink sink = new BinaryTraceSink(files(), 1024);
+    File file = sink.getFile();
+    sink.close();
+    assertTrue(BinaryTraceReader.isBinaryTrace(file));
+    File empty = new File(dir, "empty");
+    assertTrue(empty.createNewFile());
+    assertFalse(BinaryTraceReader.isBinaryTrace(empty));
+  }
+
+  private RollingTraceFile files() {
+    return new RollingTraceFile(dir, "trace", "bin", 0, 0, 0);
+  }
+
+  private BinaryTraceReader reader() throws IOException {
+    File[] traces = dir.listFiles();
+    assertNotNull(traces);
+    assertEquals(1, traces.length);
+    return new BinaryTraceReader(new FileInputStream(traces[0]));
+  }
+
+  private static TraceEvent callSite(int id, String frames) {
+    TraceEvent event = new TraceEvent();
+    event.kind = TraceEvent.Kind.CALL_SITE;
+    event.id = id;
+    event.msg = frames;
+    return event;
+  }
+
+  private static TraceEvent fileSystemEvent(TraceOp op, String path, long contentLen,
+      long timestamp, long timeInNanos, int callSiteId) {
+    TraceEvent event = new TraceEvent();
+    event.kind = TraceEvent.Kind.FILE_SYSTEM;
+    event.op = op;
+    event.id = 7;
+    event.address = "10.0.0.1";
+    event.path = path;
+    event.contentLen = contentLen;
+    event.timestamp = timestamp;
+    event.timeInNanos = timeInNanos;
+    event.callSiteId = callSiteId;
+    event.threadId = 42;
+    return event;
+  }
+
+  private static TraceEvent streamEvent(String path, long contentLen, long timestamp,
+      long oldPos, long newPos, long positionalRead, long bytes, String msg) {
+    TraceEvent event = fileSystemEvent(TraceOp.READ, path, contentLen, timestamp, 1234,
+        CallSiteTable.NO_CALL_SITE);
+    event.kind = TraceEvent.Kind.INPUT_STREAM;
+    event.oldPos = oldPos;
+    event.newPos = newPos;
+    event.positionalRead = positionalRead;
+    event.bytes = bytes;
+    event.msg = msg;
+    return event;
+  }
+}
@@ -0,0 +1,285 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestDiskBlockCache {
+
+  private static final int BLOCK = 1024;
+  // two and a half blocks
+  private static final FileVersion FILE = new FileVersion("s3a://bucket/f", 2 * BLOCK + 512, 1);
+
+  private final List<DiskBlockCache> caches = new ArrayList<DiskBlockCache>();
+  private File dir;
+
+  @Before
+  public void setUp() {
+    dir = new File(System.getProperty("test.build.data", "target/test/data"),
+        "TestDiskBlockCache");
+    FileUtil.fullyDelete(dir);
+  }
+
+  @After
+  public void tearDown() {
+    for (DiskBlockCache cache : caches) {
+      cache.close();
+    }
+    FileUtil.fullyDelete(dir);
+  }
+
+  @Test
+  public void testConcurrentReadersLoadOnce() throws Exception {
+    final DiskBlockCache cache = cache(10 * BLOCK);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountingLoader loader = new CountingLoader(release);
+    int readers = 8;
+    final byte[][] read = new byte[readers][];
+    final AtomicInteger failures = new AtomicInteger();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < readers; i++) {
+      final int reader = i;
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            read[reader] = read(cache, loader, 1, BLOCK, 0, BLOCK);
+          } catch (IOException e) {
+            failures.incrementAndGet();
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    // everybody but the loading reader waits for its load
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (cache.getWaits() < readers - 1 && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+    release.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, failures.get());
+    assertEquals(1, loader.loads.get());
+    assertEquals(1, cache.getMisses());
+    assertEquals(readers - 1, cache.getWaits());
+    for (byte[] bytes : read) {
+      assertArrayEquals(expected(BLOCK, BLOCK), bytes);
+    }
+  }
+
+  @Test
+  public void testEvictionUnderBudget() throws IOException {
+    DiskBlockCache cache = cache(3 * BLOCK);
+    CountingLoader loader = new CountingLoader(null);
+    FileVersion big = new FileVersion("s3a://bucket/big", 10 * BLOCK, 1);
+    for (int i = 0; i < 5; i++) {
+      read(cache, loader, big, i, BLOCK, 0, BLOCK);
+    }
+    assertEquals(5, loader.loads.get());
+    assertEquals(2, cache.getEvictions());
+    assertEquals(3, blockFiles(dir).size());
+    // the least recently used blocks went; the last ones are hits
+    read(cache, loader, big, 4, BLOCK, 0, BLOCK);
+    read(cache, loader, big, 3, BLOCK, 0, BLOCK);
+    assertEquals(5, loader.loads.get());
+    read(cache, loader, big, 0, BLOCK, 0, BLOCK);
+    assertEquals(6, loader.loads.get());
+    assertEquals(3, blockFiles(dir).size());
+  }
+
+  @Test
+  public void testIndexRebuiltAfterRestart() throws IOException {
+    DiskBlockCache cache = cache(10 * BLOCK);
+    CountingLoader loader = new CountingLoader(null);
+    read(cache, loader, 0, BLOCK, 0, BLOCK);
+    read(cache, loader, 2, 512, 0, 512);
+    assertEquals(2, loader.loads.get());
+    cache.close();
+    // an incomplete block of the previous JVM
+    File tmp = new File(dir, "x.1-2.3.tmp");
+    assertTrue(tmp.createNewFile());
+
+    DiskBlockCache restarted = cache(10 * BLOCK);
+    CountingLoader failing = new CountingLoader(null);
+    failing.fail = true;
+    assertArrayEquals(expected(0, BLOCK), read(restarted, failing, 0, BLOCK, 0, BLOCK));
+    assertArrayEquals(expected(2 * BLOCK + 100, 412), read(restarted, failing, 2, 512, 100, 412));
+    assertEquals(2, restarted.getHits());
+    assertFalse(tmp.exists());
+  }
+
+  @Test
+  public void testReadPastTruncatedLastBlock() throws IOException {
+    DiskBlockCache cache = cache(10 * BLOCK);
+    CountingLoader loader = new CountingLoader(null);
+    // the partial last block, read from an offset
+    assertArrayEquals(expected(2 * BLOCK + 300, 212), read(cache, loader, 2, 512, 300, 212));
+    assertArrayEquals(expected(2 * BLOCK, 512), read(cache, loader, 2, 512, 0, 512));
+    assertEquals(1, loader.loads.get());
+    cache.close();
+    List<File> files = blockFiles(dir);
+    assertEquals(1, files.size());
+    RandomAccessFile raf = new RandomAccessFile(files.get(0), "rw");
+    try {
+      raf.setLength(100);
+    } finally {
+      raf.close();
+    }
+
+    // a read past the end of the mapping is a miss, not garbage
+    DiskBlockCache restarted = cache(10 * BLOCK);
+    assertArrayEquals(expected(2 * BLOCK + 50, 462), read(restarted, loader, 2, 512, 50, 462));
+    assertEquals(2, loader.loads.get());
+    assertArrayEquals(expected(2 * BLOCK + 50, 462), read(restarted, loader, 2, 512, 50, 462));
+    assertEquals(2, loader.loads.get());
+  }
+
+  @Test
+  public void testDirectoryOfAnotherJvm() throws IOException {
+    DiskBlockCache first = cache(10 * BLOCK);
+    DiskBlockCache second = cache(10 * BLOCK);
+    CountingLoader loader = new CountingLoader(null);
+    read(first, loader, 0, BLOCK, 0, BLOCK);
+    read(second, loader, 0, BLOCK, 0, BLOCK);
+    // the second cache neither sees nor evicts the blocks of the first
+    assertEquals(2, loader.loads.get());
+    assertEquals(1, blockFiles(dir).size());
+    assertEquals(1, blockFiles(new File(dir, "1")).size());
+  }
+
+  @Test
+  public void testFailedLoadIsNotCached() throws IOException {
+    DiskBlockCache cache = cache(10 * BLOCK);
+    CountingLoader loader = new CountingLoader(null);
+    loader.fail = true;
+    try {
+      read(cache, loader, 0, BLOCK, 0, BLOCK);
+      fail("Load did not fail");
+    } catch (IOException e) {
+      // expected
+    }
+    assertEquals(0, blockFiles(dir).size());
+    loader.fail = false;
+    assertArrayEquals(expected(0, BLOCK), read(cache, loader, 0, BLOCK, 0, BLOCK));
+    assertEquals(2, loader.loads.get());
+    assertEquals(1, blockFiles(dir).size());
+  }
+
+  private DiskBlockCache cache(long capacity) throws IOException {
+    DiskBlockCache cache = new DiskBlockCache(new File[] { dir }, capacity, BLOCK);
+    caches.add(cache);
+    return cache;
+  }
+
+  private static byte[] read(BlockCache cache, BlockCache.Loader loader, long index,
+      int blockLength, int offsetInBlock, int len) throws IOException {
+    return read(cache, loader, FILE, index, blockLength, offsetInBlock, len);
+  }
+
+  static byte[] read(BlockCache cache, BlockCache.Loader loader, FileVersion file, long index,
+      int blockLength, int offsetInBlock, int len) throws IOException {
+    ByteBuffer dst = ByteBuffer.allocate(len);
+    assertEquals(len, cache.read(file, index, blockLength, loader, offsetInBlock, dst));
+    assertEquals(len, dst.position());
+    return dst.array();
+  }
+
+  /**
+   * @return bytes of the file at position
+   */
+  static byte[] expected(long position, int len) {
+    byte[] bytes = new byte[len];
+    for (int i = 0; i < len; i++) {
+      bytes[i] = CountingLoader.byteAt(position + i);
+    }
+    return bytes;
+  }
+
+  private static List<File> blockFiles(File dir) {
+    List<File> files = new ArrayList<File>();
+    File[] listed = dir.listFiles();
+    if (listed != null) {
+      for (File file : listed) {
+        if (file.getName().endsWith(".blk")) {
+          files.add(file);
+        }
+      }
+    }
+    return files;
+  }
+
+  /**
+   * Loads the bytes of a made up file and counts the loads, optionally
+   * waiting for a latch first.
+   */
+  static final class CountingLoader implements BlockCache.Loader {
+    final AtomicInteger loads = new AtomicInteger();
+    private final CountDownLatch release;
+    volatile boolean fail;
+
+    CountingLoader(CountDownLatch release) {
+      this.release = release;
+    }
+
+    static byte byteAt(long position) {
+      return (byte) (position * 31 + (position >>> 8));
+    }
+
+    @Override
+    public void load(long position, ByteBuffer dst) throws IOException {
+      loads.incrementAndGet();
+      if (release != null) {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+      }
+      if (fail) {
+        throw new IOException("Load at " + position + " failed");
+      }
+      while (dst.hasRemaining()) {
+        dst.put(byteAt(position++));
+      }
+    }
+  }
+}
@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestFileStatusCache {
+
+  @Test
+  public void testGetAndExpiry() throws InterruptedException {
+    FileStatusCache cache = new FileStatusCache(50, 100);
+    cache.put(file("s3a://bucket/a/f", 10));
+    assertEquals(10, cache.get(new Path("s3a://bucket/a/f")).getLen());
+    assertNull(cache.get(new Path("s3a://bucket/a/g")));
+    Thread.sleep(100);
+    assertNull(cache.get(new Path("s3a://bucket/a/f")));
+    assertEquals(0, cache.size());
+    assertEquals(1, cache.getHits());
+    assertEquals(2, cache.getMisses());
+  }
+
+  @Test
+  public void testRecursiveInvalidate() {
+    FileStatusCache cache = new FileStatusCache(60000, 100);
+    String[] paths = { "s3a://bucket/a", "s3a://bucket/a/b", "s3a://bucket/a/b/c",
+        "s3a://bucket/a/b/c/d", "s3a://bucket/a/b0", "s3a://bucket/a/b-1", "s3a://bucket/a/bc",
+        "s3a://bucket/a/b.txt" };
+    for (String path : paths) {
+      cache.put(file(path, 1));
+    }
+    cache.invalidate(new Path("s3a://bucket/a/b"), true);
+    assertNull(cache.get(new Path("s3a://bucket/a/b")));
+    assertNull(cache.get(new Path("s3a://bucket/a/b/c")));
+    assertNull(cache.get(new Path("s3a://bucket/a/b/c/d")));
+    // siblings sharing the prefix stay
+    assertNotNull(cache.get(new Path("s3a://bucket/a")));
+    assertNotNull(cache.get(new Path("s3a://bucket/a/b0")));
+    assertNotNull(cache.get(new Path("s3a://bucket/a/b-1")));
+    assertNotNull(cache.get(new Path("s3a://bucket/a/bc")));
+    assertNotNull(cache.get(new Path("s3a://bucket/a/b.txt")));
+    assertEquals(5, cache.size());
+
+    cache.invalidate(new Path("s3a://bucket/a"), false);
+    assertNull(cache.get(new Path("s3a://bucket/a")));
+    assertNotNull(cache.get(new Path("s3a://bucket/a/bc")));
+
+    cache.invalidate(new Path("s3a://bucket/"), true);
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testEviction() {
+    FileStatusCache cache = new FileStatusCache(60000, 100);
+    for (int i = 0; i < 1000; i++) {
+      cache.put(file("s3a://bucket/t/" + i, i));
+    }
+    assertEquals(cache.size(), countCached(cache, 1000));
+    // the last put is always kept
+    assertEquals(999, cache.get(new Path("s3a://bucket/t/999")).getLen());
+    assertTrue(cache.size() <= 100);
+  }
+
+  private static int countCached(FileStatusCache cache, int n) {
+    int cached = 0;
+    for (int i = 0; i < n; i++) {
+      if (cache.get(new Path("s3a://bucket/t/" + i)) != null) {
+        cached++;
+      }
+    }
+    return cached;
+  }
+
+  private static FileStatus file(String path, long len) {
+    return new FileStatus(len, false, 1, 1024, 0, new Path(path));
+  }
+}
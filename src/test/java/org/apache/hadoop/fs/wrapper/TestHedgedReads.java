@@ -0,0 +1,204 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestHedgedReads {
+
+  private static final int LENGTH = 64 * 1024;
+  private static final int PERMITS = 4;
+
+  private final CountDownLatch slow = new CountDownLatch(1);
+  private final List<DelayedStream> opened = new ArrayList<DelayedStream>();
+  private final Semaphore permits = new Semaphore(PERMITS);
+  private DelayedStream delegate;
+  private HedgedReads hedgedReads;
+  private TracingInputStream in;
+
+  @Before
+  public void setUp() {
+    delegate = new DelayedStream();
+    hedgedReads = new HedgedReads(ReadExecutor.getHedgeExecutor(8), 0.95, 10, 100, LENGTH,
+        30000);
+    in = new TracingInputStream(new FSDataInputStream(delegate), new Path("s3a://bucket/f"),
+        LENGTH, "127.0.0.1", false, false);
+    in.enableParallelReads(new StreamOpener() {
+      @Override
+      public FSDataInputStream open() throws IOException {
+        DelayedStream stream = new DelayedStream();
+        synchronized (opened) {
+          opened.add(stream);
+        }
+        return new FSDataInputStream(stream);
+      }
+    }, ReadExecutor.get(4), 2, permits);
+    in.enableHedgedReads(hedgedReads);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    slow.countDown();
+    in.close();
+  }
+
+  @Test
+  public void testHedgeWinsAndTakesOverPositionalReads() throws IOException {
+    delegate.blocked = true;
+    byte[] b = new byte[100];
+    long start = System.nanoTime();
+    assertEquals(100, in.read(1000, b, 0, 100));
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+    assertContent(1000, b);
+    assertEquals(1, hedgedReads.getHedges());
+    assertEquals(1, hedgedReads.getHedgeWins());
+    assertEquals(1, opened.size());
+
+    // the next reads go to the stream of the hedge, not behind the blocked read
+    for (int i = 0; i < 5; i++) {
+      in.readFully(2000 + i, b);
+      assertContent(2000 + i, b);
+    }
+    assertEquals(1, delegate.preads.get());
+    assertEquals(6, opened.get(0).preads.get());
+    assertEquals(1, hedgedReads.getHedges());
+
+    slow.countDown();
+    in.close();
+    assertTrue(opened.get(0).closed);
+    assertEquals(PERMITS, permits.availablePermits());
+  }
+
+  @Test
+  public void testFastReadsAreNotHedged() throws IOException {
+    byte[] b = new byte[100];
+    for (int i = 0; i < 20; i++) {
+      in.readFully(i * 100, b);
+      assertContent(i * 100, b);
+    }
+    assertEquals(20, delegate.preads.get());
+    assertEquals(0, hedgedReads.getHedges());
+    assertEquals(0, opened.size());
+  }
+
+  @Test
+  public void testReadsInPlaceWithoutStreams() throws IOException {
+    permits.drainPermits();
+    delegate.delayMs = 50;
+    byte[] b = new byte[100];
+    assertEquals(100, in.read(500, b, 0, 100));
+    assertContent(500, b);
+    assertEquals(0, hedgedReads.getHedges());
+    assertEquals(0, opened.size());
+  }
+
+  private static void assertContent(long position, byte[] b) {
+    for (int i = 0; i < b.length; i++) {
+      assertEquals("byte " + (position + i), (byte) (position + i), b[i]);
+    }
+  }
+
+  /**
+   * Stream of a file whose byte at i is (byte) i, with positional reads which
+   * are delayed, or blocked until the test ends.
+   */
+  private final class DelayedStream extends FSInputStream {
+    private final AtomicInteger preads = new AtomicInteger();
+    private volatile boolean blocked;
+    private volatile long delayMs;
+    private volatile boolean closed;
+    private long pos;
+
+    @Override
+    public int read(long position, byte[] b, int off, int len) throws IOException {
+      preads.incrementAndGet();
+      try {
+        if (blocked) {
+          slow.await();
+        } else if (delayMs > 0) {
+          Thread.sleep(delayMs);
+        }
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("Interrupted read");
+      }
+      if (closed) {
+        throw new IOException("Stream is closed");
+      }
+      int n = (int) Math.min(len, LENGTH - position);
+      if (n <= 0) {
+        return -1;
+      }
+      for (int i = 0; i < n; i++) {
+        b[off + i] = (byte) (position + i);
+      }
+      return n;
+    }
+
+    @Override
+    public void readFully(long position, byte[] b, int off, int len) throws IOException {
+      if (read(position, b, off, len) != len) {
+        throw new EOFException("Reading past the end");
+      }
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+      return (pos < LENGTH) ? (byte) pos++ & 0xff : -1;
+    }
+
+    @Override
+    public synchronized void seek(long pos) {
+      this.pos = pos;
+    }
+
+    @Override
+    public synchronized long getPos() {
+      return pos;
+    }
+
+    @Override
+    public boolean seekToNewSource(long targetPos) {
+      return false;
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+}
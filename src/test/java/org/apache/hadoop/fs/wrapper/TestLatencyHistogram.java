@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestLatencyHistogram {
+
+  @Test
+  public void testBucketBounds() {
+    // every value maps to a bucket whose upper bound is at most ~3% above it
+    long[] values = { 0, 1, 31, 32, 33, 63, 64, 1000, 123456789, Long.MAX_VALUE };
+    for (long v : values) {
+      int index = LatencyHistogram.index(v);
+      assertTrue(index >= 0 && index < LatencyHistogram.BUCKETS);
+      long high = LatencyHistogram.highestValue(index);
+      assertTrue(v + " <= " + high, v <= high);
+      assertTrue(v + " ~ " + high, high - v <= v / LatencyHistogram.SUB_BUCKETS);
+    }
+    assertEquals(0, LatencyHistogram.index(-5));
+  }
+
+  @Test
+  public void testIndexIsMonotonic() {
+    int last = -1;
+    for (long v = 0; v < 1 << 20; v++) {
+      int index = LatencyHistogram.index(v);
+      assertTrue(index == last || index == last + 1);
+      last = index;
+    }
+  }
+
+  @Test
+  public void testQuantiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int v = 1; v <= 1000; v++) {
+      histogram.record(v);
+    }
+    long[] snapshot = LatencyHistogram.newSnapshot();
+    histogram.snapshot(snapshot);
+    long total = LatencyHistogram.count(snapshot);
+    assertEquals(1000, total);
+    assertApprox(500, LatencyHistogram.valueAtQuantile(snapshot, total, 0.5));
+    assertApprox(950, LatencyHistogram.valueAtQuantile(snapshot, total, 0.95));
+    assertApprox(990, LatencyHistogram.valueAtQuantile(snapshot, total, 0.99));
+    assertApprox(1000, LatencyHistogram.valueAtQuantile(snapshot, total, 1.0));
+    assertApprox(1000, LatencyHistogram.max(snapshot));
+    assertEquals(1, LatencyHistogram.valueAtQuantile(snapshot, total, 0));
+  }
+
+  @Test
+  public void testRecordWithCount() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(10, 99);
+    histogram.record(100000);
+    long[] snapshot = LatencyHistogram.newSnapshot();
+    histogram.snapshot(snapshot);
+    long total = LatencyHistogram.count(snapshot);
+    assertEquals(100, total);
+    assertEquals(10, LatencyHistogram.valueAtQuantile(snapshot, total, 0.99));
+    assertApprox(100000, LatencyHistogram.valueAtQuantile(snapshot, total, 0.999));
+  }
+
+  @Test
+  public void testEmpty() {
+    long[] snapshot = LatencyHistogram.newSnapshot();
+    new LatencyHistogram().snapshot(snapshot);
+    assertEquals(0, LatencyHistogram.count(snapshot));
+    assertEquals(0, LatencyHistogram.valueAtQuantile(snapshot, 0, 0.5));
+    assertEquals(0, LatencyHistogram.max(snapshot));
+  }
+
+  private static void assertApprox(long expected, long actual) {
+    assertTrue(expected + " ~ " + actual,
+        actual >= expected && actual - expected <= expected / LatencyHistogram.SUB_BUCKETS);
+  }
+}
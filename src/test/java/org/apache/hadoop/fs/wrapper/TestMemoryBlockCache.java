@@ -0,0 +1,223 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.wrapper.TestDiskBlockCache.CountingLoader;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.apache.hadoop.fs.wrapper.TestDiskBlockCache.expected;
+import static org.apache.hadoop.fs.wrapper.TestDiskBlockCache.read;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TestMemoryBlockCache {
+
+  private static final int BLOCK = 1024;
+  private static final FileVersion FILE = new FileVersion("s3a://bucket/f", 64 * BLOCK, 1);
+
+  @Test
+  public void testConcurrentReadersLoadOnce() throws Exception {
+    final MemoryBlockCache cache = new MemoryBlockCache(4 * BLOCK, BLOCK, null);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountingLoader loader = new CountingLoader(release);
+    int readers = 8;
+    final byte[][] read = new byte[readers][];
+    final AtomicInteger failures = new AtomicInteger();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < readers; i++) {
+      final int reader = i;
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            read[reader] = read(cache, loader, FILE, 3, BLOCK, 100, 200);
+          } catch (IOException e) {
+            failures.incrementAndGet();
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (cache.getWaits() < readers - 1 && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+    release.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, failures.get());
+    assertEquals(1, loader.loads.get());
+    assertEquals(1, cache.getMisses());
+    for (byte[] bytes : read) {
+      assertArrayEquals(expected(3 * BLOCK + 100, 200), bytes);
+    }
+  }
+
+  @Test
+  public void testClockEviction() throws IOException {
+    MemoryBlockCache cache = new MemoryBlockCache(4 * BLOCK, BLOCK, null);
+    CountingLoader loader = new CountingLoader(null);
+    for (int i = 0; i < 4; i++) {
+      read(cache, loader, FILE, i, BLOCK, 0, BLOCK);
+    }
+    // all referenced: the hand clears every bit and takes the first slab
+    read(cache, loader, FILE, 4, BLOCK, 0, BLOCK);
+    assertEquals(1, cache.getEvictions());
+    // blocks hit since are passed over, block 3 is the only one which was not
+    read(cache, loader, FILE, 1, BLOCK, 0, BLOCK);
+    read(cache, loader, FILE, 2, BLOCK, 0, BLOCK);
+    assertEquals(5, loader.loads.get());
+    read(cache, loader, FILE, 5, BLOCK, 0, BLOCK);
+    assertEquals(2, cache.getEvictions());
+    for (int i : new int[] { 1, 2, 4, 5 }) {
+      assertArrayEquals(expected(i * BLOCK, BLOCK), read(cache, loader, FILE, i, BLOCK, 0, BLOCK));
+    }
+    assertEquals(6, loader.loads.get());
+    read(cache, loader, FILE, 3, BLOCK, 0, BLOCK);
+    assertEquals(7, loader.loads.get());
+  }
+
+  @Test
+  public void testSlabsReused() throws IOException {
+    MemoryBlockCache cache = new MemoryBlockCache(4 * BLOCK, BLOCK, null);
+    CountingLoader loader = new CountingLoader(null);
+    for (int i = 0; i < 20; i++) {
+      assertArrayEquals(expected(i * BLOCK, BLOCK), read(cache, loader, FILE, i, BLOCK, 0, BLOCK));
+    }
+    assertEquals(16, cache.getEvictions());
+    assertEquals(4 * BLOCK, cache.getUsed());
+  }
+
+  @Test
+  public void testPartialLastBlock() throws IOException {
+    MemoryBlockCache cache = new MemoryBlockCache(4 * BLOCK, BLOCK, null);
+    CountingLoader loader = new CountingLoader(null);
+    FileVersion file = new FileVersion("s3a://bucket/g", 2 * BLOCK + 512, 1);
+    assertArrayEquals(expected(2 * BLOCK + 300, 212), read(cache, loader, file, 2, 512, 300, 212));
+    // a slab of a full block which holds 512 bytes
+    assertEquals(512, cache.getUsed());
+    assertArrayEquals(expected(2 * BLOCK, 512), read(cache, loader, file, 2, 512, 0, 512));
+    assertEquals(1, loader.loads.get());
+    assertEquals(1, cache.getHits());
+  }
+
+  @Test
+  public void testWithoutSlabs() throws IOException {
+    // smaller than a block: every read goes to the loader
+    MemoryBlockCache cache = new MemoryBlockCache(BLOCK - 1, BLOCK, null);
+    CountingLoader loader = new CountingLoader(null);
+    for (int i = 0; i < 3; i++) {
+      assertArrayEquals(expected(BLOCK + 10, 100), read(cache, loader, FILE, 1, BLOCK, 10, 100));
+    }
+    assertEquals(3, loader.loads.get());
+    assertEquals(0, cache.getUsed());
+  }
+
+  @Test
+  public void testFailedLoadFreesSlab() throws IOException {
+    MemoryBlockCache cache = new MemoryBlockCache(BLOCK, BLOCK, null);
+    CountingLoader loader = new CountingLoader(null);
+    loader.fail = true;
+    try {
+      read(cache, loader, FILE, 0, BLOCK, 0, BLOCK);
+      fail("Load did not fail");
+    } catch (IOException e) {
+      // expected
+    }
+    loader.fail = false;
+    read(cache, loader, FILE, 0, BLOCK, 0, BLOCK);
+    read(cache, loader, FILE, 0, BLOCK, 0, BLOCK);
+    assertEquals(2, loader.loads.get());
+    assertEquals(BLOCK, cache.getUsed());
+    assertEquals(0, cache.getEvictions());
+  }
+
+  @Test
+  public void testNextTier() throws IOException {
+    File dir = new File(System.getProperty("test.build.data", "target/test/data"),
+        "TestMemoryBlockCache");
+    FileUtil.fullyDelete(dir);
+    DiskBlockCache disk = new DiskBlockCache(new File[] { dir }, 10 * BLOCK, BLOCK);
+    try {
+      MemoryBlockCache cache = new MemoryBlockCache(BLOCK, BLOCK, disk);
+      CountingLoader loader = new CountingLoader(null);
+      read(cache, loader, FILE, 0, BLOCK, 0, BLOCK);
+      read(cache, loader, FILE, 1, BLOCK, 0, BLOCK);
+      // evicted from memory, still on disk
+      assertArrayEquals(expected(0, BLOCK), read(cache, loader, FILE, 0, BLOCK, 0, BLOCK));
+      assertEquals(2, loader.loads.get());
+      assertEquals(1, disk.getHits());
+    } finally {
+      disk.close();
+      FileUtil.fullyDelete(dir);
+    }
+  }
+
+  @Test
+  public void testConcurrentReadsUnderEviction() throws Exception {
+    // readers of any block copy it while other blocks take the slabs over
+    final MemoryBlockCache cache = new MemoryBlockCache(4 * BLOCK, BLOCK, null);
+    final CountingLoader loader = new CountingLoader(null);
+    final AtomicInteger mismatches = new AtomicInteger();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 8; t++) {
+      final Random random = new Random(t);
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < 500; i++) {
+              int index = random.nextInt(16);
+              int offset = random.nextInt(BLOCK);
+              int len = 1 + random.nextInt(BLOCK - offset);
+              byte[] bytes = read(cache, loader, FILE, index, BLOCK, offset, len);
+              if (!Arrays.equals(expected(index * BLOCK + offset, len), bytes)) {
+                mismatches.incrementAndGet();
+              }
+            }
+          } catch (IOException | AssertionError e) {
+            mismatches.incrementAndGet();
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, mismatches.get());
+    assertEquals(4 * BLOCK, cache.getUsed());
+  }
+}
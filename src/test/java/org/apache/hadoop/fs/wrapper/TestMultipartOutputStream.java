@@ -0,0 +1,267 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestMultipartOutputStream {
+
+  private static final Path PATH = new Path("s3a://bucket/dir/file");
+  private static final int PART_SIZE = 100;
+  private static final int BUFFERS = 4;
+
+  private final InMemoryUploader uploader = new InMemoryUploader();
+  // upload threads whose part failed wait for this, if holdFailedThreads
+  private final CountDownLatch failedThreads = new CountDownLatch(1);
+  private volatile boolean holdFailedThreads;
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    executor = new ThreadPoolExecutor(2, 2, 0, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>()) {
+      @Override
+      protected void afterExecute(Runnable r, Throwable t) {
+        if (holdFailedThreads && uploader.failedHere.get()) {
+          try {
+            failedThreads.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+    };
+  }
+
+  @After
+  public void tearDown() {
+    failedThreads.countDown();
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testSmallFileIsPut() throws IOException {
+    MultipartOutputStream out = newStream();
+    byte[] data = bytes(0, 42);
+    out.write(data);
+    out.close();
+    assertArrayEquals(data, uploader.files.get(PATH));
+    assertEquals(0, uploader.started);
+    assertEquals(BUFFERS, out.getFreeBuffers());
+  }
+
+  @Test
+  public void testPartsAreCompletedInOrder() throws IOException {
+    MultipartOutputStream out = newStream();
+    byte[] data = bytes(0, 3 * PART_SIZE + 17);
+    // writes across part boundaries
+    out.write(data, 0, 150);
+    out.write(data[150]);
+    out.write(data, 151, data.length - 151);
+    out.close();
+    assertArrayEquals(data, uploader.files.get(PATH));
+    assertEquals(1, uploader.started);
+    assertEquals(BUFFERS, out.getFreeBuffers());
+    // closing again does nothing
+    out.close();
+  }
+
+  @Test
+  public void testAbortWaitsForUploadingParts() throws Exception {
+    final MultipartOutputStream out = newStream();
+    // part 1 fails once released and keeps its thread, part 2 uploads until
+    // released, part 3 waits for a thread and is dropped by the abort
+    holdFailedThreads = true;
+    uploader.failing = 1;
+    uploader.blocked.put(1, new CountDownLatch(1));
+    uploader.blocked.put(2, new CountDownLatch(1));
+    out.write(bytes(0, 3 * PART_SIZE));
+    Future<Void> close = Executors.newSingleThreadExecutor().submit(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        out.close();
+        return null;
+      }
+    });
+    uploader.blocked.get(1).countDown();
+    // the abort waits for part 2
+    Thread.sleep(200);
+    assertFalse(close.isDone());
+    assertEquals(Arrays.asList("part 1 failed"), uploader.events());
+    uploader.blocked.get(2).countDown();
+    try {
+      close.get(10, TimeUnit.SECONDS);
+      fail("Failed part not reported");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+    assertEquals(Arrays.asList("part 1 failed", "part 2 uploaded", "aborted"),
+        uploader.events());
+    assertNull(uploader.files.get(PATH));
+    assertEquals(BUFFERS, out.getFreeBuffers());
+  }
+
+  @Test
+  public void testFailedPartFailsNextWrite() throws Exception {
+    MultipartOutputStream out = newStream();
+    uploader.failing = 1;
+    out.write(bytes(0, PART_SIZE));
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    try {
+      out.write(1);
+      fail("Failed part not reported");
+    } catch (IOException e) {
+      // expected
+    }
+    assertEquals(Arrays.asList("part 1 failed", "aborted"), uploader.events());
+    try {
+      out.write(1);
+      fail("Aborted stream written");
+    } catch (IOException e) {
+      // expected
+    }
+    out.close();
+    assertNull(uploader.files.get(PATH));
+    assertEquals(BUFFERS, out.getFreeBuffers());
+  }
+
+  private MultipartOutputStream newStream() {
+    return new MultipartOutputStream(uploader, PATH, PART_SIZE, BUFFERS, executor);
+  }
+
+  private static byte[] bytes(int from, int n) {
+    byte[] b = new byte[n];
+    for (int i = 0; i < n; i++) {
+      b[i] = (byte) (from + i);
+    }
+    return b;
+  }
+
+  /**
+   * Stand-in for a store: completed uploads and puts become files in memory.
+   */
+  private static final class InMemoryUploader implements MultipartUploader {
+    private final Map<Path, byte[]> files = new ConcurrentHashMap<Path, byte[]>();
+    private final Map<Integer, CountDownLatch> blocked =
+        new ConcurrentHashMap<Integer, CountDownLatch>();
+    private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+    private final ThreadLocal<Boolean> failedHere = new ThreadLocal<Boolean>() {
+      @Override
+      protected Boolean initialValue() {
+        return false;
+      }
+    };
+    private volatile int failing;
+    private volatile int started;
+
+    @Override
+    public void initialize(FileSystem fs, Configuration conf) {
+    }
+
+    @Override
+    public int getMinPartSize() {
+      return 1;
+    }
+
+    @Override
+    public void put(Path path, byte[] data, int len) {
+      files.put(path, Arrays.copyOf(data, len));
+    }
+
+    @Override
+    public Upload start(final Path path) {
+      started++;
+      final Map<Integer, byte[]> parts = new ConcurrentHashMap<Integer, byte[]>();
+      return new Upload() {
+        @Override
+        public String uploadPart(int partNumber, byte[] data, int len) throws IOException {
+          CountDownLatch latch = blocked.get(partNumber);
+          if (latch != null) {
+            try {
+              latch.await();
+            } catch (InterruptedException e) {
+              throw new IOException(e);
+            }
+          }
+          if (partNumber == failing) {
+            failedHere.set(true);
+            events.add("part " + partNumber + " failed");
+            throw new IOException("Part " + partNumber + " failed");
+          }
+          parts.put(partNumber, Arrays.copyOf(data, len));
+          events.add("part " + partNumber + " uploaded");
+          return "etag" + partNumber;
+        }
+
+        @Override
+        public void complete(List<String> partTags) throws IOException {
+          ByteArrayOutputStream file = new ByteArrayOutputStream();
+          for (int i = 0; i < partTags.size(); i++) {
+            assertEquals("etag" + (i + 1), partTags.get(i));
+            file.write(parts.get(i + 1));
+          }
+          files.put(path, file.toByteArray());
+        }
+
+        @Override
+        public void abort() {
+          events.add("aborted");
+        }
+      };
+    }
+
+    List<String> events() {
+      synchronized (events) {
+        return new ArrayList<String>(events);
+      }
+    }
+  }
+}
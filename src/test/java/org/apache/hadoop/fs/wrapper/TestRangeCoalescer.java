@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestRangeCoalescer {
+
+  @Test
+  public void testMergesNearbyRanges() {
+    FileRange a = range(0, 100);
+    FileRange b = range(150, 50);
+    FileRange c = range(1000, 10);
+    // unsorted on purpose
+    List<RangeCoalescer.CombinedRange> combined =
+        RangeCoalescer.coalesce(Arrays.asList(c, b, a), 64, 1024);
+    assertEquals(2, combined.size());
+    assertEquals(0, combined.get(0).getOffset());
+    assertEquals(200, combined.get(0).getLength());
+    assertEquals(Arrays.asList(a, b), combined.get(0).getRanges());
+    assertFalse(combined.get(0).isSingle());
+    assertEquals(1000, combined.get(1).getOffset());
+    assertTrue(combined.get(1).isSingle());
+    assertSame(c, combined.get(1).getRanges().get(0));
+  }
+
+  @Test
+  public void testGapAndSizeLimits() {
+    FileRange a = range(0, 100);
+    FileRange b = range(165, 10);
+    // gap of 65 > 64
+    assertEquals(2, RangeCoalescer.coalesce(Arrays.asList(a, b), 64, 1024).size());
+    assertEquals(1, RangeCoalescer.coalesce(Arrays.asList(a, b), 65, 1024).size());
+    // merged range would be 175 bytes
+    assertEquals(2, RangeCoalescer.coalesce(Arrays.asList(a, b), 65, 174).size());
+    // a range larger than the limit is kept whole
+    List<RangeCoalescer.CombinedRange> large =
+        RangeCoalescer.coalesce(Arrays.asList(range(0, 4096)), 0, 1024);
+    assertEquals(1, large.size());
+    assertEquals(4096, large.get(0).getLength());
+  }
+
+  @Test
+  public void testOverlappingRanges() {
+    FileRange a = range(0, 100);
+    FileRange b = range(50, 20);
+    FileRange c = range(90, 30);
+    List<RangeCoalescer.CombinedRange> combined =
+        RangeCoalescer.coalesce(Arrays.asList(a, b, c), 0, 1024);
+    assertEquals(1, combined.size());
+    assertEquals(120, combined.get(0).getLength());
+
+    byte[] data = new byte[120];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) i;
+    }
+    combined.get(0).scatter(data);
+    assertArrayEquals(Arrays.copyOfRange(data, 0, 100), a.getBuffer());
+    assertArrayEquals(Arrays.copyOfRange(data, 50, 70), b.getBuffer());
+    assertArrayEquals(Arrays.copyOfRange(data, 90, 120), c.getBuffer());
+  }
+
+  @Test
+  public void testScatterHonoursBufferOffset() {
+    byte[] buffer = new byte[10];
+    FileRange a = new FileRange(100, buffer, 2, 3);
+    FileRange b = new FileRange(110, buffer, 6, 2);
+    List<RangeCoalescer.CombinedRange> combined =
+        RangeCoalescer.coalesce(Arrays.asList(a, b), 16, 1024);
+    assertEquals(1, combined.size());
+    byte[] data = new byte[12];
+    Arrays.fill(data, (byte) 7);
+    combined.get(0).scatter(data);
+    assertArrayEquals(new byte[] { 0, 0, 7, 7, 7, 0, 7, 7, 0, 0 }, buffer);
+  }
+
+  @Test
+  public void testSplit() {
+    byte[] b = new byte[1010];
+    List<RangeCoalescer.CombinedRange> parts = RangeCoalescer.split(5000, b, 10, 1000, 3);
+    assertEquals(3, parts.size());
+    long offset = 5000;
+    int bufferOffset = 10;
+    int total = 0;
+    for (RangeCoalescer.CombinedRange part : parts) {
+      assertTrue(part.isSingle());
+      FileRange range = part.getRanges().get(0);
+      assertEquals(offset, range.getOffset());
+      assertSame(b, range.getBuffer());
+      assertEquals(bufferOffset, range.getBufferOffset());
+      // parts differ by at most one byte
+      assertTrue(range.getLength() == 333 || range.getLength() == 334);
+      offset += range.getLength();
+      bufferOffset += range.getLength();
+      total += range.getLength();
+    }
+    assertEquals(1000, total);
+  }
+
+  private static FileRange range(long offset, int length) {
+    return new FileRange(offset, new byte[length]);
+  }
+}
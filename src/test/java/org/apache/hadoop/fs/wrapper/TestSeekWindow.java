@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestSeekWindow {
+
+  private static final int CAPACITY = 100;
+
+  @Test
+  public void testReadsBehindTheEnd() {
+    SeekWindow window = new SeekWindow(CAPACITY);
+    window.append(1000, bytes(1000, 60), 0, 60);
+    ByteBuffer dst = ByteBuffer.allocate(20);
+    assertEquals(20, window.read(1010, dst));
+    assertContent(1010, dst);
+    // up to the end of the window only
+    dst = ByteBuffer.allocate(50);
+    assertEquals(10, window.read(1050, dst));
+    assertContent(1050, dst);
+    window.release();
+  }
+
+  @Test
+  public void testOutsideTheWindow() {
+    SeekWindow window = new SeekWindow(CAPACITY);
+    assertEquals(0, window.read(0, ByteBuffer.allocate(10)));
+    window.append(1000, bytes(1000, 60), 0, 60);
+    assertEquals(0, window.read(999, ByteBuffer.allocate(10)));
+    assertEquals(0, window.read(1060, ByteBuffer.allocate(10)));
+    assertEquals(0, window.read(1000, ByteBuffer.allocate(0)));
+    window.release();
+  }
+
+  @Test
+  public void testWrapsAround() {
+    SeekWindow window = new SeekWindow(CAPACITY);
+    // 170 bytes in appends of 30 and 40; only the last 100 are kept
+    long position = 5;
+    for (int i = 0; i < 5; i++) {
+      int n = (i % 2 == 0) ? 30 : 40;
+      window.append(position, ByteBuffer.wrap(bytes(position, n)));
+      position += n;
+    }
+    assertEquals(0, window.read(position - CAPACITY - 1, ByteBuffer.allocate(1)));
+    ByteBuffer dst = ByteBuffer.allocateDirect(CAPACITY);
+    assertEquals(CAPACITY, window.read(position - CAPACITY, dst));
+    assertContent(position - CAPACITY, dst);
+    window.release();
+  }
+
+  @Test
+  public void testAppendLargerThanCapacity() {
+    SeekWindow window = new SeekWindow(CAPACITY);
+    ByteBuffer src = ByteBuffer.wrap(bytes(0, 250));
+    window.append(0, src);
+    assertEquals(0, src.remaining());
+    assertEquals(0, window.read(149, ByteBuffer.allocate(1)));
+    ByteBuffer dst = ByteBuffer.allocate(CAPACITY);
+    assertEquals(CAPACITY, window.read(150, dst));
+    assertContent(150, dst);
+    window.release();
+  }
+
+  @Test
+  public void testDiscontinuityStartsNewWindow() {
+    SeekWindow window = new SeekWindow(CAPACITY);
+    window.append(0, bytes(0, 50), 0, 50);
+    window.append(500, bytes(500, 20), 0, 20);
+    assertEquals(0, window.read(10, ByteBuffer.allocate(10)));
+    ByteBuffer dst = ByteBuffer.allocate(20);
+    assertEquals(20, window.read(500, dst));
+    assertContent(500, dst);
+    window.release();
+  }
+
+  @Test
+  public void testReleaseEmptiesTheWindow() {
+    SeekWindow window = new SeekWindow(CAPACITY);
+    window.append(0, bytes(0, 50), 0, 50);
+    window.release();
+    assertEquals(0, window.read(0, ByteBuffer.allocate(10)));
+    // a pooled ring starts a window of its own
+    window.append(200, bytes(200, 10), 0, 10);
+    ByteBuffer dst = ByteBuffer.allocate(10);
+    assertEquals(10, window.read(200, dst));
+    assertContent(200, dst);
+    window.release();
+  }
+
+  /**
+   * @return the bytes of a test file from position on, whose byte at i is i % 251
+   */
+  private static byte[] bytes(long position, int n) {
+    byte[] b = new byte[n];
+    for (int i = 0; i < n; i++) {
+      b[i] = (byte) ((position + i) % 251);
+    }
+    return b;
+  }
+
+  private static void assertContent(long position, ByteBuffer dst) {
+    dst.flip();
+    for (int i = 0; dst.hasRemaining(); i++) {
+      assertEquals("byte " + (position + i), (byte) ((position + i) % 251), dst.get());
+    }
+  }
+}
@@ -0,0 +1,187 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.wrapper.TestAdaptiveReadahead.CountingStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+
+import static org.apache.hadoop.fs.wrapper.TestAdaptiveReadahead.expected;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestSmallReadBuffer {
+
+  private static final int LENGTH = 1000;
+  private static final int SIZE = 64;
+  private static final int THRESHOLD = 16;
+
+  private CountingStream delegate;
+  private TracingInputStream in;
+
+  @Before
+  public void setUp() {
+    delegate = new CountingStream(LENGTH);
+    in = new TracingInputStream(new FSDataInputStream(delegate), new Path("s3a://bucket/f"),
+        LENGTH, "127.0.0.1", false, false);
+    in.setSmallReadBuffer(SIZE, THRESHOLD);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    in.close();
+  }
+
+  @Test
+  public void testReadFillsBuffer() throws IOException {
+    assertEquals(CountingStream.byteAt(0) & 0xff, in.read());
+    assertEquals(1, delegate.reads);
+    assertEquals(SIZE, delegate.bytes);
+    assertEquals(1, in.getPos());
+    assertEquals(SIZE - 1, in.available());
+
+    assertArrayEquals(expected(1, 10), read(10));
+    assertEquals(1, delegate.reads);
+    assertEquals(11, in.getPos());
+    assertEquals(SIZE - 11, in.available());
+  }
+
+  @Test
+  public void testSeekWithinBuffer() throws IOException {
+    read(10);
+    in.seek(0);
+    assertEquals(0, in.getPos());
+    assertEquals(SIZE, in.available());
+    assertArrayEquals(expected(0, 10), read(10));
+
+    in.seek(50);
+    assertEquals(50, in.getPos());
+    assertEquals(SIZE - 50, in.available());
+    assertArrayEquals(expected(50, 10), read(10));
+
+    // the end of the buffer is the position of the delegate
+    in.seek(SIZE);
+    assertEquals(SIZE, in.getPos());
+    assertEquals(LENGTH - SIZE, in.available());
+    assertEquals(0, delegate.seeks);
+    assertEquals(1, delegate.reads);
+
+    assertArrayEquals(expected(SIZE, 10), read(10));
+    assertEquals(2, delegate.reads);
+    assertEquals(SIZE + 10, in.getPos());
+  }
+
+  @Test
+  public void testSeekOutsideBuffer() throws IOException {
+    read(10);
+    in.seek(500);
+    assertEquals(1, delegate.seeks);
+    assertEquals(500, in.getPos());
+    assertEquals(LENGTH - 500, in.available());
+    assertArrayEquals(expected(500, 10), read(10));
+    assertEquals(510, in.getPos());
+  }
+
+  @Test
+  public void testLargeReadAfterBufferedRead() throws IOException {
+    read(10);
+    // the rest of the buffer first, then straight from the delegate
+    byte[] b = new byte[100];
+    assertEquals(SIZE - 10, in.read(b, 0, 100));
+    assertEquals(SIZE, in.getPos());
+    assertEquals(100, in.read(b, 0, 100));
+    assertArrayEquals(expected(SIZE, 100), b);
+    assertEquals(2, delegate.reads);
+    assertEquals(SIZE + 100, delegate.bytes);
+    assertEquals(SIZE + 100, in.getPos());
+  }
+
+  @Test
+  public void testDataInput() throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    byte[] bytes = expected(0, 400);
+    for (int i = 0; i < 100; i++) {
+      int expected = ((bytes[i * 4] & 0xff) << 24) | ((bytes[i * 4 + 1] & 0xff) << 16)
+          | ((bytes[i * 4 + 2] & 0xff) << 8) | (bytes[i * 4 + 3] & 0xff);
+      assertEquals(expected, data.readInt());
+    }
+    assertEquals(400, in.getPos());
+    assertEquals((400 + SIZE - 1) / SIZE, delegate.reads);
+  }
+
+  @Test
+  public void testEndOfFile() throws IOException {
+    in.seek(LENGTH - 10);
+    assertArrayEquals(expected(LENGTH - 10, 10), read(10));
+    assertEquals(LENGTH, in.getPos());
+    assertEquals(-1, in.read());
+    assertEquals(-1, in.read(new byte[8], 0, 8));
+    assertEquals(LENGTH, in.getPos());
+  }
+
+  @Test
+  public void testPositionalReadKeepsPosition() throws IOException {
+    read(10);
+    byte[] b = new byte[10];
+    assertEquals(10, in.read(500, b, 0, 10));
+    assertArrayEquals(expected(500, 10), b);
+    assertEquals(10, in.getPos());
+    assertEquals(SIZE - 10, in.available());
+    assertArrayEquals(expected(10, 10), read(10));
+  }
+
+  @Test
+  public void testWithReadahead() throws IOException {
+    in.enableReadahead(256, 1024);
+    byte[] bytes = expected(0, 600);
+    for (int i = 0; i < 600; i++) {
+      assertEquals(bytes[i] & 0xff, in.read());
+    }
+    assertEquals(600, in.getPos());
+    in.seek(590);
+    assertEquals(590, in.getPos());
+    assertArrayEquals(expected(590, 10), read(10));
+    in.seek(100);
+    assertEquals(100, in.getPos());
+    assertArrayEquals(expected(100, 10), read(10));
+    assertEquals(110, in.getPos());
+  }
+
+  /**
+   * Reads len bytes one read(byte[], int, int) call at a time.
+   */
+  private byte[] read(int len) throws IOException {
+    byte[] b = new byte[len];
+    int off = 0;
+    while (off < len) {
+      int n = in.read(b, off, len - off);
+      assertTrue(n > 0);
+      off += n;
+    }
+    return b;
+  }
+}
@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestTokenBucket {
+
+  @Test
+  public void testBurstThenEmpty() {
+    // one permit per 200ms, so the bucket does not refill during the burst
+    TokenBucket bucket = new TokenBucket(5);
+    for (int i = 0; i < 5; i++) {
+      assertTrue("permit " + i, bucket.tryAcquire());
+    }
+    assertFalse(bucket.tryAcquire());
+  }
+
+  @Test
+  public void testRefillAfterIdle() throws InterruptedException {
+    TokenBucket bucket = new TokenBucket(5);
+    while (bucket.tryAcquire()) {
+      // drain
+    }
+    Thread.sleep(1100);
+    int acquired = 0;
+    while (bucket.tryAcquire()) {
+      acquired++;
+    }
+    // full again, but never more than one second worth of permits
+    assertEquals(5, acquired);
+  }
+
+  @Test
+  public void testConcurrentAcquire() throws InterruptedException {
+    final TokenBucket bucket = new TokenBucket(1000);
+    final AtomicLong acquired = new AtomicLong();
+    Thread[] threads = new Thread[8];
+    long start = System.nanoTime();
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 10000; j++) {
+            if (bucket.tryAcquire()) {
+              acquired.incrementAndGet();
+            }
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    long elapsedMs = (System.nanoTime() - start) / 1000000;
+    assertTrue(acquired.get() >= 1000);
+    // the initial burst plus what was refilled while the threads ran
+    assertTrue(acquired.get() + " permits in " + elapsedMs + "ms",
+        acquired.get() <= 1000 + elapsedMs + 1);
+  }
+}
@@ -0,0 +1,79 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestTraceSampler {
+
+  @Test
+  public void testTracesEverythingByDefault() {
+    TraceSampler sampler = new TraceSampler(new Configuration(false));
+    for (int i = 0; i < 10; i++) {
+      assertTrue(sampler.sample(new Path("s3a://bucket/t/" + i)));
+    }
+  }
+
+  @Test
+  public void testSampleStreams() {
+    Configuration conf = new Configuration(false);
+    conf.setInt(Constants.TRACE_SAMPLE_STREAMS, 4);
+    TraceSampler sampler = new TraceSampler(conf);
+    int sampled = 0;
+    for (int i = 0; i < 100; i++) {
+      if (sampler.sample(new Path("s3a://bucket/t/" + i))) {
+        sampled++;
+      }
+    }
+    assertEquals(25, sampled);
+  }
+
+  @Test
+  public void testIncludePaths() {
+    Configuration conf = new Configuration(false);
+    conf.set(Constants.TRACE_INCLUDE_PATHS, "/warehouse/.*\\.orc$");
+    TraceSampler sampler = new TraceSampler(conf);
+    assertTrue(sampler.sample(new Path("s3a://bucket/warehouse/t/000000_0.orc")));
+    assertFalse(sampler.sample(new Path("s3a://bucket/warehouse/t/_SUCCESS")));
+    assertFalse(sampler.sample(new Path("s3a://bucket/tmp/000000_0.orc")));
+  }
+
+  @Test
+  public void testIncludedPathsAreSampled() {
+    Configuration conf = new Configuration(false);
+    conf.setInt(Constants.TRACE_SAMPLE_STREAMS, 2);
+    conf.set(Constants.TRACE_INCLUDE_PATHS, "\\.orc$");
+    TraceSampler sampler = new TraceSampler(conf);
+    int sampled = 0;
+    for (int i = 0; i < 10; i++) {
+      // excluded paths do not count towards the 1 in N
+      sampler.sample(new Path("s3a://bucket/t/" + i + ".txt"));
+      if (sampler.sample(new Path("s3a://bucket/t/" + i + ".orc"))) {
+        sampled++;
+      }
+    }
+    assertEquals(5, sampled);
+  }
+}
@@ -0,0 +1,86 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class TestTraceTags {
+
+  @After
+  public void tearDown() {
+    TraceTags.clearForThread();
+    TraceTags.setCurrent(conf(null));
+  }
+
+  @Test
+  public void testIntern() {
+    TraceTags tags = new TraceTags();
+    assertEquals(TraceTags.NO_TAGS, tags.intern(conf(null)));
+    int id = tags.intern(conf("q1"));
+    assertEquals(id, tags.intern(conf("q1")));
+    assertNotEquals(id, tags.intern(conf("q2")));
+    // commas and spaces would break the trace line
+    assertEquals("hive.query.id=a_b_c", tags.get(tags.intern(conf("a,b c"))));
+  }
+
+  @Test
+  public void testResolveOrder() throws InterruptedException {
+    final TraceTags tags = TraceRecorder.get(conf(null)).getTags();
+    int filesystem = tags.intern(conf("init"));
+    assertEquals(filesystem, tags.resolve(filesystem));
+
+    TraceTags.setCurrent(conf("task2"));
+    int task = tags.intern(conf("task2"));
+    assertEquals(task, tags.resolve(filesystem));
+
+    TraceTags.setForThread(conf("thread"));
+    assertEquals(tags.intern(conf("thread")), tags.resolve(filesystem));
+
+    // other threads only see the task tags
+    final int[] other = new int[1];
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        other[0] = tags.resolve(TraceTags.NO_TAGS);
+      }
+    };
+    thread.start();
+    thread.join();
+    assertEquals(task, other[0]);
+
+    TraceTags.clearForThread();
+    assertEquals(task, tags.resolve(filesystem));
+    TraceTags.setCurrent(conf(null));
+    assertEquals(filesystem, tags.resolve(filesystem));
+  }
+
+  private static Configuration conf(String queryId) {
+    Configuration conf = new Configuration(false);
+    conf.set(Constants.TRACE_SINK, Constants.TRACE_SINK_LOG);
+    if (queryId != null) {
+      conf.set("hive.query.id", queryId);
+    }
+    return conf;
+  }
+}
@@ -0,0 +1,144 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.hadoop.fs.wrapper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestTreeOperations {
+
+  private File dir;
+  private FileSystem fs;
+  private TreeOperations tree;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = new File(System.getProperty("test.build.data", "target/test/data"),
+        "TestTreeOperations").getAbsoluteFile();
+    FileUtil.fullyDelete(dir);
+    Configuration conf = new Configuration();
+    fs = FileSystem.getLocal(conf);
+    tree = new TreeOperations();
+    tree.initialize(fs, conf);
+  }
+
+  @After
+  public void tearDown() {
+    FileUtil.fullyDelete(dir);
+  }
+
+  @Test
+  public void testRename() throws IOException {
+    Path src = path("src");
+    write(new Path(src, "a/1"), 1);
+    write(new Path(src, "a/b/2"), 2);
+    write(new Path(src, "3"), 3);
+    assertTrue(fs.mkdirs(new Path(src, "empty")));
+    assertTrue(fs.mkdirs(new Path(src, "c/d")));
+
+    Path dst = path("dst");
+    assertTrue(tree.rename(src, dst, null));
+    assertFalse(fs.exists(src));
+    assertEquals(1, fs.getFileStatus(new Path(dst, "a/1")).getLen());
+    assertEquals(2, fs.getFileStatus(new Path(dst, "a/b/2")).getLen());
+    assertEquals(3, fs.getFileStatus(new Path(dst, "3")).getLen());
+    // empty directories are kept, at any depth
+    assertTrue(fs.getFileStatus(new Path(dst, "empty")).isDirectory());
+    assertTrue(fs.getFileStatus(new Path(dst, "c/d")).isDirectory());
+  }
+
+  @Test
+  public void testProgress() throws IOException {
+    Path src = path("src");
+    for (int i = 0; i < 5; i++) {
+      write(new Path(src, i + "/" + i), i);
+    }
+    final long[] reported = { -1, -1 };
+    TreeOperations.Progress progress = new TreeOperations.Progress() {
+      @Override
+      public void progress(long files) {
+        reported[0] = files;
+      }
+
+      @Override
+      public void done(long files) {
+        reported[1] = files;
+      }
+    };
+    assertTrue(tree.rename(src, path("dst"), progress));
+    // less than an interval
+    assertEquals(-1, reported[0]);
+    assertEquals(5, reported[1]);
+    reported[1] = -1;
+    assertTrue(tree.delete(path("dst"), progress));
+    assertEquals(5, reported[1]);
+  }
+
+  @Test
+  public void testRenameEmptyIntoDirectory() throws IOException {
+    Path src = path("src");
+    assertTrue(fs.mkdirs(src));
+    Path into = path("into");
+    assertTrue(fs.mkdirs(into));
+    assertTrue(tree.rename(src, into, null));
+    assertFalse(fs.exists(src));
+    assertTrue(fs.getFileStatus(new Path(into, "src")).isDirectory());
+    // not into itself
+    assertFalse(tree.rename(into, new Path(into, "src"), null));
+  }
+
+  @Test
+  public void testDelete() throws IOException {
+    Path src = path("src");
+    for (int i = 0; i < 20; i++) {
+      write(new Path(src, (i % 3) + "/" + i), i);
+    }
+    assertTrue(fs.mkdirs(new Path(src, "empty/empty")));
+    assertTrue(tree.delete(src, null));
+    assertFalse(fs.exists(src));
+    assertFalse(tree.delete(src, null));
+  }
+
+  private Path path(String name) {
+    return fs.makeQualified(new Path(dir.getPath(), name));
+  }
+
+  private void write(Path path, int len) throws IOException {
+    FSDataOutputStream out = fs.create(path);
+    try {
+      out.write(new byte[len]);
+    } finally {
+      out.close();
+    }
+  }
+}